@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+/**
+ * The occupied cells of a grid as a boolean[][] indexed by [x][y], the way CellLayout stored them
+ * before {@link com.android.launcher3.util.GridOccupancy}: every query scans each cell of the
+ * span. This is the baseline of {@link OccupancyBenchmark}, and the reference of the tests.
+ */
+public class BooleanGridOccupancy {
+
+    public final int countX;
+    public final int countY;
+    public final boolean[][] cells;
+
+    public BooleanGridOccupancy(int countX, int countY) {
+        this.countX = countX;
+        this.countY = countY;
+        cells = new boolean[countX][countY];
+    }
+
+    public void set(int x, int y, boolean value) {
+        cells[x][y] = value;
+    }
+
+    /**
+     * Marks the cells of the span, ignoring the part outside of the grid and the spans starting
+     * at a negative cell, as CellLayout.markCellsForView() did.
+     */
+    public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0) return;
+        for (int x = cellX; x < cellX + spanX && x < countX; x++) {
+            for (int y = cellY; y < cellY + spanY && y < countY; y++) {
+                cells[x][y] = value;
+            }
+        }
+    }
+
+    public int countOccupied(int cellX, int cellY, int spanX, int spanY) {
+        int count = 0;
+        for (int x = cellX; x < cellX + spanX; x++) {
+            for (int y = cellY; y < cellY + spanY; y++) {
+                if (cells[x][y]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public boolean isRegionVacant(int cellX, int cellY, int spanX, int spanY) {
+        if (cellX < 0 || cellY < 0 || spanX <= 0 || spanY <= 0
+                || cellX + spanX > countX || cellY + spanY > countY) {
+            return false;
+        }
+        for (int x = cellX; x < cellX + spanX; x++) {
+            for (int y = cellY; y < cellY + spanY; y++) {
+                if (cells[x][y]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= countY; y++) {
+            for (int x = 0; x + spanX <= countX; x++) {
+                if (isRegionVacant(x, y, spanX, spanY)) {
+                    vacant[0] = x;
+                    vacant[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+/**
+ * The reorder searches made by a CellLayout during drags, as logged by CellLayout when
+ * LOG_REORDER_TRACE is set, to be replayed off the device.
+ *
+ * <p>A trace is a text file of drags. Each drag starts with the grid and the committed positions
+ * of its items, followed by the arguments of each reorder search:
+ * <pre>
+ * grid countX countY
+ * cell paddingLeft paddingTop cellWidth cellHeight widthGap heightGap
+ * item id cellX cellY spanX spanY [fixed]
+ * drag id minSpanX minSpanY spanX spanY
+ * move pixelX pixelY directionX directionY
+ * </pre>
+ * Empty lines and lines starting with # are ignored. The dragged item is one of the items, or -
+ * for an item dragged in from somewhere else. The items marked fixed may not be moved out of its
+ * way.
+ */
+public class DragTrace {
+
+    public static class Item {
+        public final String id;
+        public final int cellX, cellY, spanX, spanY;
+        public final boolean canReorder;
+
+        Item(String id, int cellX, int cellY, int spanX, int spanY, boolean canReorder) {
+            this.id = id;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.spanX = spanX;
+            this.spanY = spanY;
+            this.canReorder = canReorder;
+        }
+    }
+
+    public static class Drag {
+        public int countX, countY;
+        public int paddingLeft, paddingTop, cellWidth, cellHeight, widthGap, heightGap;
+        public final ArrayList<Item> items = new ArrayList<Item>();
+        // Null for an item dragged in from somewhere else
+        public Item dragItem;
+        public int minSpanX, minSpanY, spanX, spanY;
+        // pixelX, pixelY, directionX, directionY of each search
+        public final ArrayList<int[]> moves = new ArrayList<int[]>();
+    }
+
+    public final String name;
+    public final ArrayList<Drag> drags = new ArrayList<Drag>();
+
+    public DragTrace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the number of reorder searches of all the drags.
+     */
+    public int getMoveCount() {
+        int count = 0;
+        for (Drag drag : drags) {
+            count += drag.moves.size();
+        }
+        return count;
+    }
+
+    public static DragTrace read(File file) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            DragTrace trace = new DragTrace(file.getName());
+            Drag drag = null;
+            boolean dragStarted = false;
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] args = line.split("\\s+");
+                try {
+                    if (args[0].equals("grid")) {
+                        drag = new Drag();
+                        dragStarted = false;
+                        drag.countX = parse(args, 1);
+                        drag.countY = parse(args, 2);
+                    } else if (args[0].equals("cell")) {
+                        checkDrag(drag, dragStarted, false);
+                        drag.paddingLeft = parse(args, 1);
+                        drag.paddingTop = parse(args, 2);
+                        drag.cellWidth = parse(args, 3);
+                        drag.cellHeight = parse(args, 4);
+                        drag.widthGap = parse(args, 5);
+                        drag.heightGap = parse(args, 6);
+                    } else if (args[0].equals("item")) {
+                        checkDrag(drag, dragStarted, false);
+                        boolean fixed = args.length > 6 && args[6].equals("fixed");
+                        drag.items.add(new Item(args[1], parse(args, 2), parse(args, 3),
+                                parse(args, 4), parse(args, 5), !fixed));
+                    } else if (args[0].equals("drag")) {
+                        checkDrag(drag, dragStarted, false);
+                        for (Item item : drag.items) {
+                            if (item.id.equals(args[1])) {
+                                drag.dragItem = item;
+                            }
+                        }
+                        if (drag.dragItem == null && !args[1].equals("-")) {
+                            throw new IllegalArgumentException("unknown item " + args[1]);
+                        }
+                        drag.minSpanX = parse(args, 2);
+                        drag.minSpanY = parse(args, 3);
+                        drag.spanX = parse(args, 4);
+                        drag.spanY = parse(args, 5);
+                        trace.drags.add(drag);
+                        dragStarted = true;
+                    } else if (args[0].equals("move")) {
+                        checkDrag(drag, dragStarted, true);
+                        drag.moves.add(new int[] {
+                                parse(args, 1), parse(args, 2), parse(args, 3), parse(args, 4) });
+                    } else {
+                        throw new IllegalArgumentException("unknown line");
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage() + ": "
+                            + line, e);
+                }
+            }
+            return trace;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkDrag(Drag drag, boolean dragStarted, boolean expected) {
+        if (drag == null) {
+            throw new IllegalArgumentException("missing grid line");
+        }
+        if (dragStarted != expected) {
+            throw new IllegalArgumentException(expected ? "missing drag line" : "after drag line");
+        }
+    }
+
+    private static int parse(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("missing argument " + index);
+        }
+        return Integer.parseInt(args[index]);
+    }
+}
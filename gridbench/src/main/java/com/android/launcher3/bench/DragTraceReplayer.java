@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.GridPlacementEngine;
+import com.android.launcher3.util.GridPlacementEngine.CellAndSpan;
+import com.android.launcher3.util.GridPlacementEngine.ItemConfiguration;
+
+/**
+ * Replays the reorder searches of a {@link DragTrace} on a {@link GridPlacementEngine}, the way
+ * CellLayout makes them during a drag: the cells of the dragged item are vacant, and each search
+ * starts from the committed positions of the items.
+ */
+public class DragTraceReplayer {
+
+    private final long mTimeBudgetNs;
+    private final boolean mVerify;
+
+    private int mSolutions;
+
+    /**
+     * @param timeBudgetNs the time budget of the engine, {@link Long#MAX_VALUE} for no limit
+     * @param verify       whether to check every solution, see {@link #verify}
+     */
+    public DragTraceReplayer(long timeBudgetNs, boolean verify) {
+        mTimeBudgetNs = timeBudgetNs;
+        mVerify = verify;
+    }
+
+    /**
+     * Replays all the drags of the trace, and returns the number of searches which found a
+     * solution.
+     */
+    public int replay(DragTrace trace) {
+        mSolutions = 0;
+        for (DragTrace.Drag drag : trace.drags) {
+            replay(drag);
+        }
+        return mSolutions;
+    }
+
+    private void replay(DragTrace.Drag drag) {
+        GridOccupancy occupied = new GridOccupancy(drag.countX, drag.countY);
+        GridPlacementEngine<DragTrace.Item> engine = new GridPlacementEngine<DragTrace.Item>(
+                occupied, new GridOccupancy(drag.countX, drag.countY));
+        engine.setCellMetrics(drag.paddingLeft, drag.paddingTop, drag.cellWidth, drag.cellHeight,
+                drag.widthGap, drag.heightGap);
+        engine.setTimeBudget(mTimeBudgetNs);
+
+        ItemConfiguration<DragTrace.Item> currentState = new ItemConfiguration<DragTrace.Item>();
+        for (DragTrace.Item item : drag.items) {
+            CellAndSpan c = currentState.obtain(item);
+            c.set(item.cellX, item.cellY, item.spanX, item.spanY);
+            c.canReorder = item.canReorder;
+            if (item != drag.dragItem) {
+                occupied.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
+            }
+        }
+
+        int[] direction = new int[2];
+        for (int[] move : drag.moves) {
+            // The search may change the direction it is given
+            direction[0] = move[2];
+            direction[1] = move[3];
+            ItemConfiguration<DragTrace.Item> solution = engine.findReorderSolution(currentState,
+                    move[0], move[1], drag.minSpanX, drag.minSpanY, drag.spanX, drag.spanY,
+                    direction, drag.dragItem);
+            if (solution.isSolution) {
+                mSolutions++;
+                if (mVerify) {
+                    verify(drag, solution);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the solution places the dragged item at its minimum span or larger, and every
+     * other item inside the grid without overlaps, leaving the fixed items where they were.
+     *
+     * @throws IllegalStateException if it does not
+     */
+    public static void verify(DragTrace.Drag drag, ItemConfiguration<DragTrace.Item> solution) {
+        if (solution.dragViewSpanX < drag.minSpanX || solution.dragViewSpanY < drag.minSpanY
+                || solution.dragViewSpanX > drag.spanX || solution.dragViewSpanY > drag.spanY) {
+            throw new IllegalStateException("dragged item has span " + solution.dragViewSpanX
+                    + "x" + solution.dragViewSpanY);
+        }
+        GridOccupancy placed = new GridOccupancy(drag.countX, drag.countY);
+        place(placed, "dragged item", solution.dragViewX, solution.dragViewY,
+                solution.dragViewSpanX, solution.dragViewSpanY);
+        for (DragTrace.Item item : drag.items) {
+            if (item == drag.dragItem) {
+                continue;
+            }
+            CellAndSpan c = solution.map.get(item);
+            if (c == null) {
+                throw new IllegalStateException("item " + item.id + " is missing");
+            }
+            if (c.spanX != item.spanX || c.spanY != item.spanY) {
+                throw new IllegalStateException("item " + item.id + " was resized to " + c);
+            }
+            if (!item.canReorder && (c.x != item.cellX || c.y != item.cellY)) {
+                throw new IllegalStateException("fixed item " + item.id + " was moved to " + c);
+            }
+            place(placed, "item " + item.id, c.x, c.y, c.spanX, c.spanY);
+        }
+    }
+
+    private static void place(GridOccupancy placed, String name, int x, int y, int spanX,
+            int spanY) {
+        if (x < 0 || y < 0 || x + spanX > placed.countX || y + spanY > placed.countY) {
+            throw new IllegalStateException(name + " is outside of the grid at " + x + ", " + y);
+        }
+        if (!placed.isRegionVacant(x, y, spanX, spanY)) {
+            throw new IllegalStateException(name + " overlaps another item at " + x + ", " + y);
+        }
+        placed.markCells(x, y, spanX, spanY, true);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import com.android.launcher3.util.LongHashMap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Compares {@link LongHashMap} against the HashMap<Long, E> the launcher model used for its id
+ * maps, on the work loadWorkspace() and the bind and update paths do with them.
+ *
+ * <p>A pass builds a map of the items of a workspace, looks every item up a number of times in
+ * a random order, removes a tenth of them and walks the rest. The item ids are sequential from
+ * 1000, as on a workspace which was edited for a while, so that Long.valueOf() does not serve
+ * them from its cache. The time and, on a JVM which reports it, the bytes allocated by a pass
+ * are printed for each workspace size.
+ *
+ * <pre>
+ * LongMapBenchmark [--warmup n] [--iterations n]
+ * </pre>
+ */
+public class LongMapBenchmark {
+
+    private static final int[] ITEM_COUNTS = { 50, 200, 1000 };
+    private static final long FIRST_ID = 1000;
+    private static final int LOOKUPS_PER_ITEM = 8;
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 2000;
+    private static final int DEFAULT_MEASURED_ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        int warmup = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_MEASURED_ITERATIONS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                System.err.println("usage: LongMapBenchmark [--warmup n] [--iterations n]");
+                System.exit(1);
+            }
+        }
+
+        Random random = new Random(1);
+        long[][] ids = new long[ITEM_COUNTS.length][];
+        long[][] lookups = new long[ITEM_COUNTS.length][];
+        Object[][] items = new Object[ITEM_COUNTS.length][];
+        for (int c = 0; c < ITEM_COUNTS.length; c++) {
+            final int count = ITEM_COUNTS[c];
+            ids[c] = new long[count];
+            items[c] = new Object[count];
+            for (int i = 0; i < count; i++) {
+                ids[c][i] = FIRST_ID + i;
+                items[c][i] = new Object();
+            }
+            lookups[c] = new long[count * LOOKUPS_PER_ITEM];
+            for (int i = 0; i < lookups[c].length; i++) {
+                lookups[c][i] = ids[c][random.nextInt(count)];
+            }
+            if (runLongHashMap(ids[c], items[c], lookups[c])
+                    != runHashMap(ids[c], items[c], lookups[c])) {
+                throw new IllegalStateException("the maps do not agree on " + count + " items");
+            }
+        }
+
+        for (int i = 1; i < warmup; i++) {
+            for (int c = 0; c < ITEM_COUNTS.length; c++) {
+                runLongHashMap(ids[c], items[c], lookups[c]);
+                runHashMap(ids[c], items[c], lookups[c]);
+            }
+        }
+
+        System.out.println(String.format("%-6s %-10s %12s %10s %14s", "items", "map",
+                "us/pass", "stddev", "bytes/pass"));
+        for (int c = 0; c < ITEM_COUNTS.length; c++) {
+            double[] longNs = new double[iterations];
+            double[] boxedNs = new double[iterations];
+            long longBytes = 0;
+            long boxedBytes = 0;
+            for (int i = 0; i < iterations; i++) {
+                // Alternated, so that both see the same state of the machine
+                long bytes = getAllocatedBytes();
+                long start = System.nanoTime();
+                runLongHashMap(ids[c], items[c], lookups[c]);
+                longNs[i] = System.nanoTime() - start;
+                longBytes += getAllocatedBytes() - bytes;
+
+                bytes = getAllocatedBytes();
+                start = System.nanoTime();
+                runHashMap(ids[c], items[c], lookups[c]);
+                boxedNs[i] = System.nanoTime() - start;
+                boxedBytes += getAllocatedBytes() - bytes;
+            }
+            print(ITEM_COUNTS[c], "LongHash", longNs, longBytes / iterations);
+            print(ITEM_COUNTS[c], "HashMap", boxedNs, boxedBytes / iterations);
+        }
+    }
+
+    /**
+     * Runs a pass on a LongHashMap, and returns a hash of the results.
+     */
+    private static long runLongHashMap(long[] ids, Object[] items, long[] lookups) {
+        LongHashMap<Object> map = new LongHashMap<Object>();
+        for (int i = 0; i < ids.length; i++) {
+            map.put(ids[i], items[i]);
+        }
+        long result = 0;
+        for (long id : lookups) {
+            result = result * 31 + map.get(id).hashCode();
+        }
+        for (int i = 0; i < ids.length; i += 10) {
+            map.remove(ids[i]);
+        }
+        long keys = 0;
+        for (int i = 0; i < map.size(); i++) {
+            keys += map.keyAt(i);
+        }
+        return (result * 31 + keys) * 31 + map.size();
+    }
+
+    /**
+     * Same as {@link #runLongHashMap} on a HashMap<Long, Object>.
+     */
+    private static long runHashMap(long[] ids, Object[] items, long[] lookups) {
+        HashMap<Long, Object> map = new HashMap<Long, Object>();
+        for (int i = 0; i < ids.length; i++) {
+            map.put(ids[i], items[i]);
+        }
+        long result = 0;
+        for (long id : lookups) {
+            result = result * 31 + map.get(id).hashCode();
+        }
+        for (int i = 0; i < ids.length; i += 10) {
+            map.remove(ids[i]);
+        }
+        long keys = 0;
+        for (Long id : map.keySet()) {
+            keys += id;
+        }
+        return (result * 31 + keys) * 31 + map.size();
+    }
+
+    private static void print(int items, String map, double[] ns, long bytes) {
+        double mean = 0;
+        for (double value : ns) {
+            mean += value;
+        }
+        mean /= ns.length;
+        double variance = 0;
+        for (double value : ns) {
+            variance += (value - mean) * (value - mean);
+        }
+        double stddev = Math.sqrt(variance / ns.length);
+        String allocated = getAllocatedBytes() >= 0 ? Long.toString(bytes) : "n/a";
+        System.out.println(String.format("%-6d %-10s %12.2f %10.2f %14s", items, map,
+                mean / 1000, stddev / 1000, allocated));
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or -1 if the JVM does not report them.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import com.android.launcher3.util.GridOccupancy;
+
+import java.util.Random;
+
+/**
+ * Compares the vacancy queries of {@link GridOccupancy} against the boolean[][] grid CellLayout
+ * used before, {@link BooleanGridOccupancy}, on square grids from 4x4 to 12x12.
+ *
+ * <p>For each size, a number of random layouts are filled to about half of their cells. A pass
+ * changes one cell of each layout, as a drag does, so that the summed-area table of
+ * GridOccupancy is rebuilt, then queries isRegionVacant() for every span up to 4x4 at every
+ * position and findVacantCell() for every span, and restores the cell. Both grids must give the
+ * same answers. All the sizes are warmed up first, then the mean time of a query and its standard
+ * deviation over the measured passes are printed for each size.
+ *
+ * <pre>
+ * OccupancyBenchmark [--warmup n] [--iterations n] [--seed n]
+ * </pre>
+ */
+public class OccupancyBenchmark {
+
+    private static final int MIN_SIZE = 4;
+    private static final int MAX_SIZE = 12;
+    private static final int MAX_SPAN = 4;
+    private static final int LAYOUTS = 64;
+    private static final float FILL = 0.5f;
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 100;
+    private static final int DEFAULT_MEASURED_ITERATIONS = 50;
+    private static final long DEFAULT_SEED = 1;
+
+    public static void main(String[] args) {
+        int warmup = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_MEASURED_ITERATIONS;
+        long seed = DEFAULT_SEED;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("usage: OccupancyBenchmark [--warmup n] [--iterations n]"
+                        + " [--seed n]");
+                System.exit(1);
+            }
+        }
+
+        final int sizes = MAX_SIZE - MIN_SIZE + 1;
+        GridOccupancy[][] bits = new GridOccupancy[sizes][LAYOUTS];
+        BooleanGridOccupancy[][] booleans = new BooleanGridOccupancy[sizes][LAYOUTS];
+        int[][] changedCells = new int[sizes][LAYOUTS];
+        long[] results = new long[sizes];
+        Random random = new Random(seed);
+        for (int s = 0; s < sizes; s++) {
+            final int size = MIN_SIZE + s;
+            for (int i = 0; i < LAYOUTS; i++) {
+                bits[s][i] = new GridOccupancy(size, size);
+                booleans[s][i] = new BooleanGridOccupancy(size, size);
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        boolean occupied = random.nextFloat() < FILL;
+                        bits[s][i].set(x, y, occupied);
+                        booleans[s][i].set(x, y, occupied);
+                    }
+                }
+                changedCells[s][i] = random.nextInt(size * size);
+            }
+            results[s] = runBits(bits[s], changedCells[s]);
+            if (results[s] != runBooleans(booleans[s], changedCells[s])) {
+                throw new IllegalStateException("the grids do not agree on the " + size + "x"
+                        + size + " layouts");
+            }
+        }
+
+        // All the sizes run the same code, which is warmed up before any is measured
+        for (int i = 1; i < warmup; i++) {
+            for (int s = 0; s < sizes; s++) {
+                runBits(bits[s], changedCells[s]);
+                runBooleans(booleans[s], changedCells[s]);
+            }
+        }
+
+        System.out.println(String.format("%-6s %8s %14s %8s %16s %8s %8s", "grid", "queries",
+                "bits ns/query", "stddev", "bool ns/query", "stddev", "speedup"));
+        for (int s = 0; s < sizes; s++) {
+            final int size = MIN_SIZE + s;
+            final int queries = getQueryCount(size);
+            double[] bitsNs = new double[iterations];
+            double[] booleansNs = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                // Alternated, so that both see the same state of the machine
+                long start = System.nanoTime();
+                long bitsResult = runBits(bits[s], changedCells[s]);
+                bitsNs[i] = (double) (System.nanoTime() - start) / queries;
+                start = System.nanoTime();
+                long booleansResult = runBooleans(booleans[s], changedCells[s]);
+                booleansNs[i] = (double) (System.nanoTime() - start) / queries;
+                if (bitsResult != results[s] || booleansResult != results[s]) {
+                    throw new IllegalStateException("the answers changed between passes on the "
+                            + size + "x" + size + " layouts");
+                }
+            }
+
+            double bitsMean = mean(bitsNs);
+            double booleansMean = mean(booleansNs);
+            System.out.println(String.format("%-6s %8d %14.2f %8.2f %16.2f %8.2f %7.2fx",
+                    size + "x" + size, queries, bitsMean, stddev(bitsNs, bitsMean),
+                    booleansMean, stddev(booleansNs, booleansMean), booleansMean / bitsMean));
+        }
+    }
+
+    /**
+     * Returns the number of queries made by a pass on the layouts of the size.
+     */
+    private static int getQueryCount(int size) {
+        int queries = 0;
+        final int maxSpan = Math.min(MAX_SPAN, size);
+        for (int spanX = 1; spanX <= maxSpan; spanX++) {
+            for (int spanY = 1; spanY <= maxSpan; spanY++) {
+                queries += (size - spanX + 1) * (size - spanY + 1) + 1;
+            }
+        }
+        return queries * LAYOUTS;
+    }
+
+    /**
+     * Runs a pass on the layouts, and returns a hash of the answers.
+     */
+    private static long runBits(GridOccupancy[] layouts, int[] changedCells) {
+        final int[] vacant = new int[2];
+        long result = 0;
+        for (int i = 0; i < layouts.length; i++) {
+            final GridOccupancy grid = layouts[i];
+            final int size = grid.countX;
+            final int changedX = changedCells[i] % size;
+            final int changedY = changedCells[i] / size;
+            grid.set(changedX, changedY, !grid.isOccupied(changedX, changedY));
+
+            final int maxSpan = Math.min(MAX_SPAN, size);
+            for (int spanX = 1; spanX <= maxSpan; spanX++) {
+                for (int spanY = 1; spanY <= maxSpan; spanY++) {
+                    for (int y = 0; y + spanY <= size; y++) {
+                        for (int x = 0; x + spanX <= size; x++) {
+                            if (grid.isRegionVacant(x, y, spanX, spanY)) {
+                                result = result * 31 + (y * size + x);
+                            }
+                        }
+                    }
+                    if (grid.findVacantCell(vacant, spanX, spanY)) {
+                        result = result * 31 + (vacant[1] * size + vacant[0]);
+                    } else {
+                        result = result * 31 - 1;
+                    }
+                }
+            }
+
+            grid.set(changedX, changedY, !grid.isOccupied(changedX, changedY));
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #runBits} on the boolean[][] grids.
+     */
+    private static long runBooleans(BooleanGridOccupancy[] layouts, int[] changedCells) {
+        final int[] vacant = new int[2];
+        long result = 0;
+        for (int i = 0; i < layouts.length; i++) {
+            final BooleanGridOccupancy grid = layouts[i];
+            final int size = grid.countX;
+            final int changedX = changedCells[i] % size;
+            final int changedY = changedCells[i] / size;
+            grid.set(changedX, changedY, !grid.cells[changedX][changedY]);
+
+            final int maxSpan = Math.min(MAX_SPAN, size);
+            for (int spanX = 1; spanX <= maxSpan; spanX++) {
+                for (int spanY = 1; spanY <= maxSpan; spanY++) {
+                    for (int y = 0; y + spanY <= size; y++) {
+                        for (int x = 0; x + spanX <= size; x++) {
+                            if (grid.isRegionVacant(x, y, spanX, spanY)) {
+                                result = result * 31 + (y * size + x);
+                            }
+                        }
+                    }
+                    if (grid.findVacantCell(vacant, spanX, spanY)) {
+                        result = result * 31 + (vacant[1] * size + vacant[0]);
+                    } else {
+                        result = result * 31 - 1;
+                    }
+                }
+            }
+
+            grid.set(changedX, changedY, !grid.cells[changedX][changedY]);
+        }
+        return result;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stddev(double[] values, double mean) {
+        double variance = 0;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(variance / values.length);
+    }
+}
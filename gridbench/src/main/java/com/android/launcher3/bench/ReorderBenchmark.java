@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import com.android.launcher3.util.GridPlacementEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Measures the reorder searches of the drag traces, for comparing the performance of the grid
+ * placement engine between builds.
+ *
+ * <p>Each trace is replayed for a number of warmup iterations, the first one checking every
+ * solution, then for a number of measured iterations. The mean time of a search and its standard
+ * deviation over the measured iterations are printed for each trace. By default the engine has
+ * no time budget, so that all the searches run to completion.
+ *
+ * <pre>
+ * ReorderBenchmark [--warmup n] [--iterations n] [--budget ms] trace-file-or-directory...
+ * </pre>
+ */
+public class ReorderBenchmark {
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    private static final int DEFAULT_MEASURED_ITERATIONS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int warmup = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_MEASURED_ITERATIONS;
+        long budgetNs = Long.MAX_VALUE;
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                budgetNs = Long.parseLong(args[++i]) * 1000000L;
+            } else {
+                addTraceFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: ReorderBenchmark [--warmup n] [--iterations n]"
+                    + " [--budget ms] trace-file-or-directory...");
+            System.exit(1);
+        }
+
+        System.out.println(String.format("%-32s %8s %10s %12s %10s", "trace", "searches",
+                "solutions", "us/search", "stddev"));
+        for (File file : files) {
+            DragTrace trace = DragTrace.read(file);
+            int searches = trace.getMoveCount();
+            if (searches == 0) {
+                continue;
+            }
+
+            int solutions = new DragTraceReplayer(budgetNs, true).replay(trace);
+            DragTraceReplayer replayer = new DragTraceReplayer(budgetNs, false);
+            for (int i = 1; i < warmup; i++) {
+                replayer.replay(trace);
+            }
+            double[] usPerSearch = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                replayer.replay(trace);
+                usPerSearch[i] = (System.nanoTime() - start) / 1000.0 / searches;
+            }
+
+            double mean = 0;
+            for (double us : usPerSearch) {
+                mean += us;
+            }
+            mean /= iterations;
+            double variance = 0;
+            for (double us : usPerSearch) {
+                variance += (us - mean) * (us - mean);
+            }
+            double stddev = Math.sqrt(variance / iterations);
+            System.out.println(String.format("%-32s %8d %10d %12.2f %10.2f", trace.name,
+                    searches, solutions, mean, stddev));
+        }
+        System.out.println(GridPlacementEngine.getReorderStats());
+    }
+
+    private static void addTraceFiles(File file, ArrayList<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile() && child.getName().endsWith(".trace")) {
+                        files.add(child);
+                    }
+                }
+            }
+        } else {
+            files.add(file);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replays the drag traces shipped with the benchmark, checking every solution of the engine.
+ */
+public class DragTraceReplayerTest {
+
+    private static File[] getTraceFiles() {
+        File dir = new File(System.getProperty("gridbench.traces", "src/main/traces"));
+        File[] files = dir.listFiles();
+        assertNotNull("no traces in " + dir, files);
+        return files;
+    }
+
+    @Test
+    public void testTracesReplayWithValidSolutions() throws IOException {
+        int traces = 0;
+        for (File file : getTraceFiles()) {
+            if (!file.getName().endsWith(".trace")) {
+                continue;
+            }
+            DragTrace trace = DragTrace.read(file);
+            assertTrue(file + " has no searches", trace.getMoveCount() > 0);
+            int solutions = new DragTraceReplayer(Long.MAX_VALUE, true).replay(trace);
+            assertTrue(file + " has no solutions", solutions > 0);
+            // The searches do not depend on the previous replays
+            assertEquals(solutions, new DragTraceReplayer(Long.MAX_VALUE, true).replay(trace));
+            traces++;
+        }
+        assertTrue(traces > 0);
+    }
+
+    @Test
+    public void testReadTrace() throws IOException {
+        DragTrace trace = DragTrace.read(writeTrace(
+                "# comment",
+                "grid 4 5",
+                "cell 10 20 100 120 4 6",
+                "item a 0 0 1 1",
+                "item b 1 0 2 2 fixed",
+                "drag a 1 1 1 1",
+                "move 60 80 1 0",
+                "move 70 80 1 0",
+                "",
+                "grid 4 5",
+                "cell 10 20 100 120 4 6",
+                "drag - 1 1 2 1",
+                "move 60 80 0 -1"));
+        assertEquals(2, trace.drags.size());
+        assertEquals(3, trace.getMoveCount());
+
+        DragTrace.Drag drag = trace.drags.get(0);
+        assertEquals(4, drag.countX);
+        assertEquals(120, drag.cellHeight);
+        assertEquals(2, drag.items.size());
+        assertEquals("a", drag.dragItem.id);
+        assertTrue(drag.items.get(0).canReorder);
+        assertTrue(!drag.items.get(1).canReorder);
+        assertEquals(70, drag.moves.get(1)[0]);
+
+        assertNull(trace.drags.get(1).dragItem);
+        assertEquals(2, trace.drags.get(1).spanX);
+    }
+
+    @Test
+    public void testReadTraceRejectsUnknownDragItem() throws IOException {
+        File file = writeTrace(
+                "grid 4 5",
+                "item a 0 0 1 1",
+                "drag b 1 1 1 1");
+        try {
+            DragTrace.read(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(":3:"));
+        }
+    }
+
+    private static File writeTrace(String... lines) throws IOException {
+        File file = File.createTempFile("drag", ".trace");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (String line : lines) {
+                out.write((line + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.launcher3.bench.BooleanGridOccupancy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks {@link GridOccupancy} against the boolean[][] grid {@link BooleanGridOccupancy} on
+ * random grids, including grids wider than the 64 cells of a word.
+ */
+public class GridOccupancyTest {
+
+    private static final int[][] SIZES = {
+            { 1, 1 }, { 4, 4 }, { 5, 6 }, { 12, 12 }, { 63, 3 }, { 64, 3 }, { 65, 3 }, { 140, 4 } };
+    private static final int ROUNDS = 30;
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void testMatchesBooleanGrid() {
+        for (int[] size : SIZES) {
+            GridOccupancy grid = new GridOccupancy(size[0], size[1]);
+            BooleanGridOccupancy reference = new BooleanGridOccupancy(size[0], size[1]);
+            for (int round = 0; round < ROUNDS; round++) {
+                mutate(grid, reference);
+                assertSameCells(grid, reference);
+                assertSameQueries(grid, reference);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockMatchesBooleanGrid() {
+        for (int[] size : SIZES) {
+            GridOccupancy grid = new GridOccupancy(size[0], size[1]);
+            BooleanGridOccupancy reference = new BooleanGridOccupancy(size[0], size[1]);
+            for (int round = 0; round < ROUNDS; round++) {
+                mutate(grid, reference);
+                int blockX = 1 + mRandom.nextInt(Math.min(size[0], 70));
+                int blockY = 1 + mRandom.nextInt(size[1]);
+                GridOccupancy block = new GridOccupancy(blockX, blockY);
+                boolean[][] blockCells = new boolean[blockX][blockY];
+                for (int x = 0; x < blockX; x++) {
+                    for (int y = 0; y < blockY; y++) {
+                        blockCells[x][y] = mRandom.nextInt(3) == 0;
+                        block.set(x, y, blockCells[x][y]);
+                    }
+                }
+
+                for (int y = -1; y <= size[1] - blockY + 1; y++) {
+                    for (int x = -1; x <= size[0] - blockX + 1; x++) {
+                        assertEquals("block " + blockX + "x" + blockY + " at " + x + ", " + y,
+                                isBlockVacant(reference, x, y, blockCells),
+                                grid.isRegionVacant(x, y, block));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCopyAndClear() {
+        GridOccupancy grid = new GridOccupancy(70, 3);
+        BooleanGridOccupancy reference = new BooleanGridOccupancy(70, 3);
+        mutate(grid, reference);
+        // Queried so that the copy has a valid summed-area table
+        grid.countOccupied(0, 0, 70, 3);
+
+        GridOccupancy copy = new GridOccupancy(70, 3);
+        int modCount = copy.getModCount();
+        copy.copyFrom(grid);
+        assertTrue(copy.getModCount() != modCount);
+        assertSameCells(copy, reference);
+        assertSameQueries(copy, reference);
+
+        copy.clear();
+        assertEquals(0, copy.countOccupied(0, 0, 70, 3));
+        assertTrue(copy.isRegionVacant(0, 0, 70, 3));
+        // The source is left as it was
+        assertSameCells(grid, reference);
+    }
+
+    @Test
+    public void testMarkCellsOutsideOfTheGrid() {
+        GridOccupancy grid = new GridOccupancy(4, 4);
+        grid.markCells(-1, 0, 2, 2, true);
+        assertEquals(0, grid.countOccupied(0, 0, 4, 4));
+        grid.markCells(3, 3, 2, 2, true);
+        assertEquals(1, grid.countOccupied(0, 0, 4, 4));
+        assertTrue(grid.isOccupied(3, 3));
+        assertFalse(grid.isRegionVacant(3, 3, 2, 2));
+        assertFalse(grid.isRegionVacant(0, 0, 0, 1));
+    }
+
+    @Test
+    public void testModCountOnlyChangesWithTheCells() {
+        GridOccupancy grid = new GridOccupancy(4, 4);
+        int modCount = grid.getModCount();
+        grid.set(1, 1, false);
+        assertEquals(modCount, grid.getModCount());
+        grid.set(1, 1, true);
+        assertTrue(grid.getModCount() != modCount);
+    }
+
+    @Test
+    public void testFindVacantCellChecksTheWholeSpan() {
+        GridOccupancy grid = new GridOccupancy(4, 4);
+        grid.set(1, 1, true);
+        int[] vacant = new int[2];
+        assertTrue(grid.findVacantCell(vacant, 2, 2));
+        assertArrayEquals(new int[] { 2, 0 }, vacant);
+        grid.markCells(0, 0, 4, 4, true);
+        assertFalse(grid.findVacantCell(vacant, 1, 1));
+    }
+
+    /**
+     * Marks random spans, and sets random cells, on both grids.
+     */
+    private void mutate(GridOccupancy grid, BooleanGridOccupancy reference) {
+        for (int i = 0; i < 4; i++) {
+            int x = mRandom.nextInt(grid.countX + 2) - 1;
+            int y = mRandom.nextInt(grid.countY + 2) - 1;
+            int spanX = 1 + mRandom.nextInt(Math.max(1, grid.countX / 2));
+            int spanY = 1 + mRandom.nextInt(Math.max(1, grid.countY / 2));
+            boolean value = mRandom.nextBoolean();
+            grid.markCells(x, y, spanX, spanY, value);
+            reference.markCells(x, y, spanX, spanY, value);
+        }
+        for (int i = 0; i < 8; i++) {
+            int x = mRandom.nextInt(grid.countX);
+            int y = mRandom.nextInt(grid.countY);
+            boolean value = mRandom.nextBoolean();
+            grid.set(x, y, value);
+            reference.set(x, y, value);
+        }
+    }
+
+    private static void assertSameCells(GridOccupancy grid, BooleanGridOccupancy reference) {
+        for (int x = 0; x < grid.countX; x++) {
+            for (int y = 0; y < grid.countY; y++) {
+                assertEquals("cell " + x + ", " + y, reference.cells[x][y], grid.isOccupied(x, y));
+            }
+        }
+    }
+
+    private void assertSameQueries(GridOccupancy grid, BooleanGridOccupancy reference) {
+        int[] vacant = new int[2];
+        int[] expectedVacant = new int[2];
+        for (int spanX = 1; spanX <= Math.min(grid.countX, 5); spanX++) {
+            for (int spanY = 1; spanY <= Math.min(grid.countY, 5); spanY++) {
+                for (int y = -1; y <= grid.countY - spanY + 1; y++) {
+                    for (int x = -1; x <= grid.countX - spanX + 1; x++) {
+                        String span = spanX + "x" + spanY + " at " + x + ", " + y;
+                        assertEquals(span, reference.isRegionVacant(x, y, spanX, spanY),
+                                grid.isRegionVacant(x, y, spanX, spanY));
+                        if (x >= 0 && y >= 0 && x + spanX <= grid.countX
+                                && y + spanY <= grid.countY) {
+                            assertEquals(span, reference.countOccupied(x, y, spanX, spanY),
+                                    grid.countOccupied(x, y, spanX, spanY));
+                        }
+                    }
+                }
+                boolean found = reference.findVacantCell(expectedVacant, spanX, spanY);
+                assertEquals(found, grid.findVacantCell(vacant, spanX, spanY));
+                if (found) {
+                    assertArrayEquals(expectedVacant, vacant);
+                }
+            }
+        }
+        // A span of the whole grid
+        assertEquals(reference.isRegionVacant(0, 0, grid.countX, grid.countY),
+                grid.isRegionVacant(0, 0, grid.countX, grid.countY));
+    }
+
+    private static boolean isBlockVacant(BooleanGridOccupancy reference, int cellX, int cellY,
+            boolean[][] block) {
+        if (cellX < 0 || cellY < 0 || cellX + block.length > reference.countX
+                || cellY + block[0].length > reference.countY) {
+            return false;
+        }
+        for (int x = 0; x < block.length; x++) {
+            for (int y = 0; y < block[0].length; y++) {
+                if (block[x][y] && reference.cells[cellX + x][cellY + y]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.launcher3.util.GridPlacementEngine.CellAndSpan;
+import com.android.launcher3.util.GridPlacementEngine.ItemConfiguration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the searches of {@link GridPlacementEngine} on small grids, with 100 pixel cells and no
+ * padding or gaps, so that the pixel (100 * x + 50, 100 * y + 50) is the center of the cell
+ * (x, y).
+ */
+public class GridPlacementEngineTest {
+
+    private static final int CELL_SIZE = 100;
+
+    private GridOccupancy mOccupied;
+    private GridPlacementEngine<String> mEngine;
+    private ItemConfiguration<String> mCurrentState;
+
+    @Before
+    public void setUp() {
+        createGrid(4, 4);
+    }
+
+    private void createGrid(int countX, int countY) {
+        mOccupied = new GridOccupancy(countX, countY);
+        mEngine = new GridPlacementEngine<String>(mOccupied, new GridOccupancy(countX, countY));
+        mEngine.setCellMetrics(0, 0, CELL_SIZE, CELL_SIZE, 0, 0);
+        mEngine.setTimeBudget(Long.MAX_VALUE);
+        mCurrentState = new ItemConfiguration<String>();
+    }
+
+    /**
+     * Adds an item to the committed state. The cells of the dragged item are left vacant, as
+     * CellLayout does during a drag.
+     */
+    private void addItem(String item, int x, int y, int spanX, int spanY, boolean dragged) {
+        mCurrentState.obtain(item).set(x, y, spanX, spanY);
+        if (!dragged) {
+            mOccupied.markCells(x, y, spanX, spanY, true);
+        }
+    }
+
+    private static int center(int cell, int span) {
+        return cell * CELL_SIZE + span * CELL_SIZE / 2;
+    }
+
+    @Test
+    public void testNearestAreaIsUnderThePoint() {
+        int[] result = mEngine.findNearestArea(center(2, 1), center(1, 1), 1, 1, 1, 1, true,
+                null, null, mOccupied);
+        assertArrayEquals(new int[] { 2, 1 }, result);
+    }
+
+    @Test
+    public void testNearestAreaSkipsOccupiedCells() {
+        mOccupied.markCells(0, 0, 2, 4, true);
+        int[] span = new int[2];
+        int[] result = mEngine.findNearestArea(center(0, 1), center(0, 1), 1, 1, 2, 2, true,
+                null, span, mOccupied);
+        assertArrayEquals(new int[] { 2, 0 }, result);
+        assertArrayEquals(new int[] { 2, 2 }, span);
+    }
+
+    @Test
+    public void testNearestAreaFailsOnFullGrid() {
+        mOccupied.markCells(0, 0, 4, 4, true);
+        int[] result = mEngine.findNearestArea(center(1, 1), center(1, 1), 1, 1, 1, 1, true,
+                null, null, mOccupied);
+        assertArrayEquals(new int[] { -1, -1 }, result);
+    }
+
+    @Test
+    public void testDirectionVector() {
+        int[] result = new int[2];
+        GridPlacementEngine.computeDirectionVector(10, 0, result);
+        assertArrayEquals(new int[] { 1, 0 }, result);
+        GridPlacementEngine.computeDirectionVector(-10, -10, result);
+        assertArrayEquals(new int[] { -1, -1 }, result);
+    }
+
+    @Test
+    public void testReorderPushesItemInTheWay() {
+        addItem("dragged", 0, 0, 1, 1, true);
+        addItem("icon", 1, 0, 1, 1, false);
+        ItemConfiguration<String> solution = mEngine.findReorderSolution(mCurrentState,
+                center(1, 1), center(0, 1), 1, 1, 1, 1, new int[] { 1, 0 }, "dragged");
+
+        assertTrue(solution.isSolution);
+        assertEquals(1, solution.dragViewX);
+        assertEquals(0, solution.dragViewY);
+        CellAndSpan icon = solution.map.get("icon");
+        assertFalse(icon.x == 1 && icon.y == 0);
+        // The committed state is left as it was
+        assertEquals(1, mCurrentState.map.get("icon").x);
+    }
+
+    @Test
+    public void testReorderKeepsFixedItems() {
+        createGrid(2, 1);
+        addItem("dragged", 0, 0, 1, 1, true);
+        addItem("fixed", 1, 0, 1, 1, false);
+        mCurrentState.map.get("fixed").canReorder = false;
+        ItemConfiguration<String> solution = mEngine.findReorderSolution(mCurrentState,
+                center(1, 1), center(0, 1), 1, 1, 1, 1, new int[] { 1, 0 }, "dragged");
+
+        assertFalse(solution.isSolution);
+    }
+
+    @Test
+    public void testReorderShrinksToMinimumSpan() {
+        createGrid(3, 2);
+        addItem("widget", 0, 0, 3, 1, true);
+        addItem("icon", 0, 1, 1, 1, false);
+        addItem("fixed", 2, 1, 1, 1, false);
+        mCurrentState.map.get("icon").canReorder = false;
+        mCurrentState.map.get("fixed").canReorder = false;
+        // Only the cell between the two fixed icons is left on the second row
+        ItemConfiguration<String> solution = mEngine.findReorderSolution(mCurrentState,
+                center(0, 3), center(1, 1), 1, 1, 3, 1, new int[] { 0, 1 }, "widget");
+
+        assertTrue(solution.isSolution);
+        assertEquals(1, solution.dragViewX);
+        assertEquals(1, solution.dragViewY);
+        assertEquals(1, solution.area());
+    }
+
+    @Test
+    public void testReorderSolutionIsReusedUntilTheGridChanges() {
+        addItem("dragged", 0, 0, 1, 1, true);
+        addItem("icon", 1, 0, 1, 1, false);
+        ItemConfiguration<String> first = mEngine.findReorderSolution(mCurrentState,
+                center(1, 1), center(0, 1), 1, 1, 1, 1, new int[] { 1, 0 }, "dragged");
+        CellAndSpan icon = new CellAndSpan();
+        first.map.get("icon").copy(icon);
+
+        // A few pixels further, in the same cell
+        ItemConfiguration<String> second = mEngine.findReorderSolution(mCurrentState,
+                center(1, 1) + 10, center(0, 1) - 10, 1, 1, 1, 1, new int[] { 1, 0 }, "dragged");
+        assertSame(first, second);
+        assertEquals(icon.x, second.map.get("icon").x);
+        assertEquals(icon.y, second.map.get("icon").y);
+
+        // A fixed item on the cell the icon was pushed to makes it go somewhere else
+        mOccupied.markCells(icon.x, icon.y, 1, 1, true);
+        CellAndSpan blocker = mCurrentState.obtain("blocker");
+        blocker.set(icon.x, icon.y, 1, 1);
+        blocker.canReorder = false;
+        ItemConfiguration<String> third = mEngine.findReorderSolution(mCurrentState,
+                center(1, 1), center(0, 1), 1, 1, 1, 1, new int[] { 1, 0 }, "dragged");
+        assertTrue(third.isSolution);
+        CellAndSpan moved = third.map.get("icon");
+        assertFalse(moved.x == icon.x && moved.y == icon.y);
+    }
+}
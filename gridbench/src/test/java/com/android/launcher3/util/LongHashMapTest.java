@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Checks {@link LongHashMap} against a HashMap<Long, E>, and the backward shift deletion of its
+ * open addressing table on chosen collisions.
+ */
+public class LongHashMapTest {
+
+    // LongHashMap(8) has a table of 16 slots, which is not grown up to 8 entries
+    private static final int SMALL_CAPACITY = 8;
+    private static final int SMALL_TABLE_MASK = 15;
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(7);
+        // A small key range, so that puts replace and removes hit
+        for (long range : new long[] { 8, 64, 1000 }) {
+            LongHashMap<String> map = new LongHashMap<String>(1);
+            HashMap<Long, String> reference = new HashMap<Long, String>();
+            for (int i = 0; i < 20000; i++) {
+                long key = (long) random.nextInt((int) range) - range / 4;
+                switch (random.nextInt(4)) {
+                    case 0:
+                    case 1:
+                        String value = "v" + i;
+                        assertEquals(reference.put(key, value), map.put(key, value));
+                        break;
+                    case 2:
+                        assertEquals(reference.remove(key), map.remove(key));
+                        break;
+                    default:
+                        assertEquals(reference.get(key), map.get(key));
+                        assertEquals(reference.containsKey(key), map.containsKey(key));
+                        break;
+                }
+                if (i % 97 == 0) {
+                    assertSameEntries(reference, map);
+                }
+            }
+            assertSameEntries(reference, map);
+        }
+    }
+
+    @Test
+    public void testRemoveShiftsBackAcrossTheEndOfTheTable() {
+        // Three keys whose home is the last slot, which probe into slots 15, 0 and 1, and
+        // optionally a key whose home is slot 0, pushed to slot 2
+        long[] lastSlotKeys = findKeysWithHome(SMALL_TABLE_MASK, 3);
+        long firstSlotKey = findKeysWithHome(0, 1)[0];
+
+        for (int keyCount = 3; keyCount <= 4; keyCount++) {
+            long[] keys = Arrays.copyOf(lastSlotKeys, keyCount);
+            if (keyCount == 4) {
+                keys[3] = firstSlotKey;
+            }
+            // Every insertion order, which decides both the slots and the entry which remove()
+            // moves into the hole of the dense arrays
+            for (long[] order : getPermutations(keys)) {
+                for (long removed : keys) {
+                    LongHashMap<Long> map = new LongHashMap<Long>(SMALL_CAPACITY);
+                    HashMap<Long, Long> reference = new HashMap<Long, Long>();
+                    for (long key : order) {
+                        map.put(key, key);
+                        reference.put(key, key);
+                    }
+
+                    assertEquals(Long.valueOf(removed), map.remove(removed));
+                    reference.remove(removed);
+                    assertSameEntries(reference, map);
+
+                    // The freed slots are found again by the following puts
+                    map.put(removed, removed);
+                    reference.put(removed, removed);
+                    assertSameEntries(reference, map);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveMovesTheLastEntry() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        map.put(10, "a");
+        map.put(20, "b");
+        map.put(30, "c");
+
+        assertEquals("a", map.remove(10));
+        assertEquals(2, map.size());
+        assertEquals(30, map.keyAt(0));
+        assertEquals("c", map.valueAt(0));
+        assertEquals(20, map.keyAt(1));
+        assertEquals("b", map.valueAt(1));
+        assertEquals(0, map.indexOfKey(30));
+        assertEquals(1, map.indexOfKey(20));
+        assertEquals(-1, map.indexOfKey(10));
+
+        // Removing the last entry moves nothing
+        assertEquals("b", map.remove(20));
+        assertEquals(30, map.keyAt(0));
+        assertEquals(0, map.indexOfKey(30));
+        assertNull(map.remove(20));
+
+        try {
+            map.keyAt(1);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, "v" + key);
+        }
+        LongHashMap<String> copy = new LongHashMap<String>(map);
+        map.remove(5);
+        map.put(200, "x");
+        assertEquals(100, copy.size());
+        assertEquals("v5", copy.get(5));
+        assertFalse(copy.containsKey(200));
+
+        copy.clear();
+        assertTrue(copy.isEmpty());
+        assertNull(copy.get(6));
+        assertEquals("v6", map.get(6));
+        copy.put(6, "y");
+        assertEquals("y", copy.get(6));
+    }
+
+    @Test
+    public void testIterator() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        map.put(1, "a");
+        map.put(2, "b");
+        ArrayList<String> values = new ArrayList<String>();
+        for (String value : map) {
+            values.add(value);
+        }
+        assertEquals(2, values.size());
+        assertTrue(values.contains("a") && values.contains("b"));
+
+        Iterator<String> it = map.iterator();
+        it.next();
+        map.remove(1);
+        try {
+            it.next();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        it = new LongHashMap<String>().iterator();
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    /**
+     * Returns keys whose home slot, in a table of SMALL_TABLE_MASK + 1 slots, is the slot.
+     */
+    private static long[] findKeysWithHome(int slot, int count) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if ((LongHashMap.hash(key) & SMALL_TABLE_MASK) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static ArrayList<long[]> getPermutations(long[] keys) {
+        ArrayList<long[]> permutations = new ArrayList<long[]>();
+        if (keys.length <= 1) {
+            permutations.add(keys.clone());
+            return permutations;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            long[] others = new long[keys.length - 1];
+            for (int j = 0, k = 0; j < keys.length; j++) {
+                if (j != i) {
+                    others[k++] = keys[j];
+                }
+            }
+            for (long[] rest : getPermutations(others)) {
+                long[] permutation = new long[keys.length];
+                permutation[0] = keys[i];
+                System.arraycopy(rest, 0, permutation, 1, rest.length);
+                permutations.add(permutation);
+            }
+        }
+        return permutations;
+    }
+
+    private static <E> void assertSameEntries(HashMap<Long, E> reference, LongHashMap<E> map) {
+        assertEquals(reference.size(), map.size());
+        assertEquals(reference.isEmpty(), map.isEmpty());
+        for (int i = 0; i < map.size(); i++) {
+            long key = map.keyAt(i);
+            assertTrue("unexpected key " + key, reference.containsKey(key));
+            assertEquals(reference.get(key), map.valueAt(i));
+            assertEquals(i, map.indexOfKey(key));
+        }
+        for (Map.Entry<Long, E> e : reference.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+    }
+}
@@ -59,6 +59,12 @@ public abstract class UploadedTexture extends BasicTexture {
     private static int sUploadedCount;
     private static final int UPLOAD_LIMIT = 100;
 
+    // The time the uploads took since the last reset and the time they may take, and the
+    // average cost of uploading one pixel as measured on this device
+    private static long sUploadTimeNs;
+    private static long sUploadBudgetNs = Long.MAX_VALUE;
+    private static float sUploadNsPerPixel;
+
     protected Bitmap mBitmap;
     private int mBorder;
 
@@ -188,23 +194,62 @@ public abstract class UploadedTexture extends BasicTexture {
             if (mThrottled && ++sUploadedCount > UPLOAD_LIMIT) {
                 return;
             }
+            long start = System.nanoTime();
             uploadToCanvas(canvas);
+            recordUpload(start, getTextureWidth() * getTextureHeight());
         } else if (!mContentValid) {
+            long start = System.nanoTime();
             Bitmap bitmap = getBitmap();
             int format = GLUtils.getInternalFormat(bitmap);
             int type = GLUtils.getType(bitmap);
             canvas.texSubImage2D(this, mBorder, mBorder, bitmap, format, type);
+            recordUpload(start, bitmap.getWidth() * bitmap.getHeight());
             freeBitmap();
             mContentValid = true;
         }
     }
 
+    private static void recordUpload(long start, int pixels) {
+        long time = System.nanoTime() - start;
+        sUploadTimeNs += time;
+        if (pixels > 0) {
+            float nsPerPixel = (float) time / pixels;
+            sUploadNsPerPixel = sUploadNsPerPixel == 0 ? nsPerPixel
+                    : sUploadNsPerPixel * 0.875f + nsPerPixel * 0.125f;
+        }
+    }
+
     public static void resetUploadLimit() {
+        resetUploadLimit(Long.MAX_VALUE);
+    }
+
+    /**
+     * Starts counting the uploads anew, such as at the beginning of a frame, and limits the time
+     * they may take until the next reset.
+     */
+    public static void resetUploadLimit(long budgetNs) {
         sUploadedCount = 0;
+        sUploadTimeNs = 0;
+        sUploadBudgetNs = budgetNs;
     }
 
     public static boolean uploadLimitReached() {
-        return sUploadedCount > UPLOAD_LIMIT;
+        return sUploadedCount > UPLOAD_LIMIT || sUploadTimeNs >= sUploadBudgetNs;
+    }
+
+    /**
+     * Returns whether uploading that many pixels is expected to fit in what is left of the time
+     * budget, from the cost of the previous uploads.
+     */
+    public static boolean uploadFits(int pixels) {
+        return sUploadTimeNs + (long) (pixels * sUploadNsPerPixel) <= sUploadBudgetNs;
+    }
+
+    /**
+     * Returns the time the uploads took since the last reset.
+     */
+    public static long getUploadTimeNs() {
+        return sUploadTimeNs;
     }
 
     private void uploadToCanvas(GLCanvas canvas) {
@@ -38,6 +38,7 @@ import android.os.Bundle;
 import android.os.Process;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -55,6 +56,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple callback interface which also provides the results of the task.
@@ -70,7 +75,9 @@ class AsyncTaskPageData {
     enum Type {
         // 这是指的所有的AppWidget的预览的View
         // 预览的AppWidget当中并不会包含所有的内容，而是由程序自己定义的
-        LoadWidgetPreviewData
+        LoadWidgetPreviewData,
+        // Previews loaded ahead of a fling, into the WidgetPreviewLoader cache only
+        PrefetchWidgetPreviewData
     }
 
     AsyncTaskPageData(int p, ArrayList<Object> l, int cw, int ch, AsyncTaskCallback bgR,
@@ -215,6 +222,26 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     ArrayList<AppsCustomizeAsyncTask> mRunningTasks;
     private static final int sPageSleepDelay = 200;
 
+    // Widget previews are prefetched past the associated pages in the direction of a snap, one
+    // page plus one more per sPrefetchVelocityPerPage dp/s of fling velocity
+    private static final int sMaxPrefetchPageCount = 3;
+    private static final int sPrefetchVelocityPerPage = 2500;
+    private static final int sPrefetchThreadCount = 2;
+    private static final Executor sPrefetchExecutor;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(sPrefetchThreadCount,
+                sPrefetchThreadCount, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        sPrefetchExecutor = executor;
+    }
+    // The velocity of the snap being started by snapToPageWithVelocity()
+    private int mSnapVelocity;
+
+    // The widget pages whose previews are shown, and how often a page was settled on before
+    private final SparseBooleanArray mWidgetPagesWithPreviews = new SparseBooleanArray();
+    private int mWidgetPagesShown;
+    private int mWidgetPagesShownWithPlaceholders;
+
     // 这两个Runnable主要是用于Inflate和Bind Widget的第三方Thread
     private Runnable mInflateWidgetRunnable = null;
     private Runnable mBindWidgetRunnable = null;
@@ -938,6 +965,9 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
             task.cancel(false);
             iter.remove();
+            if (task.dataType == AsyncTaskPageData.Type.PrefetchWidgetPreviewData) {
+                continue;
+            }
             mDirtyPageContent.set(task.page, true);
 
             // We've already preallocated the views for the data to load into, so clear them as well
@@ -986,6 +1016,93 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                 task.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
             }
         }
+
+        if (mContentType == ContentType.Widgets && whichPage != mCurrentPage) {
+            prefetchWidgetPreviews(whichPage, whichPage > mCurrentPage ? 1 : -1, mSnapVelocity);
+        }
+        mSnapVelocity = 0;
+    }
+
+    @Override
+    protected void snapToPageWithVelocity(int whichPage, int velocity) {
+        mSnapVelocity = velocity;
+        super.snapToPageWithVelocity(whichPage, velocity);
+        mSnapVelocity = 0;
+    }
+
+    /**
+     * Loads the widget previews of the pages past the associated pages of the target page, in
+     * the direction of the snap, so that they are cached by the time these pages are bound.
+     */
+    private void prefetchWidgetPreviews(int toPage, int direction, int velocity) {
+        if (mWidgetPreviewLoader == null || !mWidgetPreviewLoader.hasPreviewSize()) {
+            // The preview size is only known once a page was laid out
+            return;
+        }
+        int pageCount = 1 + (int) (Math.abs(velocity) / (sPrefetchVelocityPerPage * mDensity));
+        pageCount = Math.min(pageCount, sMaxPrefetchPageCount);
+        int firstPage = direction > 0
+                ? getAssociatedUpperPageBound(toPage) + 1
+                : getAssociatedLowerPageBound(toPage) - 1;
+        int lastPage = firstPage + direction * (pageCount - 1);
+        int minPage = Math.min(firstPage, lastPage);
+        int maxPage = Math.max(firstPage, lastPage);
+
+        // Cancel the prefetches that are no longer ahead of the snap
+        Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
+        while (iter.hasNext()) {
+            AppsCustomizeAsyncTask task = iter.next();
+            if (task.dataType == AsyncTaskPageData.Type.PrefetchWidgetPreviewData
+                    && (task.page < minPage || task.page > maxPage)) {
+                task.cancel(false);
+                iter.remove();
+            }
+        }
+
+        for (int page = minPage; page <= maxPage; page++) {
+            if (page < 0 || page >= mNumWidgetPages || isWidgetPageLoading(page)) {
+                continue;
+            }
+            int numItemsPerPage = mWidgetCountX * mWidgetCountY;
+            int offset = page * numItemsPerPage;
+            ArrayList<Object> items = new ArrayList<Object>(
+                    mWidgets.subList(offset, Math.min(offset + numItemsPerPage, mWidgets.size())));
+            AsyncTaskPageData pageData = new AsyncTaskPageData(page, items, 0, 0,
+                    new AsyncTaskCallback() {
+                        @Override
+                        public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
+                            task.syncThreadPriority();
+                            for (Object item : data.items) {
+                                if (task.isCancelled()) break;
+                                data.widgetPreviewLoader.getPreview(item);
+                            }
+                        }
+                    },
+                    new AsyncTaskCallback() {
+                        @Override
+                        public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
+                            mRunningTasks.remove(task);
+                        }
+                    }, mWidgetPreviewLoader);
+
+            AppsCustomizeAsyncTask t = new AppsCustomizeAsyncTask(page,
+                    AsyncTaskPageData.Type.PrefetchWidgetPreviewData);
+            t.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            t.executeOnExecutor(sPrefetchExecutor, pageData);
+            mRunningTasks.add(t);
+        }
+    }
+
+    /**
+     * Returns whether the previews of the page are being loaded or prefetched.
+     */
+    private boolean isWidgetPageLoading(int page) {
+        for (AppsCustomizeAsyncTask task : mRunningTasks) {
+            if (task.page == page) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -1132,6 +1249,15 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         while (iter.hasNext()) {
             AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
             int taskPage = task.page;
+            if (task.dataType == AsyncTaskPageData.Type.PrefetchWidgetPreviewData) {
+                // Prefetches are pruned by prefetchWidgetPreviews(), unless the page is now
+                // being loaded for real
+                if (taskPage == page) {
+                    task.cancel(false);
+                    iter.remove();
+                }
+                continue;
+            }
             if (taskPage < getAssociatedLowerPageBound(mCurrentPage) ||
                     taskPage > getAssociatedUpperPageBound(mCurrentPage)) {
                 task.cancel(false);
@@ -1200,6 +1326,8 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     public void syncWidgetPageItems(final int page, final boolean immediate) {
         int numItemsPerPage = mWidgetCountX * mWidgetCountY;
+        // The page shows placeholders until onSyncWidgetPageItems()
+        mWidgetPagesWithPreviews.delete(page);
 
         final PagedViewGridLayout layout = (PagedViewGridLayout) getPageAt(page);
 
@@ -1356,6 +1484,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                     widget.applyPreview(new FastBitmapDrawable(preview), i);
                 }
             }
+            mWidgetPagesWithPreviews.put(page, true);
 
             enableHwLayersOnVisiblePages();
 
@@ -1377,6 +1506,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
         removeAllViews();
         cancelAllTasks();
+        mWidgetPagesWithPreviews.clear();
 
         Context context = getContext();
         if (mContentType == ContentType.Applications) {
@@ -1489,6 +1619,12 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     protected void onPageEndMoving() {
         super.onPageEndMoving();
         mForceDrawAllChildrenNextFrame = true;
+        if (mContentType == ContentType.Widgets) {
+            mWidgetPagesShown++;
+            if (!mWidgetPagesWithPreviews.get(mCurrentPage)) {
+                mWidgetPagesShownWithPlaceholders++;
+            }
+        }
         // We reset the save index when we change pages so that it will be recalculated on next
         // rotation
         mSaveInstanceStateItemIndex = -1;
@@ -1617,6 +1753,11 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         // TODO: Dump information related to current list of Applications, Widgets, etc.
         AppInfo.dumpApplicationInfoList(TAG, "mApps", mApps);
         dumpAppWidgetProviderInfoList(TAG, "mWidgets", mWidgets);
+        Log.d(TAG, "widget pages shown=" + mWidgetPagesShown + " withPlaceholders="
+                + mWidgetPagesShownWithPlaceholders);
+        if (mWidgetPreviewLoader != null) {
+            mWidgetPreviewLoader.dumpState();
+        }
     }
 
     private void dumpAppWidgetProviderInfoList(String tag, String label,
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Queue of things to run on the main thread, used by the model to bind the workspace and all
+ * apps.
+ *
+ * <p>Runnables are run from a {@link Choreographer} frame callback, as many as fit in
+ * {@link #FRAME_BUDGET_MS} per frame, so that the first frames and the page animations can still
+ * be drawn while the rest is being bound. A handler message is sent as well, in case no frame
+ * comes (the screen is off for instance).
+ *
+ * <p>A runnable can be posted with a priority, so that the current page is bound before the
+ * hotseat, the other pages and all apps. A runnable with a higher priority only runs before the
+ * runnables with a lower priority posted since the last runnable without a priority: those keep
+ * their place in the queue, as they may depend on everything posted before them. Runnables with
+ * the same priority run in the order they were posted.
+ */
+public class BindScheduler {
+
+    // Binding priorities, highest first
+    public static final int PRIORITY_CURRENT_PAGE = 0;
+    public static final int PRIORITY_HOTSEAT = 1;
+    public static final int PRIORITY_OTHER_PAGES = 2;
+    public static final int PRIORITY_ALL_APPS = 3;
+
+    // For runnables which keep their place in the queue
+    public static final int PRIORITY_NONE = -1;
+
+    // Time spent running queued runnables per frame. At least one runnable is run per frame.
+    private static final long FRAME_BUDGET_MS = 8;
+
+    // Delay after which the queue is run from a message, if no frame came in the meantime
+    private static final long FRAME_TIMEOUT_MS = 100;
+
+    private static class Entry {
+        final Runnable runnable;
+        final int type;
+        final int priority;
+        final boolean idle;
+
+        Entry(Runnable runnable, int type, int priority, boolean idle) {
+            this.runnable = runnable;
+            this.type = type;
+            this.priority = priority;
+            this.idle = idle;
+        }
+    }
+
+    private final ArrayList<Entry> mQueue = new ArrayList<Entry>();
+    private final MessageQueue mMessageQueue = Looper.myQueue();
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Impl mImpl = new Impl();
+
+    // Whether a frame callback, a message or an idle handler is pending
+    private boolean mScheduled;
+
+    private class Impl extends Handler implements Choreographer.FrameCallback,
+            MessageQueue.IdleHandler {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runQueue(false);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            runQueue(false);
+        }
+
+        @Override
+        public boolean queueIdle() {
+            runQueue(true);
+            return false;
+        }
+    }
+
+    /**
+     * Schedules the runnable to run after everything that's on the queue right now.
+     */
+    public void post(Runnable runnable) {
+        post(runnable, 0);
+    }
+
+    public void post(Runnable runnable, int type) {
+        post(runnable, type, PRIORITY_NONE);
+    }
+
+    /**
+     * Schedules the runnable to run after the queued runnables of the same or a higher priority.
+     */
+    public void post(Runnable runnable, int type, int priority) {
+        enqueue(new Entry(runnable, type, priority, false));
+    }
+
+    /**
+     * Schedules the runnable to run when the queue goes idle, after everything that's on the
+     * queue right now.
+     */
+    public void postIdle(Runnable runnable) {
+        postIdle(runnable, 0);
+    }
+
+    public void postIdle(Runnable runnable, int type) {
+        enqueue(new Entry(runnable, type, PRIORITY_NONE, true));
+    }
+
+    public void cancelRunnable(Runnable runnable) {
+        synchronized (mQueue) {
+            Iterator<Entry> iter = mQueue.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().runnable == runnable) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public void cancelAllRunnablesOfType(int type) {
+        synchronized (mQueue) {
+            Iterator<Entry> iter = mQueue.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().type == type) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public void cancel() {
+        synchronized (mQueue) {
+            mQueue.clear();
+        }
+    }
+
+    /**
+     * Runs all queued Runnables from the calling thread.
+     */
+    public void flush() {
+        Entry entry;
+        while ((entry = poll(true)) != null) {
+            entry.runnable.run();
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        synchronized (mQueue) {
+            mQueue.add(entry);
+            scheduleLocked();
+        }
+    }
+
+    private void runQueue(boolean idle) {
+        synchronized (mQueue) {
+            mScheduled = false;
+            mImpl.removeCallbacksAndMessages(null);
+            mChoreographer.removeFrameCallback(mImpl);
+        }
+
+        final long deadline = SystemClock.uptimeMillis() + FRAME_BUDGET_MS;
+        boolean allowIdle = idle;
+        Entry entry;
+        // An idle runnable only runs first in a pass started by the idle handler
+        while ((entry = poll(allowIdle)) != null) {
+            entry.runnable.run();
+            allowIdle = false;
+            if (SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+        }
+
+        synchronized (mQueue) {
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * Removes and returns the next runnable to run, or null if there is none or the next one is
+     * an idle runnable which can not be run now.
+     */
+    private Entry poll(boolean allowIdle) {
+        synchronized (mQueue) {
+            int next = nextIndexLocked();
+            if (next < 0 || (mQueue.get(next).idle && !allowIdle)) {
+                return null;
+            }
+            return mQueue.remove(next);
+        }
+    }
+
+    private int nextIndexLocked() {
+        final int count = mQueue.size();
+        if (count == 0) {
+            return -1;
+        }
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            Entry entry = mQueue.get(i);
+            if (entry.priority == PRIORITY_NONE) {
+                // Nothing moves past a runnable without a priority
+                break;
+            }
+            if (entry.priority < mQueue.get(next).priority) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    private void scheduleLocked() {
+        if (mScheduled || mQueue.isEmpty()) {
+            return;
+        }
+        mScheduled = true;
+        if (mQueue.get(nextIndexLocked()).idle) {
+            mMessageQueue.addIdleHandler(mImpl);
+        } else {
+            mChoreographer.postFrameCallback(mImpl);
+            mImpl.sendEmptyMessageDelayed(0, FRAME_TIMEOUT_MS);
+        }
+    }
+}
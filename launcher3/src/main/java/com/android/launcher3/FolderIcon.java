@@ -22,6 +22,7 @@ import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
@@ -43,6 +44,7 @@ import android.widget.TextView;
 
 import com.android.launcher3.DropTarget.DragObject;
 import com.android.launcher3.FolderInfo.FolderListener;
+import com.android.launcher3.util.BitmapPool;
 
 import java.util.ArrayList;
 
@@ -113,6 +115,16 @@ public class FolderIcon extends FrameLayout implements FolderListener {
     private PreviewItemDrawingParams mAnimParams = new PreviewItemDrawingParams(0, 0, 0, 0);
     private ArrayList<ShortcutInfo> mHiddenItems = new ArrayList<ShortcutInfo>();
 
+    // The preview items drawn into a bitmap, which is only redrawn when the items, their icons or
+    // the size of the folder icon change, so that scrolling past a folder draws a single bitmap
+    private Bitmap mPreviewCache;
+    private final Canvas mPreviewCacheCanvas = new Canvas();
+    private boolean mPreviewCacheValid;
+    // The icons the cached preview was drawn from, null for the hidden items
+    private final Drawable[] mPreviewCacheIcons = new Drawable[NUM_ITEMS_IN_PREVIEW];
+    private final Bitmap[] mPreviewCacheBitmaps = new Bitmap[NUM_ITEMS_IN_PREVIEW];
+    private int mPreviewCacheCount;
+
     private Alarm mOpenAlarm = new Alarm();
     private ItemInfo mDragInfo;
 
@@ -463,10 +475,12 @@ public class FolderIcon extends FrameLayout implements FolderListener {
             addItem(item);
             mHiddenItems.add(item);
             mFolder.hideItem(item);
+            mPreviewCacheValid = false;
             postDelayed(new Runnable() {
                 public void run() {
                     mHiddenItems.remove(item);
                     mFolder.showItem(item);
+                    mPreviewCacheValid = false;
                     invalidate();
                 }
             }, DROP_IN_ANIMATION_DURATION);
@@ -621,20 +635,84 @@ public class FolderIcon extends FrameLayout implements FolderListener {
 
         int nItemsInPreview = Math.min(items.size(), NUM_ITEMS_IN_PREVIEW);
         if (!mAnimating) {
-            for (int i = nItemsInPreview - 1; i >= 0; i--) {
-                v = (TextView) items.get(i);
-                if (!mHiddenItems.contains(v.getTag())) {
-                    d = getTopDrawable(v);
-                    mParams = computePreviewItemDrawingParams(i, mParams);
-                    mParams.drawable = d;
-                    drawPreviewItem(canvas, mParams);
-                }
+            if (!isPreviewCacheValid(items, nItemsInPreview)) {
+                updatePreviewCache(items, nItemsInPreview);
+            }
+            if (mPreviewCache != null) {
+                canvas.drawBitmap(mPreviewCache, 0, 0, null);
             }
         } else {
             drawPreviewItem(canvas, mAnimParams);
         }
     }
 
+    /**
+     * Returns whether the cached preview was drawn from the current icons of the preview items.
+     */
+    private boolean isPreviewCacheValid(ArrayList<View> items, int nItemsInPreview) {
+        if (!mPreviewCacheValid || mPreviewCache == null
+                || mPreviewCacheCount != nItemsInPreview) {
+            return false;
+        }
+        for (int i = 0; i < nItemsInPreview; i++) {
+            TextView v = (TextView) items.get(i);
+            Drawable d = mHiddenItems.contains(v.getTag()) ? null : getTopDrawable(v);
+            if (d != mPreviewCacheIcons[i] || getBitmap(d) != mPreviewCacheBitmaps[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updatePreviewCache(ArrayList<View> items, int nItemsInPreview) {
+        // The preview items are drawn above the bottom of the preview background
+        int width = getWidth();
+        int height = Math.min(getHeight(),
+                mPreviewOffsetY + mAvailableSpaceInPreview + getPaddingTop() + 1);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        BitmapPool pool = LauncherAppState.getInstance().getBitmapPool();
+        if (mPreviewCache != null && mPreviewCache.getWidth() == width
+                && mPreviewCache.getHeight() == height) {
+            mPreviewCache.eraseColor(Color.TRANSPARENT);
+        } else {
+            pool.put(mPreviewCache);
+            mPreviewCache = pool.get(width, height);
+        }
+
+        mPreviewCacheCanvas.setBitmap(mPreviewCache);
+        for (int i = nItemsInPreview - 1; i >= 0; i--) {
+            TextView v = (TextView) items.get(i);
+            Drawable d = null;
+            if (!mHiddenItems.contains(v.getTag())) {
+                d = getTopDrawable(v);
+                mParams = computePreviewItemDrawingParams(i, mParams);
+                mParams.drawable = d;
+                drawPreviewItem(mPreviewCacheCanvas, mParams);
+            }
+            mPreviewCacheIcons[i] = d;
+            mPreviewCacheBitmaps[i] = getBitmap(d);
+        }
+        mPreviewCacheCanvas.setBitmap(null);
+        mPreviewCacheCount = nItemsInPreview;
+        mPreviewCacheValid = true;
+    }
+
+    private void releasePreviewCache() {
+        LauncherAppState.getInstance().getBitmapPool().put(mPreviewCache);
+        mPreviewCache = null;
+        mPreviewCacheValid = false;
+        for (int i = 0; i < NUM_ITEMS_IN_PREVIEW; i++) {
+            mPreviewCacheIcons[i] = null;
+            mPreviewCacheBitmaps[i] = null;
+        }
+    }
+
+    private static Bitmap getBitmap(Drawable d) {
+        return (d instanceof FastBitmapDrawable) ? ((FastBitmapDrawable) d).getBitmap() : null;
+    }
+
     private Drawable getTopDrawable(TextView v) {
         Drawable d = v.getCompoundDrawables()[1];
         return (d instanceof PreloadIconDrawable) ? ((PreloadIconDrawable) d).mIcon : d;
@@ -694,16 +772,19 @@ public class FolderIcon extends FrameLayout implements FolderListener {
     }
 
     public void onItemsChanged() {
+        mPreviewCacheValid = false;
         invalidate();
         requestLayout();
     }
 
     public void onAdd(ShortcutInfo item) {
+        mPreviewCacheValid = false;
         invalidate();
         requestLayout();
     }
 
     public void onRemove(ShortcutInfo item) {
+        mPreviewCacheValid = false;
         invalidate();
         requestLayout();
     }
@@ -743,6 +824,18 @@ public class FolderIcon extends FrameLayout implements FolderListener {
         mSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releasePreviewCache();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mPreviewCacheValid = false;
+    }
+
     @Override
     public void cancelLongPress() {
         super.cancelLongPress();
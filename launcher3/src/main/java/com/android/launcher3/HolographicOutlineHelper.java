@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BlurMaskFilter;
@@ -26,15 +27,38 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.Region.Op;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class HolographicOutlineHelper {
+    private static final String TAG = "HolographicOutlineHelper";
+    private static final boolean DEBUG = false;
 
     private static final Rect sTempRect = new Rect();
 
+    // Computes the prefetched icon outlines, one at a time
+    private static final Executor sOutlineExecutor;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        sOutlineExecutor = executor;
+    }
+
+    // Paints are not thread safe: the UI thread uses mCanvas and mPaints, and sOutlineExecutor
+    // uses mBackgroundPaints, so that a drag never waits for the outlines being prefetched
     private final Canvas mCanvas = new Canvas();
-    private final Paint mDrawPaint = new Paint();
-    private final Paint mBlurPaint = new Paint();
-    private final Paint mErasePaint = new Paint();
+    private final OutlinePaints mPaints = new OutlinePaints();
+    private final OutlinePaints mBackgroundPaints = new OutlinePaints();
 
     private final BlurMaskFilter mMediumOuterBlurMaskFilter;
     private final BlurMaskFilter mThinOuterBlurMaskFilter;
@@ -43,6 +67,18 @@ public class HolographicOutlineHelper {
     private final BlurMaskFilter mShaowBlurMaskFilter;
     private final int mShadowOffset;
 
+    // Outlines of the icons on the visible workspace pages, keyed by the icon bitmap, so that
+    // starting to drag an icon does not have to blur it on the UI thread. Guarded by itself.
+    private final LinkedHashMap<OutlineKey, Bitmap> mIconOutlines =
+            new LinkedHashMap<OutlineKey, Bitmap>(16, 0.75f, true);
+    private final HashSet<OutlineKey> mPendingIconOutlines = new HashSet<OutlineKey>();
+    private final long mMaxIconOutlineBytes;
+    private long mIconOutlineBytes;
+    private int mIconOutlineHits;
+    private int mIconOutlineMisses;
+    // Room left for the blur on the right and bottom of an icon outline
+    private final int mIconOutlineMargin;
+
     /**
      * Padding used when creating shadow bitmap;
      */
@@ -60,14 +96,12 @@ public class HolographicOutlineHelper {
         mShaowBlurMaskFilter = new BlurMaskFilter(scale * 4.0f, BlurMaskFilter.Blur.NORMAL);
         mShadowOffset = (int) (scale * 2.0f);
         shadowBitmapPadding = (int) (scale * 4.0f);
+        mIconOutlineMargin = (int) Math.ceil(scale * 4.0f);
 
-        mDrawPaint.setFilterBitmap(true);
-        mDrawPaint.setAntiAlias(true);
-        mBlurPaint.setFilterBitmap(true);
-        mBlurPaint.setAntiAlias(true);
-        mErasePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
-        mErasePaint.setFilterBitmap(true);
-        mErasePaint.setAntiAlias(true);
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mMaxIconOutlineBytes = activityManager.getMemoryClass() * 1024L * 1024L * context
+                .getResources().getInteger(R.integer.config_dragOutlineCacheMemoryPercentage) / 100;
     }
 
     public static HolographicOutlineHelper obtain(Context context) {
@@ -79,7 +113,7 @@ public class HolographicOutlineHelper {
 
     /**
      * Applies a more expensive and accurate outline to whatever is currently drawn in a specified
-     * bitmap.
+     * bitmap. Must be called on the UI thread.
      */
     void applyExpensiveOutlineWithBlur(Bitmap srcDst, Canvas srcDstCanvas, int color,
             int outlineColor) {
@@ -87,6 +121,11 @@ public class HolographicOutlineHelper {
     }
     void applyExpensiveOutlineWithBlur(Bitmap srcDst, Canvas srcDstCanvas, int color,
             int outlineColor, boolean clipAlpha) {
+        applyExpensiveOutlineWithBlur(srcDst, srcDstCanvas, color, outlineColor, clipAlpha,
+                mPaints);
+    }
+    private void applyExpensiveOutlineWithBlur(Bitmap srcDst, Canvas srcDstCanvas, int color,
+            int outlineColor, boolean clipAlpha, OutlinePaints paints) {
 
         // We start by removing most of the alpha channel so as to ignore shadows, and
         // other types of partial transparency when defining the shape of the object
@@ -106,43 +145,43 @@ public class HolographicOutlineHelper {
         Bitmap glowShape = srcDst.extractAlpha();
 
         // calculate the outer blur first
-        mBlurPaint.setMaskFilter(mMediumOuterBlurMaskFilter);
+        paints.blurPaint.setMaskFilter(mMediumOuterBlurMaskFilter);
         int[] outerBlurOffset = new int[2];
-        Bitmap thickOuterBlur = glowShape.extractAlpha(mBlurPaint, outerBlurOffset);
+        Bitmap thickOuterBlur = glowShape.extractAlpha(paints.blurPaint, outerBlurOffset);
 
-        mBlurPaint.setMaskFilter(mThinOuterBlurMaskFilter);
+        paints.blurPaint.setMaskFilter(mThinOuterBlurMaskFilter);
         int[] brightOutlineOffset = new int[2];
-        Bitmap brightOutline = glowShape.extractAlpha(mBlurPaint, brightOutlineOffset);
+        Bitmap brightOutline = glowShape.extractAlpha(paints.blurPaint, brightOutlineOffset);
 
         // calculate the inner blur
         srcDstCanvas.setBitmap(glowShape);
         srcDstCanvas.drawColor(0xFF000000, PorterDuff.Mode.SRC_OUT);
-        mBlurPaint.setMaskFilter(mMediumInnerBlurMaskFilter);
+        paints.blurPaint.setMaskFilter(mMediumInnerBlurMaskFilter);
         int[] thickInnerBlurOffset = new int[2];
-        Bitmap thickInnerBlur = glowShape.extractAlpha(mBlurPaint, thickInnerBlurOffset);
+        Bitmap thickInnerBlur = glowShape.extractAlpha(paints.blurPaint, thickInnerBlurOffset);
 
         // mask out the inner blur
         srcDstCanvas.setBitmap(thickInnerBlur);
         srcDstCanvas.drawBitmap(glowShape, -thickInnerBlurOffset[0],
-                -thickInnerBlurOffset[1], mErasePaint);
+                -thickInnerBlurOffset[1], paints.erasePaint);
         srcDstCanvas.drawRect(0, 0, -thickInnerBlurOffset[0], thickInnerBlur.getHeight(),
-                mErasePaint);
+                paints.erasePaint);
         srcDstCanvas.drawRect(0, 0, thickInnerBlur.getWidth(), -thickInnerBlurOffset[1],
-                mErasePaint);
+                paints.erasePaint);
 
         // draw the inner and outer blur
         srcDstCanvas.setBitmap(srcDst);
         srcDstCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
-        mDrawPaint.setColor(color);
+        paints.drawPaint.setColor(color);
         srcDstCanvas.drawBitmap(thickInnerBlur, thickInnerBlurOffset[0], thickInnerBlurOffset[1],
-                mDrawPaint);
+                paints.drawPaint);
         srcDstCanvas.drawBitmap(thickOuterBlur, outerBlurOffset[0], outerBlurOffset[1],
-                mDrawPaint);
+                paints.drawPaint);
 
         // draw the bright outline
-        mDrawPaint.setColor(outlineColor);
+        paints.drawPaint.setColor(outlineColor);
         srcDstCanvas.drawBitmap(brightOutline, brightOutlineOffset[0], brightOutlineOffset[1],
-                mDrawPaint);
+                paints.drawPaint);
 
         // cleanup
         srcDstCanvas.setBitmap(null);
@@ -152,6 +191,93 @@ public class HolographicOutlineHelper {
         glowShape.recycle();
     }
 
+    /**
+     * Returns the outline of an icon drawn with the given size at (padding / 2, padding / 2), in a
+     * bitmap which also has room for the blur on its right and bottom. The outline is computed
+     * now if it was not prefetched. The returned bitmap is shared and must not be modified. Must
+     * be called on the UI thread.
+     */
+    Bitmap getIconOutline(Bitmap icon, int width, int height, int padding, int color) {
+        OutlineKey key = new OutlineKey(icon, width, height, padding, color);
+        synchronized (mIconOutlines) {
+            Bitmap outline = mIconOutlines.get(key);
+            if (outline != null) {
+                mIconOutlineHits++;
+                return outline;
+            }
+            mIconOutlineMisses++;
+        }
+        Bitmap outline = createIconOutline(key, new Canvas(), mPaints);
+        putIconOutline(key, outline);
+        return outline;
+    }
+
+    /**
+     * Computes the outline returned by {@link #getIconOutline} in the background, unless it is
+     * cached already.
+     */
+    void prefetchIconOutline(Bitmap icon, int width, int height, int padding, int color) {
+        final OutlineKey key = new OutlineKey(icon, width, height, padding, color);
+        synchronized (mIconOutlines) {
+            if (mIconOutlines.containsKey(key) || !mPendingIconOutlines.add(key)) {
+                return;
+            }
+        }
+        sOutlineExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Bitmap outline = createIconOutline(key, new Canvas(), mBackgroundPaints);
+                synchronized (mIconOutlines) {
+                    mPendingIconOutlines.remove(key);
+                }
+                putIconOutline(key, outline);
+            }
+        });
+    }
+
+    void dumpState() {
+        synchronized (mIconOutlines) {
+            Log.d(TAG, "icon outlines: " + mIconOutlines.size() + " cached, " + mIconOutlineBytes
+                    + "/" + mMaxIconOutlineBytes + " bytes, hits=" + mIconOutlineHits
+                    + " misses=" + mIconOutlineMisses);
+        }
+    }
+
+    private Bitmap createIconOutline(OutlineKey key, Canvas canvas, OutlinePaints paints) {
+        final Bitmap b = Bitmap.createBitmap(key.width + key.padding + mIconOutlineMargin,
+                key.height + key.padding + mIconOutlineMargin, Bitmap.Config.ARGB_8888);
+        final int offset = key.padding / 2;
+        canvas.setBitmap(b);
+        canvas.drawBitmap(key.icon, null,
+                new Rect(offset, offset, offset + key.width, offset + key.height),
+                paints.iconPaint);
+        applyExpensiveOutlineWithBlur(b, canvas, key.color, key.color, true, paints);
+        return b;
+    }
+
+    private void putIconOutline(OutlineKey key, Bitmap outline) {
+        final int size = outline.getRowBytes() * outline.getHeight();
+        if (size > mMaxIconOutlineBytes) {
+            return;
+        }
+        synchronized (mIconOutlines) {
+            Bitmap old = mIconOutlines.put(key, outline);
+            if (old != null) {
+                mIconOutlineBytes -= old.getRowBytes() * old.getHeight();
+            }
+            mIconOutlineBytes += size;
+
+            Iterator<Map.Entry<OutlineKey, Bitmap>> it = mIconOutlines.entrySet().iterator();
+            while (mIconOutlineBytes > mMaxIconOutlineBytes && it.hasNext()) {
+                Bitmap b = it.next().getValue();
+                mIconOutlineBytes -= b.getRowBytes() * b.getHeight();
+                it.remove();
+            }
+            if (DEBUG) Log.d(TAG, "icon outlines: " + mIconOutlineBytes + " bytes");
+        }
+    }
+
     Bitmap createMediumDropShadow(BubbleTextView view) {
         final Bitmap result = Bitmap.createBitmap(
                 view.getWidth() + shadowBitmapPadding + shadowBitmapPadding,
@@ -180,19 +306,19 @@ public class HolographicOutlineHelper {
         mCanvas.restore();
 
         int[] blurOffst = new int[2];
-        mBlurPaint.setMaskFilter(mShaowBlurMaskFilter);
-        Bitmap blurBitmap = result.extractAlpha(mBlurPaint, blurOffst);
+        mPaints.blurPaint.setMaskFilter(mShaowBlurMaskFilter);
+        Bitmap blurBitmap = result.extractAlpha(mPaints.blurPaint, blurOffst);
 
         mCanvas.save();
         mCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
         mCanvas.translate(blurOffst[0], blurOffst[1]);
 
-        mDrawPaint.setColor(Color.BLACK);
-        mDrawPaint.setAlpha(30);
-        mCanvas.drawBitmap(blurBitmap, 0, 0, mDrawPaint);
+        mPaints.drawPaint.setColor(Color.BLACK);
+        mPaints.drawPaint.setAlpha(30);
+        mCanvas.drawBitmap(blurBitmap, 0, 0, mPaints.drawPaint);
 
-        mDrawPaint.setAlpha(60);
-        mCanvas.drawBitmap(blurBitmap, 0, mShadowOffset, mDrawPaint);
+        mPaints.drawPaint.setAlpha(60);
+        mCanvas.drawBitmap(blurBitmap, 0, mShadowOffset, mPaints.drawPaint);
         mCanvas.restore();
 
         mCanvas.setBitmap(null);
@@ -200,4 +326,56 @@ public class HolographicOutlineHelper {
 
         return result;
     }
+
+    private static class OutlinePaints {
+        final Paint drawPaint = new Paint();
+        final Paint blurPaint = new Paint();
+        final Paint erasePaint = new Paint();
+        final Paint iconPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+
+        OutlinePaints() {
+            drawPaint.setFilterBitmap(true);
+            drawPaint.setAntiAlias(true);
+            blurPaint.setFilterBitmap(true);
+            blurPaint.setAntiAlias(true);
+            erasePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+            erasePaint.setFilterBitmap(true);
+            erasePaint.setAntiAlias(true);
+        }
+    }
+
+    private static class OutlineKey {
+        final Bitmap icon;
+        final int width;
+        final int height;
+        final int padding;
+        final int color;
+
+        OutlineKey(Bitmap icon, int width, int height, int padding, int color) {
+            this.icon = icon;
+            this.width = width;
+            this.height = height;
+            this.padding = padding;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof OutlineKey)) {
+                return false;
+            }
+            OutlineKey other = (OutlineKey) o;
+            return icon == other.icon && width == other.width && height == other.height
+                    && padding == other.padding && color == other.color;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(icon);
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + padding;
+            return 31 * result + color;
+        }
+    }
 }
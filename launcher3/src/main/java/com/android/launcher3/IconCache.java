@@ -18,17 +18,24 @@ package com.android.launcher3;
 
 import android.app.ActivityManager;
 import android.content.ComponentName;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -36,6 +43,7 @@ import com.android.launcher3.compat.LauncherActivityInfoCompat;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.BitmapPool;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -43,9 +51,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
 
 /**
@@ -58,6 +70,7 @@ public class IconCache {
     private static final String TAG = "Launcher_IconCache";
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    private static final int KEY_LOCK_STRIPES = 16;
     private static final String RESOURCE_FILE_PREFIX = "icon_";
 
     // Empty class name is used for storing package default entry.
@@ -69,6 +82,10 @@ public class IconCache {
         public Bitmap icon;
         public CharSequence title;
         public CharSequence contentDescription;
+        // Number of bytes charged to the cache budget for this entry
+        public int byteCount;
+        // Entries which can not be recreated from the package manager are never evicted
+        public boolean pinned;
     }
 
     private static class CacheKey {
@@ -98,11 +115,27 @@ public class IconCache {
     private final PackageManager mPackageManager;
     private final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<CacheKey, CacheEntry> mCache =
-            new HashMap<CacheKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    // Access ordered, so that iteration starts from the least recently used entry
+    private final LinkedHashMap<CacheKey, CacheEntry> mCache =
+            new LinkedHashMap<CacheKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY, 0.75f, true);
+    // Keys of the shortcuts bound to the workspace, hotseat and folders. Those bitmaps are held
+    // by the bound items anyway, so evicting them would only cost a reload.
+    private final HashSet<CacheKey> mPinnedKeys = new HashSet<CacheKey>();
+    // Striped locks serializing the resolution of misses on the same key
+    private final Object[] mKeyLocks = new Object[KEY_LOCK_STRIPES];
+    private final long mMaxCacheBytes;
+    private long mCacheBytes;
     private int mIconDpi;
 
-    public IconCache(Context context) {
+    private final IconDB mIconDb;
+    // Last update time of the packages whose entries were looked up in the persistent store,
+    // until the package changes
+    private final HashMap<String, Long> mPackageUpdateTimes = new HashMap<String, Long>();
+    private final Handler mWorkerHandler;
+    // Takes the persisted icons which had to be rescaled after decoding
+    private final BitmapPool mBitmapPool;
+
+    public IconCache(Context context, BitmapPool bitmapPool) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 
@@ -111,6 +144,15 @@ public class IconCache {
         mUserManager = UserManagerCompat.getInstance(mContext);
         mLauncherApps = LauncherAppsCompat.getInstance(mContext);
         mIconDpi = activityManager.getLauncherLargeIconDensity();
+        mMaxCacheBytes = activityManager.getMemoryClass() * 1024L * 1024L
+                * context.getResources().getInteger(R.integer.config_iconCacheMemoryPercentage)
+                / 100;
+        for (int i = 0; i < mKeyLocks.length; i++) {
+            mKeyLocks[i] = new Object();
+        }
+        mIconDb = new IconDB(context);
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mBitmapPool = bitmapPool;
 
         // need to set mIconDpi before getting default icon
         UserHandleCompat myUser = UserHandleCompat.myUserHandle();
@@ -187,7 +229,7 @@ public class IconCache {
      */
     public synchronized void remove(ComponentName componentName, UserHandleCompat user) {
         Log.d(TAG, " remove icon by the correspond the ComponentName : " + componentName);
-        mCache.remove(new CacheKey(componentName, user));
+        removeLocked(new CacheKey(componentName, user));
     }
 
     /**
@@ -203,7 +245,7 @@ public class IconCache {
             }
         }
         for (CacheKey condemned: forDeletion) {
-            mCache.remove(condemned);
+            removeLocked(condemned);
         }
     }
 
@@ -212,6 +254,7 @@ public class IconCache {
      */
     public synchronized void flush() {
         mCache.clear();
+        mCacheBytes = 0;
     }
 
     /**
@@ -224,17 +267,38 @@ public class IconCache {
             if ((e.icon != null) && (e.icon.getWidth() < grid.iconSizePx
                     || e.icon.getHeight() < grid.iconSizePx)) {
                 it.remove();
+                mCacheBytes -= e.byteCount;
             }
         }
     }
 
     /**
      * Fill in "application" with the icon and label for "info."
+     *
+     * <p>A miss is resolved without holding the cache lock, so several threads can resolve
+     * different apps at the same time. Misses on the same key are serialized, so that every entry
+     * is only loaded once. The labelCache must not be shared with other threads.
      */
-    public synchronized void getTitleAndIcon(AppInfo application, LauncherActivityInfoCompat info,
+    public void getTitleAndIcon(AppInfo application, LauncherActivityInfoCompat info,
             HashMap<Object, CharSequence> labelCache) {
-        CacheEntry entry = cacheLocked(application.componentName, info, labelCache,
-                info.getUser(), false);
+        CacheKey cacheKey = new CacheKey(application.componentName, info.getUser());
+        CacheEntry entry;
+        synchronized (this) {
+            entry = mCache.get(cacheKey);
+        }
+        if (entry == null) {
+            synchronized (getKeyLock(cacheKey)) {
+                synchronized (this) {
+                    entry = mCache.get(cacheKey);
+                }
+                if (entry == null) {
+                    entry = newEntryFromInfo(cacheKey, info, labelCache);
+                    synchronized (this) {
+                        putLocked(cacheKey, entry);
+                    }
+                }
+            }
+        }
 
         application.title = entry.title;
         application.iconBitmap = entry.icon;
@@ -308,25 +372,10 @@ public class IconCache {
         CacheKey cacheKey = new CacheKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
         if (entry == null) {
-            entry = new CacheEntry();
-
-            mCache.put(cacheKey, entry);
-
             if (info != null) {
-                ComponentName labelKey = info.getComponentName();
-                if (labelCache != null && labelCache.containsKey(labelKey)) {
-                    entry.title = labelCache.get(labelKey).toString();
-                } else {
-                    entry.title = info.getLabel().toString();
-                    if (labelCache != null) {
-                        labelCache.put(labelKey, entry.title);
-                    }
-                }
-
-                entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
-                entry.icon = Utilities.createIconBitmap(
-                        info.getBadgedIcon(mIconDpi), mContext);
+                entry = newEntryFromInfo(cacheKey, info, labelCache);
             } else {
+                entry = new CacheEntry();
                 entry.title = "";
                 Bitmap preloaded = getPreloadedIcon(componentName, user);
                 if (preloaded != null) {
@@ -351,10 +400,52 @@ public class IconCache {
                     }
                 }
             }
+            putLocked(cacheKey, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Creates a new entry for an installed activity, from the persistent store if possible and
+     * from the package manager otherwise. The entry is not added to the cache.
+     * This method does not touch the cache and can be called without holding the lock.
+     */
+    private CacheEntry newEntryFromInfo(CacheKey cacheKey, LauncherActivityInfoCompat info,
+            HashMap<Object, CharSequence> labelCache) {
+        CacheEntry entry = new CacheEntry();
+        ComponentName labelKey = info.getComponentName();
+        // Resolved with the entry, so that a later update of the package is not stamped on it
+        final long lastUpdateTime =
+                getPackageUpdateTime(cacheKey.componentName.getPackageName());
+        if (getEntryFromDB(cacheKey, entry, lastUpdateTime)) {
+            if (DEBUG) Log.d(TAG, "using persisted entry for " +
+                    cacheKey.componentName.toShortString());
+            if (labelCache != null && !labelCache.containsKey(labelKey)) {
+                labelCache.put(labelKey, entry.title);
+            }
+        } else {
+            if (labelCache != null && labelCache.containsKey(labelKey)) {
+                entry.title = labelCache.get(labelKey).toString();
+            } else {
+                entry.title = info.getLabel().toString();
+                if (labelCache != null) {
+                    labelCache.put(labelKey, entry.title);
+                }
+            }
+            entry.icon = Utilities.createIconBitmap(
+                    info.getBadgedIcon(mIconDpi), mContext);
+            addEntryToDB(cacheKey, entry, lastUpdateTime);
         }
+
+        entry.contentDescription =
+                mUserManager.getBadgedLabelForUser(entry.title, cacheKey.user);
         return entry;
     }
 
+    private Object getKeyLock(CacheKey cacheKey) {
+        return mKeyLocks[(cacheKey.hashCode() & 0x7fffffff) % mKeyLocks.length];
+    }
+
     /**
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
@@ -370,6 +461,10 @@ public class IconCache {
         if (icon != null) {
             entry.icon = Utilities.createIconBitmap(icon, mContext);
         }
+        entry.pinned = true;
+        mCacheBytes -= entry.byteCount;
+        entry.byteCount = getByteCount(entry.icon, user);
+        mCacheBytes += entry.byteCount;
     }
 
     /**
@@ -383,7 +478,6 @@ public class IconCache {
         if (entry == null) {
             entry = new CacheEntry();
             entry.title = "";
-            mCache.put(cacheKey, entry);
 
             try {
                 ApplicationInfo info = mPackageManager.getApplicationInfo(packageName, 0);
@@ -396,15 +490,278 @@ public class IconCache {
             if (entry.icon == null) {
                 entry.icon = getPreloadedIcon(cn, user);
             }
+            putLocked(cacheKey, entry);
         }
         return entry;
     }
 
+    /**
+     * Pins the entries of the shortcuts among the supplied items, replacing the previous set of
+     * pinned entries. Pinned entries are never evicted when the cache goes over its budget.
+     */
+    public synchronized void setPinnedItems(Iterable<ItemInfo> items) {
+        mPinnedKeys.clear();
+        for (ItemInfo item : items) {
+            if (item instanceof ShortcutInfo && item.user != null) {
+                Intent intent = ((ShortcutInfo) item).intent;
+                ComponentName cn = (intent == null) ? null : intent.getComponent();
+                if (cn != null) {
+                    mPinnedKeys.add(new CacheKey(cn, item.user));
+                }
+            }
+        }
+        trimToSizeLocked();
+    }
+
+    /**
+     * Adds the entry to the cache, evicting the least recently used unpinned entries if the
+     * cache goes over its budget.
+     * This method is not thread safe, it must be called from a synchronized method.
+     */
+    private void putLocked(CacheKey cacheKey, CacheEntry entry) {
+        entry.byteCount = getByteCount(entry.icon, cacheKey.user);
+        CacheEntry previous = mCache.put(cacheKey, entry);
+        if (previous != null) {
+            mCacheBytes -= previous.byteCount;
+        }
+        mCacheBytes += entry.byteCount;
+        trimToSizeLocked();
+    }
+
+    /**
+     * This method is not thread safe, it must be called from a synchronized method.
+     */
+    private void removeLocked(CacheKey cacheKey) {
+        CacheEntry entry = mCache.remove(cacheKey);
+        if (entry != null) {
+            mCacheBytes -= entry.byteCount;
+        }
+    }
+
+    /**
+     * This method is not thread safe, it must be called from a synchronized method.
+     */
+    private void trimToSizeLocked() {
+        if (mCacheBytes <= mMaxCacheBytes) {
+            return;
+        }
+        Iterator<Entry<CacheKey, CacheEntry>> it = mCache.entrySet().iterator();
+        while (mCacheBytes > mMaxCacheBytes && it.hasNext()) {
+            Entry<CacheKey, CacheEntry> e = it.next();
+            CacheEntry entry = e.getValue();
+            if (entry.pinned || entry.byteCount == 0 || mPinnedKeys.contains(e.getKey())) {
+                continue;
+            }
+            if (DEBUG) Log.d(TAG, "evicting " + e.getKey().componentName.toShortString());
+            it.remove();
+            mCacheBytes -= entry.byteCount;
+        }
+        if (DEBUG) Log.d(TAG, "cache size " + mCacheBytes + "/" + mMaxCacheBytes + " bytes, "
+                + mCache.size() + " entries");
+    }
+
+    /**
+     * The default icons are shared between all the entries of a user, so they are not charged.
+     */
+    private int getByteCount(Bitmap icon, UserHandleCompat user) {
+        return (icon == null || isDefaultIcon(icon, user)) ? 0 : icon.getByteCount();
+    }
+
+    /**
+     * Remove any records for the supplied package name, both from memory and from the
+     * persistent store, so that they are resolved again from the package manager.
+     */
+    public synchronized void removeIconsForPkg(String packageName, UserHandleCompat user) {
+        remove(packageName, user);
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.remove(packageName);
+        }
+        long userSerial = mUserManager.getSerialNumberForUser(user);
+        // Compares the prefix, LIKE would take the dots and underscores of the name as wildcards
+        String prefix = packageName + "/";
+        try {
+            mIconDb.getWritableDatabase().delete(IconDB.TABLE_NAME,
+                    "substr(" + IconDB.COLUMN_COMPONENT + ", 1, " + prefix.length() + ") = ? AND "
+                            + IconDB.COLUMN_USER + " = ?",
+                    new String[] { prefix, Long.toString(userSerial) });
+        } catch (SQLiteException e) {
+            Log.w(TAG, "failed to remove persisted icons for " + packageName, e);
+        }
+    }
+
+    /**
+     * Drops persisted entries whose package has been updated or uninstalled since the entry was
+     * written. Changes made while the launcher is running are handled by
+     * {@link #removeIconsForPkg}, this catches the ones made while it was not.
+     * Must be called from a background thread.
+     */
+    public void updateDbIcons() {
+        HashMap<String, PackageInfo> pkgInfoMap = new HashMap<String, PackageInfo>();
+        List<PackageInfo> packages =
+                mPackageManager.getInstalledPackages(PackageManager.GET_UNINSTALLED_PACKAGES);
+        for (PackageInfo info : packages) {
+            pkgInfoMap.put(info.packageName, info);
+        }
+
+        SQLiteDatabase db;
+        Cursor c;
+        try {
+            db = mIconDb.getWritableDatabase();
+            c = db.query(IconDB.TABLE_NAME,
+                    new String[] { IconDB.COLUMN_ROWID, IconDB.COLUMN_COMPONENT,
+                            IconDB.COLUMN_LAST_UPDATED },
+                    null, null, null, null, null);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "failed to read persisted icons", e);
+            return;
+        }
+
+        ArrayList<Long> staleRows = new ArrayList<Long>();
+        try {
+            while (c.moveToNext()) {
+                ComponentName cn = ComponentName.unflattenFromString(c.getString(1));
+                PackageInfo info = (cn == null) ? null : pkgInfoMap.get(cn.getPackageName());
+                if (info == null || info.lastUpdateTime != c.getLong(2)) {
+                    staleRows.add(c.getLong(0));
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        if (!staleRows.isEmpty()) {
+            if (DEBUG) Log.d(TAG, "dropping " + staleRows.size() + " stale persisted icons");
+            try {
+                db.delete(IconDB.TABLE_NAME, IconDB.COLUMN_ROWID + " IN ("
+                        + TextUtils.join(", ", staleRows) + ")", null);
+            } catch (SQLiteException e) {
+                Log.w(TAG, "failed to drop stale persisted icons", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the last update time of the package, or -1 if it is not installed.
+     */
+    private long getPackageUpdateTime(String packageName) {
+        synchronized (mPackageUpdateTimes) {
+            Long time = mPackageUpdateTimes.get(packageName);
+            if (time != null) {
+                return time;
+            }
+        }
+        long time;
+        try {
+            time = mPackageManager.getPackageInfo(packageName,
+                    PackageManager.GET_UNINSTALLED_PACKAGES).lastUpdateTime;
+        } catch (NameNotFoundException e) {
+            return -1;
+        }
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.put(packageName, time);
+        }
+        return time;
+    }
+
+    /**
+     * Fills in the icon and title of the entry from the persistent store, if it has a row for
+     * the current icon density and locale, written since the last update of the package.
+     * Older rows are dropped by {@link #updateDbIcons}, which runs after the workspace is loaded.
+     */
+    private boolean getEntryFromDB(CacheKey cacheKey, CacheEntry entry, long lastUpdateTime) {
+        if (lastUpdateTime < 0) {
+            return false;
+        }
+        Cursor c;
+        try {
+            c = mIconDb.getReadableDatabase().query(IconDB.TABLE_NAME,
+                    new String[] { IconDB.COLUMN_ICON, IconDB.COLUMN_LABEL },
+                    IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ? AND "
+                            + IconDB.COLUMN_ICON_DPI + " = ? AND "
+                            + IconDB.COLUMN_LOCALE + " = ? AND "
+                            + IconDB.COLUMN_LAST_UPDATED + " = ?",
+                    new String[] {
+                            cacheKey.componentName.flattenToString(),
+                            Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user)),
+                            Integer.toString(mIconDpi),
+                            Locale.getDefault().toString(),
+                            Long.toString(lastUpdateTime)
+                    },
+                    null, null, null);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "failed to read persisted icon for " + cacheKey.componentName, e);
+            return false;
+        }
+        try {
+            if (c.moveToNext()) {
+                byte[] data = c.getBlob(0);
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inMutable = true;
+                Bitmap icon = (data == null) ? null
+                        : BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+                if (icon == null) {
+                    return false;
+                }
+                // Rescales the icon if the icon size has changed since it was persisted.
+                entry.icon = Utilities.createIconBitmap(icon, mContext);
+                if (entry.icon != icon) {
+                    mBitmapPool.put(icon);
+                }
+                entry.title = c.isNull(1) ? "" : c.getString(1);
+                return true;
+            }
+        } finally {
+            c.close();
+        }
+        return false;
+    }
+
+    /**
+     * Persists the entry on the worker thread, along with the last update time of its package
+     * when the entry was resolved.
+     */
+    private void addEntryToDB(final CacheKey cacheKey, CacheEntry entry,
+            final long lastUpdateTime) {
+        if (lastUpdateTime < 0) {
+            if (DEBUG) Log.d(TAG, "Package removed before persisting " + cacheKey.componentName);
+            return;
+        }
+        final Bitmap icon = entry.icon;
+        final String label = entry.title.toString();
+        final long userSerial = mUserManager.getSerialNumberForUser(cacheKey.user);
+        final int iconDpi = mIconDpi;
+        final String locale = Locale.getDefault().toString();
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = ItemInfo.flattenBitmap(icon);
+                if (data == null) {
+                    return;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(IconDB.COLUMN_COMPONENT, cacheKey.componentName.flattenToString());
+                values.put(IconDB.COLUMN_USER, userSerial);
+                values.put(IconDB.COLUMN_LAST_UPDATED, lastUpdateTime);
+                values.put(IconDB.COLUMN_ICON_DPI, iconDpi);
+                values.put(IconDB.COLUMN_LOCALE, locale);
+                values.put(IconDB.COLUMN_ICON, data);
+                values.put(IconDB.COLUMN_LABEL, label);
+                try {
+                    mIconDb.getWritableDatabase().insertWithOnConflict(IconDB.TABLE_NAME, null,
+                            values, SQLiteDatabase.CONFLICT_REPLACE);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "failed to persist icon for " + cacheKey.componentName, e);
+                }
+            }
+        });
+    }
+
     public synchronized HashMap<ComponentName,Bitmap> getAllIcons() {
         HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
-        for (CacheKey ck : mCache.keySet()) {
-            final CacheEntry e = mCache.get(ck);
-            set.put(ck.componentName, e.icon);
+        // Iterate over the entries, a get() would reorder the access ordered map
+        for (Entry<CacheKey, CacheEntry> e : mCache.entrySet()) {
+            set.put(e.getKey().componentName, e.getValue().icon);
         }
         return set;
     }
@@ -528,4 +885,60 @@ public class IconCache {
         String filename = resourceName.replace(File.separatorChar, '_');
         return RESOURCE_FILE_PREFIX + filename;
     }
+
+    /**
+     * Persistent store of the resolved icons and labels, so that a cold start does not need to
+     * go through the package manager for every activity.
+     */
+    private static final class IconDB extends SQLiteOpenHelper {
+        final static int DB_VERSION = 1;
+        final static String TABLE_NAME = "icons";
+        final static String COLUMN_ROWID = "rowid";
+        final static String COLUMN_COMPONENT = "componentName";
+        final static String COLUMN_USER = "profileId";
+        final static String COLUMN_LAST_UPDATED = "lastUpdated";
+        final static String COLUMN_ICON_DPI = "iconDpi";
+        final static String COLUMN_LOCALE = "locale";
+        final static String COLUMN_ICON = "icon";
+        final static String COLUMN_LABEL = "label";
+
+        public IconDB(Context context) {
+            super(context, new File(context.getCacheDir(),
+                    LauncherFiles.APP_ICONS_DB).getPath(), null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_COMPONENT + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_ICON_DPI + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_LOCALE + " TEXT, " +
+                    COLUMN_ICON + " BLOB, " +
+                    COLUMN_LABEL + " TEXT, " +
+                    "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
+                    ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion != newVersion) {
+                clearDB(db);
+            }
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion != newVersion) {
+                clearDB(db);
+            }
+        }
+
+        private void clearDB(SQLiteDatabase db) {
+            // This is only a cache, the entries are repopulated on the next load
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            onCreate(db);
+        }
+    }
 }
@@ -27,7 +27,9 @@ import com.android.launcher3.compat.UserManagerCompat;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * Represents an item in the launcher.
@@ -122,6 +124,16 @@ public class ItemInfo {
 
     UserHandleCompat user;
 
+    /**
+     * The columns last written to the database through the LauncherModel helpers, or null if
+     * they are not known. The icon is not kept, only the bitmap it was flattened from.
+     */
+    private ContentValues mPersistedValues;
+    private Bitmap mPersistedIcon;
+
+    // Set while onAddToDatabase is writing the changed columns only
+    private boolean mWritingChangedValues;
+
     ItemInfo() {
         user = UserHandleCompat.myUserHandle();
     }
@@ -175,6 +187,72 @@ public class ItemInfo {
         }
     }
 
+    /**
+     * Returns the columns which changed since this item was last written to the database, so
+     * that an update does not rewrite the whole row. In particular the icon is only flattened
+     * again when it was replaced. All the columns are returned if the row is not known, and
+     * they are remembered from then on, as the caller is expected to write them.
+     */
+    ContentValues getChangedValues(Context context) {
+        ContentValues values = new ContentValues();
+        mWritingChangedValues = mPersistedValues != null;
+        try {
+            onAddToDatabase(context, values);
+        } finally {
+            mWritingChangedValues = false;
+        }
+        if (mPersistedValues != null) {
+            ArrayList<String> unchanged = new ArrayList<String>();
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (!LauncherSettings.Favorites.ICON.equals(key)
+                        && mPersistedValues.containsKey(key)) {
+                    Object persisted = mPersistedValues.get(key);
+                    if (value == null ? persisted == null : value.equals(persisted)) {
+                        unchanged.add(key);
+                    }
+                }
+            }
+            for (String key : unchanged) {
+                values.remove(key);
+            }
+        } else {
+            onValuesPersisted(values, true);
+        }
+        return values;
+    }
+
+    /**
+     * Records the columns written to the database for this item.
+     *
+     * @param values The columns written
+     * @param added Whether the values are the whole row, as when the item is added
+     */
+    void onValuesPersisted(ContentValues values, boolean added) {
+        if (added) {
+            mPersistedValues = new ContentValues(values);
+        } else if (mPersistedValues != null) {
+            mPersistedValues.putAll(values);
+        } else {
+            // The rest of the row is not known
+            return;
+        }
+        mPersistedValues.remove(LauncherSettings.Favorites.ICON);
+    }
+
+    /**
+     * Writes the icon of this item to the values, unless only the changed columns are being
+     * written and it is the icon which was last written.
+     */
+    void writeIcon(ContentValues values, Bitmap icon) {
+        if (icon == null || (mWritingChangedValues && icon == mPersistedIcon)) {
+            return;
+        }
+        writeBitmap(values, icon);
+        mPersistedIcon = icon;
+    }
+
     void updateValuesWithCoordinates(ContentValues values, int cellX, int cellY) {
         values.put(LauncherSettings.Favorites.CELLX, cellX);
         values.put(LauncherSettings.Favorites.CELLY, cellY);
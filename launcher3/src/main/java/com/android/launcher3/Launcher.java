@@ -4088,6 +4088,7 @@ public class Launcher extends Activity
                 mAppsCustomizeTabHost.trimMemory();
             }
         }
+        LauncherAppState.getInstance().getBitmapPool().trimMemory(level);
     }
 
     protected void showWorkspace(boolean animated) {
@@ -4871,6 +4872,7 @@ public class Launcher extends Activity
 
         setWorkspaceLoading(false);
         sendLoadingCompleteBroadcastIfNecessary();
+        mWorkspace.prefetchDragOutlines();
 
         // If we received the result of any pending adds while the loader was running (e.g. the
         // widget configuration forced an orientation change), process them now.
@@ -5523,6 +5525,9 @@ public class Launcher extends Activity
         if (mAppsCustomizeContent != null) {
             mAppsCustomizeContent.dumpState();
         }
+        LauncherAppState.getInstance().getBitmapPool().dumpState();
+        CellLayout.dumpReorderStats();
+        HolographicOutlineHelper.obtain(this).dumpState();
         Log.d(TAG, "END launcher3 dump state");
     }
 
@@ -17,6 +17,7 @@
 package com.android.launcher3;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.app.SearchManager;
 import android.content.ComponentName;
 import android.content.ContentResolver;
@@ -36,6 +37,7 @@ import android.view.WindowManager;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat;
 import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
+import com.android.launcher3.util.BitmapPool;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 
@@ -48,12 +50,13 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
     private final BuildInfo mBuildInfo;
     private final LauncherModel mModel;
     private final IconCache mIconCache;
+    private final BitmapPool mBitmapPool;
 
     private final boolean mIsScreenLarge;
     private final float mScreenDensity;
     private final int mLongPressTimeout = 300;
 
-    private WidgetPreviewLoader.CacheDb mWidgetPreviewCacheDb;
+    private WidgetPreviewPack mWidgetPreviewPack;
     private boolean mWallpaperChangedSinceLastCheck;
 
     private static WeakReference<LauncherProvider> sLauncherProvider;
@@ -100,8 +103,13 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
         mIsScreenLarge = isScreenLarge(sContext.getResources());
         mScreenDensity = sContext.getResources().getDisplayMetrics().density;
 
-        recreateWidgetPreviewDb();
-        mIconCache = new IconCache(sContext);
+        ActivityManager activityManager =
+                (ActivityManager) sContext.getSystemService(Context.ACTIVITY_SERVICE);
+        mBitmapPool = new BitmapPool(activityManager.getMemoryClass() * 1024L * 1024L
+                * sContext.getResources().getInteger(R.integer.config_bitmapPoolMemoryPercentage)
+                / 100);
+        mWidgetPreviewPack = new WidgetPreviewPack(sContext);
+        mIconCache = new IconCache(sContext, mBitmapPool);
 
         mAppFilter = AppFilter.loadByName(sContext.getString(R.string.app_filter_class));
         mBuildInfo = BuildInfo.loadByName(sContext.getString(R.string.build_info_class));
@@ -128,13 +136,6 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
                 mFavoritesObserver);
     }
 
-    public void recreateWidgetPreviewDb() {
-        if (mWidgetPreviewCacheDb != null) {
-            mWidgetPreviewCacheDb.close();
-        }
-        mWidgetPreviewCacheDb = new WidgetPreviewLoader.CacheDb(sContext);
-    }
-
     /**
      * Call from Application.onTerminate(), which is not guaranteed to ever be called.
      */
@@ -166,6 +167,10 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
         return mModel;
     }
 
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
     public IconCache getIconCache() {
         return mIconCache;
     }
@@ -178,8 +183,8 @@ public class LauncherAppState implements DeviceProfile.DeviceProfileCallbacks {
         return mAppFilter == null || mAppFilter.shouldShowApp(componentName);
     }
 
-    WidgetPreviewLoader.CacheDb getWidgetPreviewCacheDb() {
-        return mWidgetPreviewCacheDb;
+    WidgetPreviewPack getWidgetPreviewPack() {
+        return mWidgetPreviewPack;
     }
 
     static void setLauncherProvider(LauncherProvider provider) {
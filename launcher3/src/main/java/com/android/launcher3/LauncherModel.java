@@ -42,6 +42,7 @@ import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Parcelable;
 import android.os.Process;
 import android.os.RemoteException;
@@ -58,14 +59,17 @@ import com.android.launcher3.compat.PackageInstallerCompat;
 import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.LongHashMap;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.security.InvalidParameterException;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -75,6 +79,13 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Maintains in-memory state of the Launcher. It is expected that there should be only one
@@ -112,7 +123,7 @@ public class LauncherModel extends BroadcastReceiver
 
     private final LauncherAppState mApp;
     private final Object mLock = new Object();
-    private DeferredHandler mHandler = new DeferredHandler();
+    private BindScheduler mHandler = new BindScheduler();
     private LoaderTask mLoaderTask;
     private boolean mIsLoaderTaskRunning;
     private volatile boolean mFlushingWorkerThread;
@@ -137,6 +148,31 @@ public class LauncherModel extends BroadcastReceiver
 
     private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+    // Threads resolving the all apps icons and labels next to the loader thread. They time out
+    // once the load is done.
+    private static final int MAX_ICON_LOADER_THREADS = 4;
+    private static final int MIN_APPS_PER_ICON_LOADER = 8;
+    private static final ThreadPoolExecutor sIconLoaderPool;
+
+    static {
+        int threads = Math.max(1, Math.min(MAX_ICON_LOADER_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        sIconLoaderPool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "launcher-icon-loader-" + mCount.getAndIncrement());
+                    }
+                });
+        sIconLoaderPool.allowCoreThreadTimeOut(true);
+    }
+
+    static Looper getWorkerLooper() {
+        return sWorkerThread.getLooper();
+    }
+
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
     // need to do a requery.  These are only ever touched from the loader thread.
@@ -166,7 +202,7 @@ public class LauncherModel extends BroadcastReceiver
 
     // sBgItemsIdMap maps *all* the ItemInfos (shortcuts, folders, and widgets) created by
     // LauncherModel to their ids
-    static final HashMap<Long, ItemInfo> sBgItemsIdMap = new HashMap<Long, ItemInfo>();
+    static final LongHashMap<ItemInfo> sBgItemsIdMap = new LongHashMap<ItemInfo>();
 
     // sBgWorkspaceItems当中保存的仅仅是当前workspace当中的所有的shortcut，AppWidget，以及Folder
     // 当然还有Hotseat当中的item
@@ -180,7 +216,7 @@ public class LauncherModel extends BroadcastReceiver
             new ArrayList<LauncherAppWidgetInfo>();
 
     // sBgFolders is all FolderInfos created by LauncherModel. Passed to bindFolders()
-    static final HashMap<Long, FolderInfo> sBgFolders = new HashMap<Long, FolderInfo>();
+    static final LongHashMap<FolderInfo> sBgFolders = new LongHashMap<FolderInfo>();
 
     // sBgDbIconCache is the set of ItemInfos that need to have their icons updated in the database
     static final HashMap<Object, byte[]> sBgDbIconCache = new HashMap<Object, byte[]>();
@@ -188,6 +224,14 @@ public class LauncherModel extends BroadcastReceiver
     // sBgWorkspaceScreens is the ordered set of workspace screens.
     static final ArrayList<Long> sBgWorkspaceScreens = new ArrayList<Long>();
 
+    // Read-only copy of the bg data structures handed to the binders, so that they do not need
+    // to hold sBgLock while a writer is busy. Writers clear it under sBgLock, through
+    // onBgDataChangedLocked(), and the next reader rebuilds it.
+    private static volatile BgDataSnapshot sBgDataSnapshot;
+
+    // When set, the invariants between the bg data structures are verified after every change
+    static final boolean DEBUG_MODEL_CONSISTENCY = false;
+
     // sPendingPackages is a set of packages which could be on sdcard and are not available yet
     static final HashMap<UserHandleCompat, HashSet<String>> sPendingPackages =
             new HashMap<UserHandleCompat, HashSet<String>>();
@@ -299,6 +343,14 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     private void runOnMainThread(Runnable r, int type) {
+        runOnMainThread(r, type, BindScheduler.PRIORITY_NONE);
+    }
+
+    /**
+     * Runs the specified runnable immediately if called from the main thread, otherwise it is
+     * posted on the main thread bind scheduler with the given priority.
+     */
+    private void runOnMainThread(Runnable r, int type, int priority) {
         // 其中Process.myTid()得到的值是the identifier of the calling thread
         if (sWorkerThread.getThreadId() == Process.myTid()) {
             // 我们当前是在第三方Thread当中，通过mHandler来使Runnable运行于MainUiThread当中
@@ -309,7 +361,7 @@ public class LauncherModel extends BroadcastReceiver
             // 在这里直接调用mHandler, 那么mHandler就会很确定的是运行于MainUIThread当中
             // 所以mHandler post出的Runnable也是运行于mainUIThread当中的
             // If we are on the worker thread, post onto the main handler
-            mHandler.post(r);
+            mHandler.post(r, type, priority);
         } else {
             // 我们当前并不是运行于sWorkerThread当中，考虑到我们在LauncherModel当中仅仅是开启了
             // 一个sWorkerThread，所以这里可以确定如果我们不是运行于sWorkerThread，那么就可以确定
@@ -318,6 +370,149 @@ public class LauncherModel extends BroadcastReceiver
         }
     }
 
+    /**
+     * The rows of the favorites table shown on the first page the launcher binds: the hotseat,
+     * the items of the current screen and the contents of the folders on that screen.
+     */
+    private static class FirstPageFilter {
+        // The ordered workspace screens and the current one, as the page was bound with them
+        final ArrayList<Long> screenIds;
+        final int screenIndex;
+        final long screenId;
+        // Sorted, to be searched by contains()
+        private final long[] mFolderIds;
+
+        FirstPageFilter(ArrayList<Long> screenIds, int screenIndex, long screenId,
+                long[] folderIds) {
+            this.screenIds = screenIds;
+            this.screenIndex = screenIndex;
+            this.screenId = screenId;
+            mFolderIds = folderIds;
+            Arrays.sort(mFolderIds);
+        }
+
+        boolean contains(long container, long screen) {
+            return container == LauncherSettings.Favorites.CONTAINER_HOTSEAT
+                    || (container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                            && screen == screenId)
+                    || Arrays.binarySearch(mFolderIds, container) >= 0;
+        }
+
+        /**
+         * Returns the sort order putting the rows of the page before all the others.
+         */
+        String getSortOrder() {
+            StringBuilder order = new StringBuilder("CASE WHEN ")
+                    .append(LauncherSettings.Favorites.CONTAINER).append(" = ")
+                    .append(LauncherSettings.Favorites.CONTAINER_HOTSEAT)
+                    .append(" OR (")
+                    .append(LauncherSettings.Favorites.CONTAINER).append(" = ")
+                    .append(LauncherSettings.Favorites.CONTAINER_DESKTOP).append(" AND ")
+                    .append(LauncherSettings.Favorites.SCREEN).append(" = ").append(screenId)
+                    .append(")");
+            if (mFolderIds.length > 0) {
+                order.append(" OR ").append(LauncherSettings.Favorites.CONTAINER).append(" IN (");
+                for (int i = 0; i < mFolderIds.length; i++) {
+                    if (i > 0) {
+                        order.append(", ");
+                    }
+                    order.append(mFolderIds[i]);
+                }
+                order.append(")");
+            }
+            // Otherwise keep the natural order, which decides which of two overlapping items wins
+            return order.append(" THEN 0 ELSE 1 END, ")
+                    .append(LauncherSettings.Favorites._ID).toString();
+        }
+    }
+
+    /**
+     * Immutable copy of the bg data structures, as they were at one point in time. The id maps
+     * are plain copies and must not be modified.
+     */
+    static final class BgDataSnapshot {
+        final List<ItemInfo> workspaceItems;
+        final List<LauncherAppWidgetInfo> appWidgets;
+        final LongHashMap<FolderInfo> folders;
+        final LongHashMap<ItemInfo> itemsIdMap;
+        final List<Long> workspaceScreens;
+
+        /**
+         * Must be called with sBgLock held.
+         */
+        private BgDataSnapshot() {
+            workspaceItems = Collections.unmodifiableList(
+                    new ArrayList<ItemInfo>(sBgWorkspaceItems));
+            appWidgets = Collections.unmodifiableList(
+                    new ArrayList<LauncherAppWidgetInfo>(sBgAppWidgets));
+            folders = new LongHashMap<FolderInfo>(sBgFolders);
+            itemsIdMap = new LongHashMap<ItemInfo>(sBgItemsIdMap);
+            workspaceScreens = Collections.unmodifiableList(
+                    new ArrayList<Long>(sBgWorkspaceScreens));
+        }
+    }
+
+    /**
+     * Returns a consistent copy of the bg data structures. sBgLock is only taken when the data
+     * changed since the last call.
+     */
+    static BgDataSnapshot getBgDataSnapshot() {
+        BgDataSnapshot snapshot = sBgDataSnapshot;
+        if (snapshot == null) {
+            synchronized (sBgLock) {
+                snapshot = sBgDataSnapshot;
+                if (snapshot == null) {
+                    snapshot = new BgDataSnapshot();
+                    sBgDataSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Must be called with sBgLock held, after any change to the bg data structures.
+     */
+    private static void onBgDataChangedLocked() {
+        sBgDataSnapshot = null;
+        if (DEBUG_MODEL_CONSISTENCY) {
+            checkBgDataConsistencyLocked();
+        }
+    }
+
+    /**
+     * Verifies the invariants between the bg data structures and throws if one is broken.
+     * Must be called with sBgLock held.
+     */
+    private static void checkBgDataConsistencyLocked() {
+        for (ItemInfo item : sBgWorkspaceItems) {
+            if (sBgItemsIdMap.get(item.id) != item) {
+                throw new RuntimeException("workspace item " + item + " is not in sBgItemsIdMap");
+            }
+            if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP &&
+                    item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                throw new RuntimeException("workspace item " + item + " is in container "
+                        + item.container);
+            }
+        }
+        for (LauncherAppWidgetInfo widget : sBgAppWidgets) {
+            if (sBgItemsIdMap.get(widget.id) != widget) {
+                throw new RuntimeException("widget " + widget + " is not in sBgItemsIdMap");
+            }
+        }
+        for (FolderInfo folder : sBgFolders) {
+            if (sBgItemsIdMap.get(folder.id) != folder) {
+                throw new RuntimeException("folder " + folder + " is not in sBgItemsIdMap");
+            }
+        }
+        for (ItemInfo item : sBgItemsIdMap) {
+            if (item.container > 0 && !sBgFolders.containsKey(item.container)) {
+                // Only logged, the model already tolerates this while a folder is being deleted
+                Log.w(TAG, "item " + item + " is in a folder which doesn't exist");
+            }
+        }
+    }
+
     /**
      * Runs the specified runnable immediately if called from the worker thread, otherwise it is
      * posted on the worker thread handler.
@@ -350,26 +545,17 @@ public class LauncherModel extends BroadcastReceiver
         // columns数目和row的数目
         final int xCount = (int) grid.numColumns;
         final int yCount = (int) grid.numRows;
-        boolean[][] occupied = new boolean[xCount][yCount];
+        GridOccupancy occupied = new GridOccupancy(xCount, yCount);
 
-        int cellX, cellY, spanX, spanY;
         for (final ItemInfo item : items) {
             if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
                 if (item.screenId == screen) {
-                    cellX = item.cellX;
-                    cellY = item.cellY;
-                    spanX = item.spanX;
-                    spanY = item.spanY;
-                    for (int x = cellX; 0 <= x && x < cellX + spanX && x < xCount; x++) {
-                        for (int y = cellY; 0 <= y && y < cellY + spanY && y < yCount; y++) {
-                            occupied[x][y] = true;
-                        }
-                    }
+                    occupied.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
                 }
             }
         }
 
-        return CellLayout.findVacantCell(xy, 1, 1, xCount, yCount, occupied);
+        return occupied.findVacantCell(xy, 1, 1);
     }
 
     static Pair<Long, int[]> findNextAvailableIconSpace(Context context, String name,
@@ -387,6 +573,7 @@ public class LauncherModel extends BroadcastReceiver
                 // database (getItemsInLocalCoordinates reads the database)
                 model.flushWorkerThread();
             }
+            // On the worker thread, getItemsInLocalCoordinates applies the queued writes itself
             final ArrayList<ItemInfo> items = LauncherModel.getItemsInLocalCoordinates(context);
 
             // Try adding to the workspace screens incrementally, starting at the default or center
@@ -649,7 +836,7 @@ public class LauncherModel extends BroadcastReceiver
             mDeferredBindRunnables.clear();
         }
 
-        // 下面的cancelAllRunnablesOfType()方法是DeferredHandler当中特有的实现
+        // 下面的cancelAllRunnablesOfType()方法是BindScheduler当中特有的实现
         // 用于将mQueue当中（注意：不是这个Handler的MessageQueeu当中）的所有将要被处理的
         // Runnable从mQueue当中删除掉
         // Remove any queued bind runnables
@@ -665,19 +852,16 @@ public class LauncherModel extends BroadcastReceiver
 
         // Ensure that we don't use the same workspace items data structure on the main thread
         // by making a copy of workspace items first.
-        final ArrayList<ItemInfo> tmpWorkspaceItems = new ArrayList<ItemInfo>();
-        final ArrayList<ItemInfo> tmpAppWidgets = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            tmpWorkspaceItems.addAll(sBgWorkspaceItems);
-            tmpAppWidgets.addAll(sBgAppWidgets);
-        }
+        final BgDataSnapshot snapshot = getBgDataSnapshot();
+        final List<ItemInfo> tmpWorkspaceItems = snapshot.workspaceItems;
+        final List<LauncherAppWidgetInfo> tmpAppWidgets = snapshot.appWidgets;
         Runnable r = new Runnable() {
             @Override
             public void run() {
                 for (ItemInfo item : tmpWorkspaceItems) {
                     item.unbind();
                 }
-                for (ItemInfo item : tmpAppWidgets) {
+                for (LauncherAppWidgetInfo item : tmpAppWidgets) {
                     item.unbind();
                 }
             }
@@ -759,13 +943,14 @@ public class LauncherModel extends BroadcastReceiver
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
                                            final ItemInfo item, final String callingFunction) {
         final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
         final ContentResolver cr = context.getContentResolver();
+        item.onValuesPersisted(values, false);
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
+                queueWrite(cr, PendingWrite.UPDATE, itemId,
+                        LauncherSettings.Favorites.getContentUri(itemId, false), values);
                 updateItemArrays(item, itemId, stackTrace);
             }
         };
@@ -775,27 +960,21 @@ public class LauncherModel extends BroadcastReceiver
     static void updateItemsInDatabaseHelper(Context context, final ArrayList<ContentValues> valuesList,
                                             final ArrayList<ItemInfo> items, final String callingFunction) {
         final ContentResolver cr = context.getContentResolver();
+        for (int i = 0; i < items.size(); i++) {
+            items.get(i).onValuesPersisted(valuesList.get(i), false);
+        }
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                ArrayList<ContentProviderOperation> ops =
-                        new ArrayList<ContentProviderOperation>();
                 int count = items.size();
                 for (int i = 0; i < count; i++) {
                     ItemInfo item = items.get(i);
                     final long itemId = item.id;
                     final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
-                    ContentValues values = valuesList.get(i);
 
-                    ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+                    queueWrite(cr, PendingWrite.UPDATE, itemId, uri, valuesList.get(i));
                     updateItemArrays(item, itemId, stackTrace);
-
-                }
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
             }
         };
@@ -803,7 +982,7 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     static void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
-        // Lock on mBgLock *after* the db operation
+        // Lock on mBgLock *after* the db operation has been queued
         synchronized (sBgLock) {
             checkItemInfoLocked(itemId, item, stackTrace);
 
@@ -840,13 +1019,278 @@ public class LauncherModel extends BroadcastReceiver
             } else {
                 sBgWorkspaceItems.remove(modelItem);
             }
+            onBgDataChangedLocked();
+        }
+    }
+
+    /**
+     * A write of the favorites table queued by the database helpers. The writes are applied in
+     * the order they were queued, in a single transaction, by {@link #flushPendingWrites}.
+     */
+    private static class PendingWrite {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        final int type;
+        final long itemId;
+        final Uri uri;
+        final ContentValues values;
+
+        // Set when a later delete of the same item made this write useless
+        boolean cancelled;
+
+        PendingWrite(int type, long itemId, Uri uri, ContentValues values) {
+            this.type = type;
+            this.itemId = itemId;
+            this.uri = uri;
+            this.values = values;
         }
     }
 
+    // How long the database helpers wait for more writes before applying the queued ones
+    private static final int WRITE_BATCH_DELAY_MS = 50;
+
+    // The queued writes, and the queued insert or update of each item, which a later update of
+    // that item is merged into. Only accessed from the worker thread.
+    private static final ArrayList<PendingWrite> sPendingWrites = new ArrayList<PendingWrite>();
+    private static final LongHashMap<PendingWrite> sPendingWritesById =
+            new LongHashMap<PendingWrite>();
+    private static ContentResolver sPendingWritesResolver;
+
+    private static final Runnable sFlushPendingWrites = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingWrites();
+        }
+    };
+
+    // How long the model has to stay unchanged before its snapshot is written again
+    private static final int MODEL_SNAPSHOT_DELAY_MS = 10000;
+
+    private static final Runnable sWriteModelSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+            if (app != null) {
+                app.getModel().writeModelSnapshot();
+            }
+        }
+    };
+
+    /**
+     * Schedules a new snapshot of the model, after the database was written.
+     */
+    private static void scheduleModelSnapshot() {
+        sWorker.removeCallbacks(sWriteModelSnapshot);
+        sWorker.postDelayed(sWriteModelSnapshot, MODEL_SNAPSHOT_DELAY_MS);
+    }
+
+    /**
+     * Queues a write of the favorites table, so that the writes of a drag, a folder change or a
+     * package update end up in a single transaction. Must be called on the worker thread.
+     */
+    private static void queueWrite(ContentResolver cr, int type, long itemId, Uri uri,
+            ContentValues values) {
+        PendingWrite pending = sPendingWritesById.get(itemId);
+        if (type == PendingWrite.UPDATE && pending != null) {
+            // Only the last value of every column needs to be written
+            pending.values.putAll(values);
+            return;
+        }
+        if (type == PendingWrite.DELETE && pending != null) {
+            pending.cancelled = true;
+            sPendingWritesById.remove(itemId);
+            if (pending.type == PendingWrite.INSERT) {
+                // The row never made it to the database
+                return;
+            }
+        }
+
+        // The caller may keep using its values, the write keeps a copy that updates merge into
+        PendingWrite write = new PendingWrite(type, itemId, uri,
+                values != null ? new ContentValues(values) : null);
+        if (type != PendingWrite.DELETE) {
+            sPendingWritesById.put(itemId, write);
+        }
+        if (sPendingWrites.isEmpty()) {
+            sWorker.postDelayed(sFlushPendingWrites, WRITE_BATCH_DELAY_MS);
+        }
+        sPendingWrites.add(write);
+        sPendingWritesResolver = cr;
+    }
+
+    /**
+     * Applies the queued writes in one batch. This needs to happen before the favorites table is
+     * read or written without going through {@link #queueWrite}. Must be called on the worker
+     * thread.
+     */
+    static void flushPendingWrites() {
+        sWorker.removeCallbacks(sFlushPendingWrites);
+        if (sPendingWrites.isEmpty()) {
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(sPendingWrites.size());
+        for (PendingWrite write : sPendingWrites) {
+            if (write.cancelled) {
+                continue;
+            }
+            switch (write.type) {
+                case PendingWrite.INSERT:
+                    ops.add(ContentProviderOperation.newInsert(write.uri)
+                            .withValues(write.values).build());
+                    break;
+                case PendingWrite.UPDATE:
+                    ops.add(ContentProviderOperation.newUpdate(write.uri)
+                            .withValues(write.values).build());
+                    break;
+                case PendingWrite.DELETE:
+                    ops.add(ContentProviderOperation.newDelete(write.uri).build());
+                    break;
+            }
+        }
+        final int queued = sPendingWrites.size();
+        sPendingWrites.clear();
+        sPendingWritesById.clear();
+        if (ops.isEmpty()) {
+            return;
+        }
+
+        final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+        try {
+            sPendingWritesResolver.applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to apply " + ops.size() + " database writes", e);
+        }
+        scheduleModelSnapshot();
+        if (DEBUG_LOADERS) {
+            Log.d(TAG, "applied " + ops.size() + " of " + queued + " queued database writes in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    /**
+     * Applies the queued writes before the favorites table is read directly, when called on the
+     * worker thread. Other threads see the writes once they flush the worker thread.
+     */
+    private static void flushPendingWritesIfOnWorker() {
+        if (sWorkerThread.getThreadId() == Process.myTid()) {
+            flushPendingWrites();
+        }
+    }
+
+    /**
+     * Writes the snapshot of the loaded workspace, which lets the next process skip
+     * loadWorkspace(). Must be called on the worker thread.
+     */
+    private void writeModelSnapshot() {
+        final Context context = mApp.getContext();
+        if (!mWorkspaceLoaded || context.getPackageManager().isSafeMode()) {
+            return;
+        }
+        final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+
+        // The snapshot has to match the database it is stamped with
+        flushPendingWrites();
+        sWorker.removeCallbacks(sWriteModelSnapshot);
+        ModelSnapshot snapshot;
+        synchronized (sBgLock) {
+            snapshot = createModelSnapshotLocked(context);
+        }
+        if (snapshot == null) {
+            ModelSnapshot.delete(context);
+            return;
+        }
+        snapshot.contentStamp = LauncherAppState.getLauncherProvider().getContentStamp();
+        try {
+            snapshot.write(ModelSnapshot.getFile(context));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the model snapshot", e);
+            ModelSnapshot.delete(context);
+            return;
+        }
+        if (DEBUG_LOADERS) {
+            Log.d(TAG, "wrote model snapshot of " + snapshot.items.size() + " items in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    /**
+     * Returns the snapshot of the bg data structures, or null if an item still needs the checks
+     * of loadWorkspace() on the next load. Must be called with sBgLock held.
+     */
+    private ModelSnapshot createModelSnapshotLocked(Context context) {
+        if (!sPendingPackages.isEmpty()) {
+            return null;
+        }
+        DeviceProfile grid = mApp.getDynamicGrid().getDeviceProfile();
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+
+        ModelSnapshot snapshot = new ModelSnapshot();
+        snapshot.countX = (int) grid.numColumns;
+        snapshot.countY = (int) grid.numRows;
+        snapshot.hotseatCount = (int) grid.numHotseatIcons;
+        snapshot.screens.addAll(sBgWorkspaceScreens);
+        snapshot.items.ensureCapacity(sBgItemsIdMap.size());
+        for (ItemInfo info : sBgItemsIdMap) {
+            ModelSnapshot.Item item = new ModelSnapshot.Item();
+            item.itemType = info.itemType;
+            item.id = info.id;
+            item.container = info.container;
+            item.screenId = info.screenId;
+            item.cellX = info.cellX;
+            item.cellY = info.cellY;
+            item.spanX = info.spanX;
+            item.spanY = info.spanY;
+
+            if (info instanceof ShortcutInfo) {
+                ShortcutInfo shortcut = (ShortcutInfo) info;
+                if (shortcut.intent == null || shortcut.promisedIntent != null
+                        || shortcut.status != ShortcutInfo.DEFAULT
+                        || shortcut.isDisabled != ShortcutInfo.DEFAULT) {
+                    return null;
+                }
+                item.title = shortcut.title == null ? null : shortcut.title.toString();
+                item.intent = shortcut.intent.toUri(0);
+                item.profileId = userManager.getSerialNumberForUser(shortcut.user);
+                if (shortcut.itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT) {
+                    item.iconType = shortcut.customIcon
+                            ? LauncherSettings.Favorites.ICON_TYPE_BITMAP
+                            : LauncherSettings.Favorites.ICON_TYPE_RESOURCE;
+                    if (!shortcut.customIcon && shortcut.iconResource != null) {
+                        // Resolved again on load, the package may have been updated since
+                        item.iconPackage = shortcut.iconResource.packageName;
+                        item.iconResource = shortcut.iconResource.resourceName;
+                    }
+                    if (!shortcut.usingFallbackIcon) {
+                        item.icon = ItemInfo.flattenBitmap(shortcut.getIcon(mIconCache));
+                    }
+                }
+            } else if (info instanceof FolderInfo) {
+                item.title = info.title == null ? null : info.title.toString();
+            } else if (info instanceof LauncherAppWidgetInfo) {
+                LauncherAppWidgetInfo widget = (LauncherAppWidgetInfo) info;
+                if (widget.restoreStatus != LauncherAppWidgetInfo.RESTORE_COMPLETED) {
+                    return null;
+                }
+                item.appWidgetId = widget.appWidgetId;
+                item.provider = widget.providerName.flattenToString();
+            } else {
+                return null;
+            }
+            snapshot.items.add(item);
+        }
+        return snapshot;
+    }
+
     public void flushWorkerThread() {
         mFlushingWorkerThread = true;
         Runnable waiter = new Runnable() {
             public void run() {
+                // Callers flush the worker thread to read what it wrote
+                flushPendingWrites();
                 synchronized (this) {
                     notifyAll();
                     mFlushingWorkerThread = false;
@@ -969,9 +1413,11 @@ public class LauncherModel extends BroadcastReceiver
      * Update an item to the database in a specified container.
      */
     static void updateItemInDatabase(Context context, final ItemInfo item) {
-        final ContentValues values = new ContentValues();
-        item.onAddToDatabase(context, values);
-        item.updateValuesWithCoordinates(values, item.cellX, item.cellY);
+        final ContentValues values = item.getChangedValues(context);
+        if (values.size() == 0) {
+            // Nothing to write, the row is up to date
+            return;
+        }
         updateItemInDatabaseHelper(context, values, item, "updateItemInDatabase");
     }
 
@@ -983,6 +1429,8 @@ public class LauncherModel extends BroadcastReceiver
      */
     static boolean shortcutExists(Context context, String title, Intent intent,
                                   UserHandleCompat user) {
+        // The shortcuts added just before, in the same loop, may still be queued
+        flushPendingWritesIfOnWorker();
 
         final ContentResolver cr = context.getContentResolver();
         final Intent intentWithPkg, intentWithoutPkg;
@@ -1037,6 +1485,8 @@ public class LauncherModel extends BroadcastReceiver
      * The ItemInfo.id is not set through this function.
      */
     static ArrayList<ItemInfo> getItemsInLocalCoordinates(Context context) {
+        // Otherwise the items placed just before would not be seen and get the same cell
+        flushPendingWritesIfOnWorker();
         ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI, new String[]{
@@ -1155,14 +1605,16 @@ public class LauncherModel extends BroadcastReceiver
         item.id = LauncherAppState.getLauncherProvider().generateNewItemId();
         values.put(LauncherSettings.Favorites._ID, item.id);
         item.updateValuesWithCoordinates(values, item.cellX, item.cellY);
+        item.onValuesPersisted(values, true);
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.insert(notify ? LauncherSettings.Favorites.CONTENT_URI :
-                        LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
+                queueWrite(cr, PendingWrite.INSERT, item.id, notify
+                        ? LauncherSettings.Favorites.CONTENT_URI
+                        : LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
 
-                // Lock on mBgLock *after* the db operation
+                // Lock on mBgLock *after* the db operation has been queued
                 synchronized (sBgLock) {
                     checkItemInfoLocked(item.id, item, stackTrace);
                     sBgItemsIdMap.put(item.id, item);
@@ -1188,12 +1640,26 @@ public class LauncherModel extends BroadcastReceiver
                             sBgAppWidgets.add((LauncherAppWidgetInfo) item);
                             break;
                     }
+                    onBgDataChangedLocked();
+                    updateIconCachePinsLocked();
                 }
             }
         };
         runOnWorkerThread(r);
     }
 
+    /**
+     * Pins the icon cache entries of every shortcut in the workspace, hotseat and folders, so
+     * that the icon cache only evicts icons which are shown in all apps.
+     * Must be called with sBgLock held.
+     */
+    private static void updateIconCachePinsLocked() {
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app != null) {
+            app.getIconCache().setPinnedItems(sBgItemsIdMap);
+        }
+    }
+
     /**
      * Creates a new unique child id, for a given cell span across all layouts.
      */
@@ -1211,7 +1677,7 @@ public class LauncherModel extends BroadcastReceiver
                 return cn.getPackageName().equals(pn) && info.user.equals(user);
             }
         };
-        return filterItemInfos(sBgItemsIdMap.values(), filter);
+        return filterItemInfos(sBgItemsIdMap, filter);
     }
 
     /**
@@ -1251,15 +1717,15 @@ public class LauncherModel extends BroadcastReceiver
             public void run() {
                 for (ItemInfo item : items) {
                     final Uri uri = LauncherSettings.Favorites.getContentUri(item.id, false);
-                    cr.delete(uri, null, null);
+                    queueWrite(cr, PendingWrite.DELETE, item.id, uri, null);
 
-                    // Lock on mBgLock *after* the db operation
+                    // Lock on mBgLock *after* the db operation has been queued
                     synchronized (sBgLock) {
                         switch (item.itemType) {
                             case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                                 Log.d(TAG_REMOVE_ITEM, "we are removing folder from workspace ... ");
                                 sBgFolders.remove(item.id);
-                                for (ItemInfo info : sBgItemsIdMap.values()) {
+                                for (ItemInfo info : sBgItemsIdMap) {
                                     if (info.container == item.id) {
                                         // We are deleting a folder which still contains items that
                                         // think they are contained by that folder.
@@ -1286,6 +1752,10 @@ public class LauncherModel extends BroadcastReceiver
                         sBgDbIconCache.remove(item);
                     }
                 }
+                synchronized (sBgLock) {
+                    onBgDataChangedLocked();
+                    updateIconCachePinsLocked();
+                }
             }
         };
         runOnWorkerThread(r);
@@ -1337,7 +1807,9 @@ public class LauncherModel extends BroadcastReceiver
                 synchronized (sBgLock) {
                     sBgWorkspaceScreens.clear();
                     sBgWorkspaceScreens.addAll(screensCopy);
+                    onBgDataChangedLocked();
                 }
+                scheduleModelSnapshot();
             }
         };
         runOnWorkerThread(r);
@@ -1351,6 +1823,8 @@ public class LauncherModel extends BroadcastReceiver
 
         Runnable r = new Runnable() {
             public void run() {
+                // The children are deleted by container below, so their queued writes go first
+                flushPendingWrites();
                 cr.delete(LauncherSettings.Favorites.getContentUri(info.id, false), null, null);
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
@@ -1358,6 +1832,7 @@ public class LauncherModel extends BroadcastReceiver
                     sBgFolders.remove(info.id);
                     sBgDbIconCache.remove(info);
                     sBgWorkspaceItems.remove(info);
+                    onBgDataChangedLocked();
                 }
 
                 cr.delete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
@@ -1368,7 +1843,9 @@ public class LauncherModel extends BroadcastReceiver
                         sBgItemsIdMap.remove(childInfo.id);
                         sBgDbIconCache.remove(childInfo);
                     }
+                    onBgDataChangedLocked();
                 }
+                scheduleModelSnapshot();
             }
         };
         runOnWorkerThread(r);
@@ -1605,7 +2082,8 @@ public class LauncherModel extends BroadcastReceiver
                 mDeferredBindRunnables.clear();
             }
             for (final Runnable r : deferredBindRunnables) {
-                mHandler.post(r, MAIN_THREAD_BINDING_RUNNABLE);
+                mHandler.post(r, MAIN_THREAD_BINDING_RUNNABLE,
+                        BindScheduler.PRIORITY_OTHER_PAGES);
             }
         }
     }
@@ -1687,6 +2165,11 @@ public class LauncherModel extends BroadcastReceiver
         private boolean mStopped;
         private boolean mLoadAndBindStepFinished;
         private int mFlags;
+        private long mLoadStartTime;
+        // The page bound by bindFirstPage() while the rest of the workspace was still loading
+        private FirstPageFilter mBoundFirstPage;
+        // Whether the workspace was loaded from the model snapshot
+        private boolean mLoadedFromSnapshot;
 
         private HashMap<Object, CharSequence> mLabelCache;
 
@@ -1718,7 +2201,10 @@ public class LauncherModel extends BroadcastReceiver
             boolean isUpgradePath = false;
             if (!mWorkspaceLoaded) {
                 Log.d(TAG, "1-1-1, start loadWorkspace() ");
-                isUpgradePath = loadWorkspace();
+                mLoadedFromSnapshot = loadWorkspaceFromSnapshot();
+                if (!mLoadedFromSnapshot) {
+                    isUpgradePath = loadWorkspace();
+                }
                 synchronized (LoaderTask.this) {
                     if (mStopped) {
                         return isUpgradePath;
@@ -1792,7 +2278,7 @@ public class LauncherModel extends BroadcastReceiver
             //      data structures, we can't allow any other thread to touch that data, but because
             //      this call is synchronous, we can get away with not locking).
 
-            // 关于下面的mHandler.flush()的具体作用还是参考DeferredHandler当中的具体实现
+            // 关于下面的mHandler.flush()的具体作用还是参考BindScheduler当中的具体实现
             // 注释上写的是：Runs all queued Runnables from the calling thread.
             // The LauncherModel is static in the LauncherAppState and mHandler may have queued
             // operations from the previous activity.  We need to ensure that all queued operations
@@ -1815,6 +2301,7 @@ public class LauncherModel extends BroadcastReceiver
             synchronized (mLock) {
                 mIsLoaderTaskRunning = true;
             }
+            mLoadStartTime = SystemClock.uptimeMillis();
 
             // TODO: 以下就是一个可以优化的地方。对于现在的Launcher而言，Launcher当中是包含一个抽屉的
             // TODO: 但是由于Launcher目前是首先加载workspace，然后才是加载所有的apps，这样就导致了
@@ -1874,6 +2361,11 @@ public class LauncherModel extends BroadcastReceiver
                 sBgDbIconCache.clear();
             }
 
+            // Save the model for the next process, once it was loaded from the database
+            if (!mStopped && mWorkspaceLoaded && !mLoadedFromSnapshot) {
+                writeModelSnapshot();
+            }
+
             // 下面的这个if逻辑当中就是我们需要的打开将所有的App移动到Workspace当中的具体逻辑
             // 的开关
             if (LauncherAppState.isDisableAllApps()) {
@@ -1991,7 +2483,7 @@ public class LauncherModel extends BroadcastReceiver
 
         // 用于实现防止图标重叠的现象
         // check & update map of what's occupied; used to discard overlapping/invalid items
-        private boolean checkItemPlacement(HashMap<Long, ItemInfo[][]> occupied, ItemInfo item) {
+        private boolean checkItemPlacement(LongHashMap<ItemInfo[][]> occupied, ItemInfo item) {
             LauncherAppState appState = LauncherAppState.getInstance();
             DeviceProfile grid = appState.getDynamicGrid().getDeviceProfile();
             final int countX = (int) grid.numColumns;
@@ -2095,7 +2587,263 @@ public class LauncherModel extends BroadcastReceiver
                 sBgDbIconCache.clear();
                 // Workspace当中的screen清空
                 sBgWorkspaceScreens.clear();
+                onBgDataChangedLocked();
+            }
+        }
+
+        /**
+         * Returns the filter for the rows of the page the launcher is going to show, or null if
+         * it can not be streamed first.
+         */
+        private FirstPageFilter createFirstPageFilter(ContentResolver cr) {
+            final Callbacks callbacks = mCallbacks.get();
+            if (callbacks == null) {
+                return null;
             }
+            ArrayList<Long> screenIds = new ArrayList<Long>(
+                    loadWorkspaceScreensDb(mContext).values());
+            int screenIndex = callbacks.getCurrentWorkspaceScreen();
+            if (screenIndex < 0 || screenIndex >= screenIds.size()) {
+                return null;
+            }
+            long screenId = screenIds.get(screenIndex);
+
+            // The contents of the folders on that screen are part of the page as well
+            Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                    new String[] { LauncherSettings.Favorites._ID },
+                    LauncherSettings.Favorites.CONTAINER + "=? AND "
+                            + LauncherSettings.Favorites.SCREEN + "=? AND "
+                            + LauncherSettings.Favorites.ITEM_TYPE + "=?",
+                    new String[] {
+                            String.valueOf(LauncherSettings.Favorites.CONTAINER_DESKTOP),
+                            String.valueOf(screenId),
+                            String.valueOf(LauncherSettings.Favorites.ITEM_TYPE_FOLDER)
+                    }, null);
+            if (c == null) {
+                return null;
+            }
+            long[] folderIds;
+            try {
+                folderIds = new long[c.getCount()];
+                int i = 0;
+                while (c.moveToNext() && i < folderIds.length) {
+                    folderIds[i++] = c.getLong(0);
+                }
+            } finally {
+                c.close();
+            }
+            return new FirstPageFilter(screenIds, screenIndex, screenId, folderIds);
+        }
+
+        /**
+         * Binds the page described by the filter, while the other pages are still being loaded.
+         * Must be called from loadWorkspace(), once all the rows of that page have been parsed.
+         */
+        private void bindFirstPage(FirstPageFilter firstPage) {
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null) {
+                return;
+            }
+
+            // Not cached, the bg data structures only hold the first page at this point.
+            // sBgLock is held by loadWorkspace().
+            BgDataSnapshot loaded = new BgDataSnapshot();
+            ArrayList<ItemInfo> currentWorkspaceItems = new ArrayList<>();
+            ArrayList<LauncherAppWidgetInfo> currentAppWidgets = new ArrayList<>();
+            HashMap<Long, FolderInfo> currentFolders = new HashMap<>();
+            filterCurrentWorkspaceItems(firstPage.screenId,
+                    new ArrayList<ItemInfo>(loaded.workspaceItems), currentWorkspaceItems,
+                    new ArrayList<ItemInfo>());
+            filterCurrentAppWidgets(firstPage.screenId,
+                    new ArrayList<LauncherAppWidgetInfo>(loaded.appWidgets), currentAppWidgets,
+                    new ArrayList<LauncherAppWidgetInfo>());
+            filterCurrentFolders(firstPage.screenId, loaded.itemsIdMap, loaded.folders,
+                    currentFolders, new HashMap<Long, FolderInfo>());
+            sortWorkspaceItemsSpatially(currentWorkspaceItems);
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "binding page " + firstPage.screenIndex + " after "
+                        + (SystemClock.uptimeMillis() - mLoadStartTime) + "ms of loading");
+            }
+            bindCurrentPage(oldCallbacks, firstPage.screenIds, currentWorkspaceItems,
+                    currentAppWidgets, currentFolders);
+            mBoundFirstPage = firstPage;
+        }
+
+        /**
+         * Fills the bg data structures from the model snapshot written by the previous process,
+         * instead of reading every row of the database. Returns false, with the bg data
+         * structures cleared, if there is no snapshot matching the database, or if any of its
+         * items needs the checks of loadWorkspace().
+         */
+        private boolean loadWorkspaceFromSnapshot() {
+            final Context context = mContext;
+            final PackageManager manager = context.getPackageManager();
+            if (mFlags != LOADER_FLAG_NONE || manager.isSafeMode()) {
+                return false;
+            }
+            // Missing packages have to be tracked by loadWorkspace() until the sd card is ready
+            final boolean isSdCardReady = context.registerReceiver(null,
+                    new IntentFilter(StartupReceiver.SYSTEM_READY)) != null;
+            if (!isSdCardReady) {
+                return false;
+            }
+
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+
+            flushPendingWrites();
+            LauncherProvider provider = LauncherAppState.getLauncherProvider();
+            provider.loadDefaultFavoritesIfNecessary();
+
+            ModelSnapshot snapshot = ModelSnapshot.read(ModelSnapshot.getFile(context));
+            DeviceProfile grid = LauncherAppState.getInstance().getDynamicGrid()
+                    .getDeviceProfile();
+            if (snapshot == null || !snapshot.matches(provider.getContentStamp(),
+                    (int) grid.numColumns, (int) grid.numRows, (int) grid.numHotseatIcons)) {
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "no model snapshot matching the database");
+                }
+                return false;
+            }
+
+            synchronized (sBgLock) {
+                clearSBgDataStructures();
+                for (ModelSnapshot.Item item : snapshot.items) {
+                    if (!addSnapshotItemLocked(item, manager)) {
+                        Log.w(TAG, "Ignoring the model snapshot, item " + item.id
+                                + " has changed");
+                        clearSBgDataStructures();
+                        return false;
+                    }
+                }
+                sBgWorkspaceScreens.addAll(snapshot.screens);
+                onBgDataChangedLocked();
+                updateIconCachePinsLocked();
+            }
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "loaded " + snapshot.items.size() + " items from the model snapshot in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+            return true;
+        }
+
+        /**
+         * Adds the item of the model snapshot to the bg data structures. Returns false if it
+         * can not be restored as it was.
+         */
+        private boolean addSnapshotItemLocked(ModelSnapshot.Item item, PackageManager manager) {
+            final Context context = mContext;
+            final ItemInfo info;
+            switch (item.itemType) {
+                case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                    Intent intent;
+                    try {
+                        intent = Intent.parseUri(item.intent, 0);
+                    } catch (URISyntaxException e) {
+                        return false;
+                    }
+                    UserHandleCompat user = mUserManager.getUserForSerialNumber(item.profileId);
+                    if (user == null) {
+                        return false;
+                    }
+
+                    ShortcutInfo shortcut;
+                    if (item.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                        shortcut = getShortcutInfo(manager, intent, user, context, null, -1, -1,
+                                mLabelCache, false);
+                        if (shortcut == null) {
+                            return false;
+                        }
+                    } else {
+                        shortcut = new ShortcutInfo();
+                        shortcut.user = user;
+                        shortcut.itemType = LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT;
+                        shortcut.title = item.title;
+                        Bitmap icon = null;
+                        if (item.iconType == LauncherSettings.Favorites.ICON_TYPE_RESOURCE
+                                && item.iconPackage != null && item.iconResource != null) {
+                            // As loadWorkspace() does, the persisted icon is only a fallback
+                            shortcut.iconResource = new ShortcutIconResource();
+                            shortcut.iconResource.packageName = item.iconPackage;
+                            shortcut.iconResource.resourceName = item.iconResource;
+                            icon = Utilities.createIconBitmap(item.iconPackage,
+                                    item.iconResource, mIconCache, context);
+                        }
+                        if (icon == null && item.icon != null) {
+                            icon = BitmapFactory.decodeByteArray(item.icon, 0, item.icon.length);
+                            if (icon == null) {
+                                return false;
+                            }
+                            icon = Utilities.createIconBitmap(icon, context);
+                        }
+                        shortcut.customIcon = icon != null
+                                && item.iconType == LauncherSettings.Favorites.ICON_TYPE_BITMAP;
+                        if (icon == null) {
+                            icon = mIconCache.getDefaultIcon(user);
+                            shortcut.usingFallbackIcon = true;
+                        }
+                        shortcut.setIcon(icon);
+                    }
+                    shortcut.intent = intent;
+                    shortcut.spanX = 1;
+                    shortcut.spanY = 1;
+                    info = shortcut;
+
+                    if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                            || item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                        sBgWorkspaceItems.add(shortcut);
+                    } else {
+                        findOrMakeFolder(sBgFolders, item.container).add(shortcut);
+                    }
+                    break;
+
+                case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                    FolderInfo folder = findOrMakeFolder(sBgFolders, item.id);
+                    folder.title = item.title;
+                    folder.spanX = 1;
+                    folder.spanY = 1;
+                    info = folder;
+
+                    if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                            || item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                        sBgWorkspaceItems.add(folder);
+                    }
+                    sBgFolders.put(item.id, folder);
+                    break;
+
+                case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                    AppWidgetProviderInfo provider = AppWidgetManager.getInstance(context)
+                            .getAppWidgetInfo(item.appWidgetId);
+                    if (!isValidProvider(provider)
+                            || !provider.provider.flattenToString().equals(item.provider)) {
+                        return false;
+                    }
+                    LauncherAppWidgetInfo widget = new LauncherAppWidgetInfo(item.appWidgetId,
+                            provider.provider);
+                    int[] minSpan = Launcher.getMinSpanForWidget(context, provider);
+                    widget.minSpanX = minSpan[0];
+                    widget.minSpanY = minSpan[1];
+                    widget.restoreStatus = LauncherAppWidgetInfo.RESTORE_COMPLETED;
+                    widget.spanX = item.spanX;
+                    widget.spanY = item.spanY;
+                    info = widget;
+
+                    sBgAppWidgets.add(widget);
+                    break;
+
+                default:
+                    return false;
+            }
+
+            info.id = item.id;
+            info.container = item.container;
+            info.screenId = item.screenId;
+            info.cellX = item.cellX;
+            info.cellY = item.cellY;
+            sBgItemsIdMap.put(info.id, info);
+            return true;
         }
 
         /**
@@ -2108,6 +2856,9 @@ public class LauncherModel extends BroadcastReceiver
 
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
+            // The database has to be up to date before it is read
+            flushPendingWrites();
+
             final Context context = mContext;
             final ContentResolver contentResolver = context.getContentResolver();
             final PackageManager manager = context.getPackageManager();
@@ -2154,12 +2905,16 @@ public class LauncherModel extends BroadcastReceiver
                 final ArrayList<Long> restoredRows = new ArrayList<>();
                 final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION;
                 Log.d(TAG, "loading model from " + contentUri);
-                final Cursor c = contentResolver.query(contentUri, null, null, null, null);
+                // Stream the hotseat and the page the launcher is going to show first, so that
+                // they can be bound before the other pages are parsed.
+                FirstPageFilter firstPage = createFirstPageFilter(contentResolver);
+                final Cursor c = contentResolver.query(contentUri, null, null, null,
+                        firstPage == null ? null : firstPage.getSortOrder());
 
                 // +1 for the hotseat (it can be larger than the workspace)
                 // Load workspace in reverse order to ensure that latest items are loaded first (and
                 // before any earlier duplicates)
-                final HashMap<Long, ItemInfo[][]> occupied = new HashMap<>();
+                final LongHashMap<ItemInfo[][]> occupied = new LongHashMap<>();
 
                 try {
                     final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
@@ -2211,6 +2966,12 @@ public class LauncherModel extends BroadcastReceiver
                     // TODO: 下面的appSize仅仅用于调试，删除掉 in later
                     int appSize = 0;
                     while (!mStopped && c.moveToNext()) {
+                        if (firstPage != null && !firstPage.contains(
+                                c.getLong(containerIndex), c.getLong(screenIndex))) {
+                            // Every row of the first page has been parsed
+                            bindFirstPage(firstPage);
+                            firstPage = null;
+                        }
                         try {
                             ++appSize;
                             int itemType = c.getInt(itemTypeIndex);
@@ -2632,7 +3393,7 @@ public class LauncherModel extends BroadcastReceiver
                 if (loadedOldDb) {
                     long maxScreenId = 0;
                     // If we're importing we use the old screen order.
-                    for (ItemInfo item : sBgItemsIdMap.values()) {
+                    for (ItemInfo item : sBgItemsIdMap) {
                         long screenId = item.screenId;
                         if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP &&
                                 !sBgWorkspaceScreens.contains(screenId)) {
@@ -2654,7 +3415,7 @@ public class LauncherModel extends BroadcastReceiver
                     // Update the max item id after we load an old db
                     long maxItemId = 0;
                     // If we're importing we use the old screen order.
-                    for (ItemInfo item : sBgItemsIdMap.values()) {
+                    for (ItemInfo item : sBgItemsIdMap) {
                         maxItemId = Math.max(maxItemId, item.id);
                     }
                     LauncherAppState.getLauncherProvider().updateMaxItemId(maxItemId);
@@ -2669,7 +3430,7 @@ public class LauncherModel extends BroadcastReceiver
 
                     // Remove any empty screens
                     ArrayList<Long> unusedScreens = new ArrayList<Long>(sBgWorkspaceScreens);
-                    for (ItemInfo item : sBgItemsIdMap.values()) {
+                    for (ItemInfo item : sBgItemsIdMap) {
                         long screenId = item.screenId;
                         if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP &&
                                 unusedScreens.contains(screenId)) {
@@ -2688,6 +3449,9 @@ public class LauncherModel extends BroadcastReceiver
                     }
                 }
 
+                onBgDataChangedLocked();
+                updateIconCachePinsLocked();
+
                 if (DEBUG_LOADERS) {
                     Log.d(TAG, "loaded workspace in " + (SystemClock.uptimeMillis() - t) + "ms");
                     Log.d(TAG, "workspace layout: ");
@@ -2695,14 +3459,13 @@ public class LauncherModel extends BroadcastReceiver
                     for (int y = 0; y < countY; y++) {
                         String line = "";
 
-                        Iterator<Long> iter = occupied.keySet().iterator();
-                        while (iter.hasNext()) {
-                            long screenId = iter.next();
+                        for (int i = 0; i < nScreens; i++) {
+                            long screenId = occupied.keyAt(i);
                             if (screenId > 0) {
                                 line += " | ";
                             }
                             for (int x = 0; x < countX; x++) {
-                                ItemInfo[][] screen = occupied.get(screenId);
+                                ItemInfo[][] screen = occupied.valueAt(i);
                                 if (x < screen.length && y < screen[x].length) {
                                     line += (screen[x][y] != null) ? "#" : ".";
                                 } else {
@@ -2794,14 +3557,16 @@ public class LauncherModel extends BroadcastReceiver
          * Filters the set of folders which are on the specified screen.
          */
         private void filterCurrentFolders(long currentScreenId,
-                                          HashMap<Long, ItemInfo> itemsIdMap,
-                                          HashMap<Long, FolderInfo> folders,
+                                          LongHashMap<ItemInfo> itemsIdMap,
+                                          LongHashMap<FolderInfo> folders,
                                           HashMap<Long, FolderInfo> currentScreenFolders,
                                           HashMap<Long, FolderInfo> otherScreenFolders) {
 
-            for (long id : folders.keySet()) {
+            final int count = folders.size();
+            for (int i = 0; i < count; i++) {
+                long id = folders.keyAt(i);
                 ItemInfo info = itemsIdMap.get(id);
-                FolderInfo folder = folders.get(id);
+                FolderInfo folder = folders.valueAt(i);
                 if (info == null || folder == null) continue;
                 if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP &&
                         info.screenId == currentScreenId) {
@@ -2856,6 +3621,7 @@ public class LauncherModel extends BroadcastReceiver
                                         final ArrayList<ItemInfo> workspaceItems,
                                         final ArrayList<LauncherAppWidgetInfo> appWidgets,
                                         final HashMap<Long, FolderInfo> folders,
+                                        int priority,
                                         ArrayList<Runnable> deferredBindRunnables) {
             Log.d(TAG_2, " -----> the workspace items we need to bind are : " + workspaceItems.size());
             final boolean postOnMainThread = (deferredBindRunnables != null);
@@ -2881,7 +3647,7 @@ public class LauncherModel extends BroadcastReceiver
                         deferredBindRunnables.add(r);
                     }
                 } else {
-                    runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+                    runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE, priority);
                 }
             }
 
@@ -2901,7 +3667,7 @@ public class LauncherModel extends BroadcastReceiver
                         deferredBindRunnables.add(r);
                     }
                 } else {
-                    runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+                    runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE, priority);
                 }
             }
 
@@ -2921,7 +3687,7 @@ public class LauncherModel extends BroadcastReceiver
                 if (postOnMainThread) {
                     deferredBindRunnables.add(runnable);
                 } else {
-                    runOnMainThread(runnable, MAIN_THREAD_BINDING_RUNNABLE);
+                    runOnMainThread(runnable, MAIN_THREAD_BINDING_RUNNABLE, priority);
                 }
             }
         }
@@ -2947,46 +3713,44 @@ public class LauncherModel extends BroadcastReceiver
             ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
             ArrayList<LauncherAppWidgetInfo> appWidgets =
                     new ArrayList<>();
-            HashMap<Long, FolderInfo> folders = new HashMap<>();
-            HashMap<Long, ItemInfo> itemsIdMap = new HashMap<>();
             ArrayList<Long> orderedScreenIds = new ArrayList<>();
-            synchronized (sBgLock) {
-                Log.d(TAG_2, " the initial size of the sBgWorkspaceItems size are : " + sBgWorkspaceItems.size());
-                for (ItemInfo itemInfo : sBgWorkspaceItems) {
-                    Log.d(TAG_2, " the shortcut items app screen value are : " + itemInfo.screenId);
-                }
-                Log.d(TAG_2, " the mAllAppsList size are : " + mBgAllAppsList.data.size());
-                // TODO: 我们是不可以直接将mBgAllAppsList当中的数据填充到workspaceItems当中的
-                // TODO: 因为workspaceItems当中的item是需要一个额外的值，就是这个item的screen和cellX以及cellY的值，
-                // TODO: 但是AppInfo当中并没有这个值，所以我们直接采用new ShortcutInfo(new AppInfo())这种方法是不
-                // TODO: 行的。正确的过程应该是我们直接将sBgWorkspaceItems初始化成我们需要的最终形态
-                // TODO: 而sBgWorkspaceItems的初始化是在loadWorkspace()方法当中完成的，这个方法的具体内部实现
-                // TODO: 就是从数据库当中来读物信息，而所有的信息在一开始就直接定义好了每一个ItemInfo的screenId的值
-                for (AppInfo appInfo : mBgAllAppsList.data) {
-                    // TODO: !!!我们应该把握的一个基本原则就是Workspace当中所有的item的增加都是来自于同一个
-                    // TODO: 体系，这包括基本的Folder, Shortcut-Icon, AppWidget!!!
-                    // TODO: 所以我们尽可能的不要将AppsCustomizePagedView当中的AppInfo同Workspace当中的
-                    // TODO: ShortcutInfo混淆起来，因为混合之后我们会发现数据源的统一问题比较混乱，而且会引入很多的
-                    // TODO: 的bug
-                    // TODO: 下面的逻辑过程暂时证明不可行
-                    // TODO: 从LauncherProvider入手进行整理
-                    // 此时workspaceItems当中拥有了所有的item
-                    // TODO: 我们现在并不能简单的就把这个值添加到workspaceItems当中
-                    // TODO: 因为每一个AppInfo的screenId的值是不确定的
-                    // TODO: 关键如果当前的screen已经放满了App，那么我们就需要重新创
-                    // TODO: 建一个screen用于存放新的App
-                    workspaceItems.add(new ShortcutInfo(appInfo));
-                    Log.d(TAG_2, " the current app screenID value are : " + appInfo.screenId);
-                }
-                // TODO: 下面是原始的实现 在下面的实现当中，我们将workSpaceItems当中的数据进行更改了，改成了
-                // TODO: mBgAllAppsList的值，这个值代表的是系统当中所有已经安装的App
-                workspaceItems.addAll(sBgWorkspaceItems);
-
-                appWidgets.addAll(sBgAppWidgets);
-                folders.putAll(sBgFolders);
-                itemsIdMap.putAll(sBgItemsIdMap);
-                orderedScreenIds.addAll(sBgWorkspaceScreens);
+            final BgDataSnapshot snapshot = getBgDataSnapshot();
+            // The snapshot is never modified, so its id maps are used without copying them
+            final LongHashMap<FolderInfo> folders = snapshot.folders;
+            final LongHashMap<ItemInfo> itemsIdMap = snapshot.itemsIdMap;
+            Log.d(TAG_2, " the initial size of the sBgWorkspaceItems size are : " + snapshot.workspaceItems.size());
+            for (ItemInfo itemInfo : snapshot.workspaceItems) {
+                Log.d(TAG_2, " the shortcut items app screen value are : " + itemInfo.screenId);
+            }
+            Log.d(TAG_2, " the mAllAppsList size are : " + mBgAllAppsList.data.size());
+            // TODO: 我们是不可以直接将mBgAllAppsList当中的数据填充到workspaceItems当中的
+            // TODO: 因为workspaceItems当中的item是需要一个额外的值，就是这个item的screen和cellX以及cellY的值，
+            // TODO: 但是AppInfo当中并没有这个值，所以我们直接采用new ShortcutInfo(new AppInfo())这种方法是不
+            // TODO: 行的。正确的过程应该是我们直接将sBgWorkspaceItems初始化成我们需要的最终形态
+            // TODO: 而sBgWorkspaceItems的初始化是在loadWorkspace()方法当中完成的，这个方法的具体内部实现
+            // TODO: 就是从数据库当中来读物信息，而所有的信息在一开始就直接定义好了每一个ItemInfo的screenId的值
+            for (AppInfo appInfo : mBgAllAppsList.data) {
+                // TODO: !!!我们应该把握的一个基本原则就是Workspace当中所有的item的增加都是来自于同一个
+                // TODO: 体系，这包括基本的Folder, Shortcut-Icon, AppWidget!!!
+                // TODO: 所以我们尽可能的不要将AppsCustomizePagedView当中的AppInfo同Workspace当中的
+                // TODO: ShortcutInfo混淆起来，因为混合之后我们会发现数据源的统一问题比较混乱，而且会引入很多的
+                // TODO: 的bug
+                // TODO: 下面的逻辑过程暂时证明不可行
+                // TODO: 从LauncherProvider入手进行整理
+                // 此时workspaceItems当中拥有了所有的item
+                // TODO: 我们现在并不能简单的就把这个值添加到workspaceItems当中
+                // TODO: 因为每一个AppInfo的screenId的值是不确定的
+                // TODO: 关键如果当前的screen已经放满了App，那么我们就需要重新创
+                // TODO: 建一个screen用于存放新的App
+                workspaceItems.add(new ShortcutInfo(appInfo));
+                Log.d(TAG_2, " the current app screenID value are : " + appInfo.screenId);
             }
+            // TODO: 下面是原始的实现 在下面的实现当中，我们将workSpaceItems当中的数据进行更改了，改成了
+            // TODO: mBgAllAppsList的值，这个值代表的是系统当中所有已经安装的App
+            workspaceItems.addAll(snapshot.workspaceItems);
+
+            appWidgets.addAll(snapshot.appWidgets);
+            orderedScreenIds.addAll(snapshot.workspaceScreens);
             Log.d(TAG_2, " after binding, the workspaceItems size are : " + workspaceItems.size());
             final boolean isLoadingSynchronously =
                     synchronizeBindPage != PagedView.INVALID_RESTORE_PAGE;
@@ -3000,9 +3764,19 @@ public class LauncherModel extends BroadcastReceiver
             final long currentScreenId = currentScreen < 0
                     ? INVALID_SCREEN_ID : orderedScreenIds.get(currentScreen);
 
+            // The current page may already have been bound while the workspace was loading. It is
+            // bound again if the screens changed in the meantime.
+            final FirstPageFilter boundFirstPage = mBoundFirstPage;
+            mBoundFirstPage = null;
+            final boolean currentPageBound = !isLoadingSynchronously && boundFirstPage != null
+                    && boundFirstPage.screenId == currentScreenId
+                    && boundFirstPage.screenIds.equals(orderedScreenIds);
+
             // Load all the items that are on the current page first (and in the process, unbind
             // all the existing workspace items before we call startBinding() below.
-            unbindWorkspaceItemsOnMainThread();
+            if (!currentPageBound) {
+                unbindWorkspaceItemsOnMainThread();
+            }
 
             // Separate the items that are on the current screen, and all the other remaining items
             ArrayList<ItemInfo> currentWorkspaceItems = new ArrayList<>();
@@ -3024,23 +3798,11 @@ public class LauncherModel extends BroadcastReceiver
             sortWorkspaceItemsSpatially(currentWorkspaceItems);
             sortWorkspaceItemsSpatially(otherWorkspaceItems);
 
-            // Tell the workspace that we're about to start binding items
-            r = new Runnable() {
-                public void run() {
-                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    if (callbacks != null) {
-                        callbacks.startBinding();
-                    }
-                }
-            };
-            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
-
-            bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
-
             Log.d(TAG_2, " after filtered out, current workspace items size are ---> " + currentWorkspaceItems.size());
-            // Load items on the current page
-            bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets,
-                    currentFolders, null);
+            if (!currentPageBound) {
+                bindCurrentPage(oldCallbacks, orderedScreenIds, currentWorkspaceItems,
+                        currentAppWidgets, currentFolders);
+            }
 
             if (isLoadingSynchronously) {
                 r = new Runnable() {
@@ -3061,6 +3823,7 @@ public class LauncherModel extends BroadcastReceiver
             }
 
             bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, otherFolders,
+                    BindScheduler.PRIORITY_OTHER_PAGES,
                     (isLoadingSynchronously ? mDeferredBindRunnables : null));
 
             // Tell the workspace that we're done binding items
@@ -3089,6 +3852,57 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
 
+        /**
+         * Starts binding the workspace, and binds the screens and the items of the current page.
+         */
+        private void bindCurrentPage(final Callbacks oldCallbacks,
+                                     ArrayList<Long> orderedScreenIds,
+                                     ArrayList<ItemInfo> currentWorkspaceItems,
+                                     ArrayList<LauncherAppWidgetInfo> currentAppWidgets,
+                                     HashMap<Long, FolderInfo> currentFolders) {
+            // Tell the workspace that we're about to start binding items
+            Runnable r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.startBinding();
+                    }
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+
+            bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
+
+            // Load items on the current page, then the hotseat
+            ArrayList<ItemInfo> pageItems = new ArrayList<ItemInfo>();
+            ArrayList<ItemInfo> hotseatItems = new ArrayList<ItemInfo>();
+            for (ItemInfo info : currentWorkspaceItems) {
+                if (info.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                    hotseatItems.add(info);
+                } else {
+                    pageItems.add(info);
+                }
+            }
+            bindWorkspaceItems(oldCallbacks, pageItems, currentAppWidgets, currentFolders,
+                    BindScheduler.PRIORITY_CURRENT_PAGE, null);
+            bindWorkspaceItems(oldCallbacks, hotseatItems,
+                    new ArrayList<LauncherAppWidgetInfo>(), new HashMap<Long, FolderInfo>(),
+                    BindScheduler.PRIORITY_HOTSEAT, null);
+
+            // Time to first page, from the start of the loader task. Not measured for the
+            // synchronous binds, which do not run the task.
+            if (DEBUG_LOADERS && mLoadStartTime > 0) {
+                final long loadStartTime = mLoadStartTime;
+                r = new Runnable() {
+                    public void run() {
+                        Log.d(TAG, "bound first page in "
+                                + (SystemClock.uptimeMillis() - loadStartTime) + "ms");
+                    }
+                };
+                runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+            }
+        }
+
         private void loadAndBindAllApps() {
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "loadAndBindAllApps mAllAppsLoaded=" + mAllAppsLoaded);
@@ -3139,8 +3953,64 @@ public class LauncherModel extends BroadcastReceiver
             if (isRunningOnMainThread) {
                 r.run();
             } else {
-                mHandler.post(r);
+                mHandler.post(r, MAIN_THREAD_NORMAL_RUNNABLE, BindScheduler.PRIORITY_ALL_APPS);
+            }
+        }
+
+        /**
+         * Creates the AppInfos of the activities, which builds their icon bitmaps. The icons are
+         * resolved on the icon loader pool as well as on the calling thread, the result keeps
+         * the order of the activities.
+         */
+        private ArrayList<AppInfo> loadAppInfos(final List<LauncherActivityInfoCompat> apps,
+                final UserHandleCompat user) {
+            final int count = apps.size();
+            final AppInfo[] result = new AppInfo[count];
+            final AtomicInteger next = new AtomicInteger();
+            Runnable worker = new Runnable() {
+                public void run() {
+                    int i;
+                    while ((i = next.getAndIncrement()) < count) {
+                        // mLabelCache is not thread safe, the labels are added below
+                        result[i] = new AppInfo(mContext, apps.get(i), user, mIconCache, null);
+                    }
+                }
+            };
+
+            int helpers = Math.min(sIconLoaderPool.getMaximumPoolSize(),
+                    count / MIN_APPS_PER_ICON_LOADER);
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>(helpers);
+            for (int i = 0; i < helpers; i++) {
+                futures.add(sIconLoaderPool.submit(worker));
+            }
+            worker.run();
+
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // The result is incomplete until every helper is done
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            ArrayList<AppInfo> appInfos = new ArrayList<AppInfo>(count);
+            for (AppInfo appInfo : result) {
+                if (!mLabelCache.containsKey(appInfo.componentName)) {
+                    mLabelCache.put(appInfo.componentName, appInfo.title);
+                }
+                appInfos.add(appInfo);
             }
+            return appInfos;
         }
 
         private void loadAllApps() {
@@ -3162,6 +4032,14 @@ public class LauncherModel extends BroadcastReceiver
             // 在我们开始加载所有的App之前，我们首先将mBgAllAppsList清空掉，因为我们不确保我们之前是否已经加载了所有的App
             // Clear the list of apps
             mBgAllAppsList.clear();
+
+            // Drop the persisted icons of packages which changed while the launcher was dead
+            final long updateDbTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            mIconCache.updateDbIcons();
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "updateDbIcons took "
+                        + (SystemClock.uptimeMillis() - updateDbTime) + "ms");
+            }
             SharedPreferences prefs = mContext.getSharedPreferences(
                     LauncherAppState.getSharedPreferencesKey(), Context.MODE_PRIVATE);
             for (UserHandleCompat user : profiles) {
@@ -3179,20 +4057,26 @@ public class LauncherModel extends BroadcastReceiver
                 if (apps == null || apps.isEmpty()) {
                     return;
                 }
+                // Create the ApplicationInfos first, so that the labels come out of the icon
+                // cache instead of being loaded from the package manager for the sort.
+                final long iconTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                ArrayList<AppInfo> appInfos = loadAppInfos(apps, user);
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "resolving icons took "
+                            + (SystemClock.uptimeMillis() - iconTime) + "ms");
+                }
+
                 // Sort the applications by name
                 final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
-                Collections.sort(apps,
-                        new LauncherModel.ShortcutNameComparator(mLabelCache));
+                Collections.sort(appInfos, getAppNameComparator());
                 if (DEBUG_LOADERS) {
                     Log.d(TAG, "sort took "
                             + (SystemClock.uptimeMillis() - sortTime) + "ms");
                 }
 
-                // Create the ApplicationInfos
-                for (LauncherActivityInfoCompat app : apps) {
-                    // This builds the icon bitmaps.
-                    Log.d(TAG_1, " we are adding the : " + app.getLabel() + " into the mBgAllAppsList ... ");
-                    mBgAllAppsList.add(new AppInfo(mContext, app, user, mIconCache, mLabelCache));
+                for (AppInfo appInfo : appInfos) {
+                    Log.d(TAG_1, " we are adding the : " + appInfo.title + " into the mBgAllAppsList ... ");
+                    mBgAllAppsList.add(appInfo);
                 }
                 Log.d(TAG, " and current sBgAllAppsList size are : " + mBgAllAppsList.size());
 
@@ -3251,7 +4135,7 @@ public class LauncherModel extends BroadcastReceiver
                         Log.i(TAG, "not binding apps: no Launcher activity");
                     }
                 }
-            });
+            }, MAIN_THREAD_NORMAL_RUNNABLE, BindScheduler.PRIORITY_ALL_APPS);
 
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "Icons processed in "
@@ -3353,7 +4237,7 @@ public class LauncherModel extends BroadcastReceiver
                     Log.d(TAG_PKG_OP, "package add operations ... ");
                     for (int i = 0; i < N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mIconCache.remove(packages[i], mUser);
+                        mIconCache.removeIconsForPkg(packages[i], mUser);
                         mBgAllAppsList.addPackage(context, packages[i], mUser);
                     }
 
@@ -3386,9 +4270,10 @@ public class LauncherModel extends BroadcastReceiver
                     Log.d(TAG_PKG_OP, " package update operations ... ");
                     for (int i = 0; i < N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
+                        mIconCache.removeIconsForPkg(packages[i], mUser);
                         mBgAllAppsList.updatePackage(context, packages[i], mUser);
-                        WidgetPreviewLoader.removePackageFromDb(
-                                mApp.getWidgetPreviewCacheDb(), packages[i]);
+                        WidgetPreviewLoader.removePackageFromCache(
+                                mApp.getWidgetPreviewPack(), packages[i]);
                     }
                     break;
                 case OP_REMOVE:
@@ -3416,8 +4301,11 @@ public class LauncherModel extends BroadcastReceiver
                     for (int i = 0; i < N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
                         mBgAllAppsList.removePackage(packages[i], mUser, clearCache);
-                        WidgetPreviewLoader.removePackageFromDb(
-                                mApp.getWidgetPreviewCacheDb(), packages[i]);
+                        if (clearCache) {
+                            mIconCache.removeIconsForPkg(packages[i], mUser);
+                        }
+                        WidgetPreviewLoader.removePackageFromCache(
+                                mApp.getWidgetPreviewPack(), packages[i]);
                     }
                     break;
             }
@@ -3487,97 +4375,97 @@ public class LauncherModel extends BroadcastReceiver
                 final ArrayList<LauncherAppWidgetInfo> widgets = new ArrayList<LauncherAppWidgetInfo>();
 
                 HashSet<String> packageSet = new HashSet<String>(Arrays.asList(packages));
-                synchronized (sBgLock) {
-                    for (ItemInfo info : sBgItemsIdMap.values()) {
-                        if (info instanceof ShortcutInfo && mUser.equals(info.user)) {
-                            ShortcutInfo si = (ShortcutInfo) info;
-                            boolean infoUpdated = false;
-                            boolean shortcutUpdated = false;
-
-                            // Update shortcuts which use iconResource.
-                            if ((si.iconResource != null)
-                                    && packageSet.contains(si.iconResource.packageName)) {
-                                Bitmap icon = Utilities.createIconBitmap(si.iconResource.packageName,
-                                        si.iconResource.resourceName, mIconCache, context);
-                                if (icon != null) {
-                                    si.setIcon(icon);
-                                    si.usingFallbackIcon = false;
-                                    infoUpdated = true;
-                                }
+                // Iterate over a snapshot, so that sBgLock is not held while the icons are
+                // rebuilt. All the writers run on the worker thread, like this task.
+                for (ItemInfo info : getBgDataSnapshot().itemsIdMap) {
+                    if (info instanceof ShortcutInfo && mUser.equals(info.user)) {
+                        ShortcutInfo si = (ShortcutInfo) info;
+                        boolean infoUpdated = false;
+                        boolean shortcutUpdated = false;
+
+                        // Update shortcuts which use iconResource.
+                        if ((si.iconResource != null)
+                                && packageSet.contains(si.iconResource.packageName)) {
+                            Bitmap icon = Utilities.createIconBitmap(si.iconResource.packageName,
+                                    si.iconResource.resourceName, mIconCache, context);
+                            if (icon != null) {
+                                si.setIcon(icon);
+                                si.usingFallbackIcon = false;
+                                infoUpdated = true;
                             }
+                        }
 
-                            ComponentName cn = si.getTargetComponent();
-                            if (cn != null && packageSet.contains(cn.getPackageName())) {
-                                AppInfo appInfo = addedOrUpdatedApps.get(cn);
-
-                                if (si.isPromise()) {
-                                    mIconCache.deletePreloadedIcon(cn, mUser);
-                                    if (si.hasStatusFlag(ShortcutInfo.FLAG_AUTOINTALL_ICON)) {
-                                        // Auto install icon
-                                        PackageManager pm = context.getPackageManager();
-                                        ResolveInfo matched = pm.resolveActivity(
-                                                new Intent(Intent.ACTION_MAIN)
-                                                        .setComponent(cn).addCategory(Intent.CATEGORY_LAUNCHER),
-                                                PackageManager.MATCH_DEFAULT_ONLY);
-                                        if (matched == null) {
-                                            // Try to find the best match activity.
-                                            Intent intent = pm.getLaunchIntentForPackage(
-                                                    cn.getPackageName());
-                                            if (intent != null) {
-                                                cn = intent.getComponent();
-                                                appInfo = addedOrUpdatedApps.get(cn);
-                                            }
+                        ComponentName cn = si.getTargetComponent();
+                        if (cn != null && packageSet.contains(cn.getPackageName())) {
+                            AppInfo appInfo = addedOrUpdatedApps.get(cn);
+
+                            if (si.isPromise()) {
+                                mIconCache.deletePreloadedIcon(cn, mUser);
+                                if (si.hasStatusFlag(ShortcutInfo.FLAG_AUTOINTALL_ICON)) {
+                                    // Auto install icon
+                                    PackageManager pm = context.getPackageManager();
+                                    ResolveInfo matched = pm.resolveActivity(
+                                            new Intent(Intent.ACTION_MAIN)
+                                                    .setComponent(cn).addCategory(Intent.CATEGORY_LAUNCHER),
+                                            PackageManager.MATCH_DEFAULT_ONLY);
+                                    if (matched == null) {
+                                        // Try to find the best match activity.
+                                        Intent intent = pm.getLaunchIntentForPackage(
+                                                cn.getPackageName());
+                                        if (intent != null) {
+                                            cn = intent.getComponent();
+                                            appInfo = addedOrUpdatedApps.get(cn);
+                                        }
 
-                                            if ((intent == null) || (appInfo == null)) {
-                                                removedShortcuts.add(si);
-                                                continue;
-                                            }
-                                            si.promisedIntent = intent;
+                                        if ((intent == null) || (appInfo == null)) {
+                                            removedShortcuts.add(si);
+                                            continue;
                                         }
+                                        si.promisedIntent = intent;
                                     }
-
-                                    // Restore the shortcut.
-                                    si.intent = si.promisedIntent;
-                                    si.promisedIntent = null;
-                                    si.status &= ~ShortcutInfo.FLAG_RESTORED_ICON
-                                            & ~ShortcutInfo.FLAG_AUTOINTALL_ICON
-                                            & ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
-
-                                    infoUpdated = true;
-                                    si.updateIcon(mIconCache);
                                 }
 
-                                if (appInfo != null && Intent.ACTION_MAIN.equals(si.intent.getAction())
-                                        && si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-                                    si.updateIcon(mIconCache);
-                                    si.title = appInfo.title.toString();
-                                    si.contentDescription = appInfo.contentDescription;
-                                    infoUpdated = true;
-                                }
+                                // Restore the shortcut.
+                                si.intent = si.promisedIntent;
+                                si.promisedIntent = null;
+                                si.status &= ~ShortcutInfo.FLAG_RESTORED_ICON
+                                        & ~ShortcutInfo.FLAG_AUTOINTALL_ICON
+                                        & ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
 
-                                if ((si.isDisabled & ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE) != 0) {
-                                    // Since package was just updated, the target must be available now.
-                                    si.isDisabled &= ~ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
-                                    shortcutUpdated = true;
-                                }
+                                infoUpdated = true;
+                                si.updateIcon(mIconCache);
                             }
 
-                            if (infoUpdated || shortcutUpdated) {
-                                updatedShortcuts.add(si);
-                            }
-                            if (infoUpdated) {
-                                updateItemInDatabase(context, si);
+                            if (appInfo != null && Intent.ACTION_MAIN.equals(si.intent.getAction())
+                                    && si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                                si.updateIcon(mIconCache);
+                                si.title = appInfo.title.toString();
+                                si.contentDescription = appInfo.contentDescription;
+                                infoUpdated = true;
                             }
-                        } else if (info instanceof LauncherAppWidgetInfo) {
-                            LauncherAppWidgetInfo widgetInfo = (LauncherAppWidgetInfo) info;
-                            if (mUser.equals(widgetInfo.user)
-                                    && widgetInfo.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)
-                                    && packageSet.contains(widgetInfo.providerName.getPackageName())) {
-                                widgetInfo.restoreStatus &= ~LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY;
-                                widgets.add(widgetInfo);
-                                updateItemInDatabase(context, widgetInfo);
+
+                            if ((si.isDisabled & ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE) != 0) {
+                                // Since package was just updated, the target must be available now.
+                                si.isDisabled &= ~ShortcutInfo.FLAG_DISABLED_NOT_AVAILABLE;
+                                shortcutUpdated = true;
                             }
                         }
+
+                        if (infoUpdated || shortcutUpdated) {
+                            updatedShortcuts.add(si);
+                        }
+                        if (infoUpdated) {
+                            updateItemInDatabase(context, si);
+                        }
+                    } else if (info instanceof LauncherAppWidgetInfo) {
+                        LauncherAppWidgetInfo widgetInfo = (LauncherAppWidgetInfo) info;
+                        if (mUser.equals(widgetInfo.user)
+                                && widgetInfo.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)
+                                && packageSet.contains(widgetInfo.providerName.getPackageName())) {
+                            widgetInfo.restoreStatus &= ~LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY;
+                            widgets.add(widgetInfo);
+                            updateItemInDatabase(context, widgetInfo);
+                        }
                     }
                 }
 
@@ -3853,7 +4741,7 @@ public class LauncherModel extends BroadcastReceiver
         return info;
     }
 
-    static ArrayList<ItemInfo> filterItemInfos(Collection<ItemInfo> infos,
+    static ArrayList<ItemInfo> filterItemInfos(Iterable<ItemInfo> infos,
                                                ItemInfoFilter f) {
         HashSet<ItemInfo> filtered = new HashSet<ItemInfo>();
         for (ItemInfo i : infos) {
@@ -3894,7 +4782,7 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
-        return filterItemInfos(sBgItemsIdMap.values(), filter);
+        return filterItemInfos(sBgItemsIdMap, filter);
     }
 
     /**
@@ -3920,6 +4808,12 @@ public class LauncherModel extends BroadcastReceiver
                 String packageName = c.getString(iconPackageIndex);
                 String resourceName = c.getString(iconResourceIndex);
                 info.customIcon = false;
+                if (!TextUtils.isEmpty(packageName) && !TextUtils.isEmpty(resourceName)) {
+                    // Kept so that the icon is resolved again when the package is updated
+                    info.iconResource = new ShortcutIconResource();
+                    info.iconResource.packageName = packageName;
+                    info.iconResource.resourceName = resourceName;
+                }
                 // the resource
                 icon = Utilities.createIconBitmap(packageName, resourceName, mIconCache, context);
                 // the db
@@ -4092,6 +4986,17 @@ public class LauncherModel extends BroadcastReceiver
         return folderInfo;
     }
 
+    private static FolderInfo findOrMakeFolder(LongHashMap<FolderInfo> folders, long id) {
+        // See if a placeholder was created for us already
+        FolderInfo folderInfo = folders.get(id);
+        if (folderInfo == null) {
+            // No placeholder -- create a new instance
+            folderInfo = new FolderInfo();
+            folders.put(id, folderInfo);
+        }
+        return folderInfo;
+    }
+
     // 用于定义排列当前AppsCustomizePagedView这个View当中所有的AppInfo的
     // 顺序排列比较规则。在这里我们实现的是按照App的名字来进行排列，但是
     // 我们还可以添加更多的排序规则，例如按照应用安装的事件，
@@ -56,6 +56,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 public class LauncherProvider extends ContentProvider {
 
@@ -82,6 +83,11 @@ public class LauncherProvider extends ContentProvider {
 
     private LauncherProviderChangeListener mListener;
 
+    // The uris changed by the batch being applied on the calling thread. They are notified once,
+    // after the batch is committed.
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchNotifications =
+            new ThreadLocal<LinkedHashSet<Uri>>();
+
     /**
      * {@link Uri} triggered at any registered {@link android.database.ContentObserver} when
      * {@link AppWidgetHost#deleteHost()} is called during database creation.
@@ -197,14 +203,25 @@ public class LauncherProvider extends ContentProvider {
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        LinkedHashSet<Uri> notifications = new LinkedHashSet<Uri>();
+        mBatchNotifications.set(notifications);
+        ContentProviderResult[] result;
         db.beginTransaction();
         try {
-            ContentProviderResult[] result = super.applyBatch(operations);
+            result = super.applyBatch(operations);
             db.setTransactionSuccessful();
-            return result;
         } finally {
             db.endTransaction();
+            mBatchNotifications.remove();
+        }
+
+        for (Uri uri : notifications) {
+            notifyChange(uri);
         }
+        if (!notifications.isEmpty() && mListener != null) {
+            mListener.onLauncherProviderChange();
+        }
+        return result;
     }
 
     @Override
@@ -231,20 +248,54 @@ public class LauncherProvider extends ContentProvider {
     }
 
     private void sendNotify(Uri uri) {
-        String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
-        if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        LinkedHashSet<Uri> batch = mBatchNotifications.get();
+        if (batch != null) {
+            batch.add(uri);
+            return;
         }
+        notifyChange(uri);
 
         if (mListener != null) {
             mListener.onLauncherProviderChange();
         }
     }
 
+    private void notifyChange(Uri uri) {
+        String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
+        if (notify == null || "true".equals(notify)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     private void addModifiedTime(ContentValues values) {
         values.put(LauncherSettings.ChangeLogColumns.MODIFIED, System.currentTimeMillis());
     }
 
+    /**
+     * Returns values which change whenever a row of the favorites or the workspace screens
+     * table is inserted, updated or deleted through this provider: the schema version, and the
+     * row count and the sum of the modified times of each table.
+     */
+    public long[] getContentStamp() {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String[] tables = {TABLE_FAVORITES, TABLE_WORKSPACE_SCREENS};
+        long[] stamp = new long[1 + tables.length * 2];
+        stamp[0] = DATABASE_VERSION;
+        for (int i = 0; i < tables.length; i++) {
+            Cursor c = db.rawQuery("SELECT COUNT(*), SUM("
+                    + LauncherSettings.ChangeLogColumns.MODIFIED + ") FROM " + tables[i], null);
+            try {
+                if (c.moveToFirst()) {
+                    stamp[1 + i * 2] = c.getLong(0);
+                    stamp[2 + i * 2] = c.getLong(1);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return stamp;
+    }
+
     public long generateNewItemId() {
         return mOpenHelper.generateNewItemId();
     }
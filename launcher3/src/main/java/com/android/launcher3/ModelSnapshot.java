@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact binary copy of the loaded workspace model: the screens, and the position, title and
+ * icon reference of every item. It is written once the workspace is loaded and bound, and lets
+ * the next process bind the workspace without reading every row, and its icon blob, from the
+ * launcher database.
+ *
+ * <p>The snapshot records the {@link LauncherProvider#getContentStamp() content stamp} of the
+ * database it was taken from, and must be ignored when it does not match the current one.
+ */
+class ModelSnapshot {
+    private static final String TAG = "ModelSnapshot";
+
+    private static final int MAGIC = 0x4c4d534e; // "LMSN"
+    private static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A workspace item. Which fields are set depends on the item type.
+     */
+    static class Item {
+        int itemType;
+        long id;
+        long container;
+        long screenId;
+        int cellX;
+        int cellY;
+        int spanX;
+        int spanY;
+
+        // Shortcuts and folders
+        String title;
+
+        // Shortcuts
+        String intent;
+        long profileId;
+        int iconType;
+        // Flattened icon of the shortcuts which are not applications, null for the fallback icon
+        byte[] icon;
+        // Resource of the icon of ICON_TYPE_RESOURCE shortcuts, the flattened icon being used if
+        // it can not be loaded
+        String iconPackage;
+        String iconResource;
+
+        // Widgets
+        int appWidgetId;
+        String provider;
+    }
+
+    // The stamp of the database the snapshot was taken from
+    long[] contentStamp;
+    // The grid the positions are relative to
+    int countX;
+    int countY;
+    int hotseatCount;
+
+    final ArrayList<Long> screens = new ArrayList<Long>();
+    final ArrayList<Item> items = new ArrayList<Item>();
+
+    static File getFile(Context context) {
+        return new File(context.getCacheDir(), LauncherFiles.MODEL_SNAPSHOT);
+    }
+
+    static void delete(Context context) {
+        getFile(context).delete();
+    }
+
+    /**
+     * Returns the snapshot in the file, or null if there is none or it can not be read.
+     */
+    static ModelSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            ModelSnapshot snapshot = new ModelSnapshot();
+            snapshot.contentStamp = new long[buffer.getInt()];
+            for (int i = 0; i < snapshot.contentStamp.length; i++) {
+                snapshot.contentStamp[i] = buffer.getLong();
+            }
+            snapshot.countX = buffer.getInt();
+            snapshot.countY = buffer.getInt();
+            snapshot.hotseatCount = buffer.getInt();
+
+            int screenCount = buffer.getInt();
+            for (int i = 0; i < screenCount; i++) {
+                snapshot.screens.add(buffer.getLong());
+            }
+
+            int itemCount = buffer.getInt();
+            snapshot.items.ensureCapacity(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                Item item = new Item();
+                item.itemType = buffer.getInt();
+                item.id = buffer.getLong();
+                item.container = buffer.getLong();
+                item.screenId = buffer.getLong();
+                item.cellX = buffer.getInt();
+                item.cellY = buffer.getInt();
+                item.spanX = buffer.getInt();
+                item.spanY = buffer.getInt();
+                switch (item.itemType) {
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                    case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                        item.title = getString(buffer);
+                        item.intent = getString(buffer);
+                        item.profileId = buffer.getLong();
+                        item.iconType = buffer.getInt();
+                        item.icon = getBytes(buffer);
+                        item.iconPackage = getString(buffer);
+                        item.iconResource = getString(buffer);
+                        break;
+                    case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                        item.title = getString(buffer);
+                        break;
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                        item.appWidgetId = buffer.getInt();
+                        item.provider = getString(buffer);
+                        break;
+                    default:
+                        return null;
+                }
+                snapshot.items.add(item);
+            }
+            return snapshot;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the model snapshot", e);
+            return null;
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated model snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot to the file. The file is replaced atomically, so that a process killed
+     * while writing it leaves the previous snapshot.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(contentStamp.length);
+            for (long value : contentStamp) {
+                out.writeLong(value);
+            }
+            out.writeInt(countX);
+            out.writeInt(countY);
+            out.writeInt(hotseatCount);
+
+            out.writeInt(screens.size());
+            for (long screenId : screens) {
+                out.writeLong(screenId);
+            }
+
+            out.writeInt(items.size());
+            for (Item item : items) {
+                out.writeInt(item.itemType);
+                out.writeLong(item.id);
+                out.writeLong(item.container);
+                out.writeLong(item.screenId);
+                out.writeInt(item.cellX);
+                out.writeInt(item.cellY);
+                out.writeInt(item.spanX);
+                out.writeInt(item.spanY);
+                switch (item.itemType) {
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                    case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                        writeString(out, item.title);
+                        writeString(out, item.intent);
+                        out.writeLong(item.profileId);
+                        out.writeInt(item.iconType);
+                        writeBytes(out, item.icon);
+                        writeString(out, item.iconPackage);
+                        writeString(out, item.iconResource);
+                        break;
+                    case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                        writeString(out, item.title);
+                        break;
+                    case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                        out.writeInt(item.appWidgetId);
+                        writeString(out, item.provider);
+                        break;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp);
+        }
+    }
+
+    boolean matches(long[] stamp, int countX, int countY, int hotseatCount) {
+        return Arrays.equals(contentStamp, stamp) && this.countX == countX
+                && this.countY == countY && this.hotseatCount == hotseatCount;
+    }
+
+    private static String getString(MappedByteBuffer buffer) {
+        byte[] bytes = getBytes(buffer);
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    private static byte[] getBytes(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        } else if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+}
@@ -17,6 +17,6 @@ public class PackageChangedReceiver extends BroadcastReceiver {
         // in rare cases the receiver races with the application to set up LauncherAppState
         LauncherAppState.setApplicationContext(context.getApplicationContext());
         LauncherAppState app = LauncherAppState.getInstance();
-        WidgetPreviewLoader.removePackageFromDb(app.getWidgetPreviewCacheDb(), packageName);
+        WidgetPreviewLoader.removePackageFromCache(app.getWidgetPreviewPack(), packageName);
     }
 }
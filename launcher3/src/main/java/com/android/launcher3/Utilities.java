@@ -56,17 +56,32 @@ import java.util.ArrayList;
 public final class Utilities {
     private static final String TAG = "Launcher3_Utilities";
 
-    private static int sIconWidth = -1;
-    private static int sIconHeight = -1;
+    // Icons are rendered from several threads, the size is read without a lock
+    private static volatile int sIconWidth = -1;
+    private static volatile int sIconHeight = -1;
 
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
+    /**
+     * Scratch state of the thread rendering an icon, so that icons can be rendered concurrently
+     * by the loader, the icon cache and the receivers.
+     */
+    private static class IconRenderer {
+        final Rect oldBounds = new Rect();
+        final Canvas canvas = new Canvas();
 
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        IconRenderer() {
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+        }
     }
 
+    private static final ThreadLocal<IconRenderer> sIconRenderer =
+            new ThreadLocal<IconRenderer>() {
+                @Override
+                protected IconRenderer initialValue() {
+                    return new IconRenderer();
+                }
+            };
+
     static int sColors[] = {0xffff0000, 0xff00ff00, 0xff0000ff};
     static int sColorIndex = 0;
 
@@ -139,13 +154,11 @@ public final class Utilities {
      * Returns a bitmap which is of the appropriate size to be displayed as an icon
      */
     static Bitmap createIconBitmap(Bitmap icon, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                // 每当我们创建新的Bitmap时，我们都是直接将这个Bitmap的大小固定为
-                // 48 X 48
-                // 当然了这个值会随着设备的不同而自动进行调节，这个值本身是定义在R.dimen当中的
-                initStatics(context);
-            }
+        if (sIconWidth == -1) {
+            // 每当我们创建新的Bitmap时，我们都是直接将这个Bitmap的大小固定为
+            // 48 X 48
+            // 当然了这个值会随着设备的不同而自动进行调节，这个值本身是定义在R.dimen当中的
+            initStatics(context);
         }
         if (sIconWidth == icon.getWidth() && sIconHeight == icon.getHeight()) {
             return icon;
@@ -155,73 +168,75 @@ public final class Utilities {
 
     /**
      * Returns a bitmap suitable for the all apps view.
+     *
+     * <p>Can be called from any thread. The drawable is not copied, so a drawable must not be
+     * rendered by two threads at the same time.
      */
     public static Bitmap createIconBitmap(Drawable icon, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                // 初始化sIconWidth和sIconHeight的值
-                initStatics(context);
-            }
-
-            int width = sIconWidth;
-            int height = sIconHeight;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    // Set the density scale at which this drawable will be rendered.
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
+        if (sIconWidth == -1) {
+            // 初始化sIconWidth和sIconHeight的值
+            initStatics(context);
+        }
+        final IconRenderer renderer = sIconRenderer.get();
+        // no intrinsic size --> use default size
+        final int textureWidth = sIconWidth;
+        final int textureHeight = sIconHeight;
+
+        int width = textureWidth;
+        int height = textureHeight;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                // Set the density scale at which this drawable will be rendered.
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // Scale the icon proportionally to the icon dimensions
-                final float ratio = (float) sourceWidth / sourceHeight;
-                if (sourceWidth > sourceHeight) {
-                    height = (int) (width / ratio);
-                } else if (sourceHeight > sourceWidth) {
-                    width = (int) (height * ratio);
-                }
+        }
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // Scale the icon proportionally to the icon dimensions
+            final float ratio = (float) sourceWidth / sourceHeight;
+            if (sourceWidth > sourceHeight) {
+                height = (int) (width / ratio);
+            } else if (sourceHeight > sourceWidth) {
+                width = (int) (height * ratio);
             }
+        }
 
-            // no intrinsic size --> use default size
-            int textureWidth = sIconWidth;
-            int textureHeight = sIconHeight;
-
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (textureWidth - width) / 2;
-            final int top = (textureHeight - height) / 2;
-
-            @SuppressWarnings("all") // suppress dead code warning
-            final boolean debug = false;
-            if (debug) {
-                // draw a big box for the icon for debugging
-                canvas.drawColor(sColors[sColorIndex]);
-                if (++sColorIndex >= sColors.length) sColorIndex = 0;
-                Paint debugPaint = new Paint();
-                debugPaint.setColor(0xffcccc00);
-                canvas.drawRect(left, top, left + width, top + height, debugPaint);
-            }
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderer.canvas;
+        canvas.setBitmap(bitmap);
+
+        final int left = (textureWidth - width) / 2;
+        final int top = (textureHeight - height) / 2;
+
+        @SuppressWarnings("all") // suppress dead code warning
+        final boolean debug = false;
+        if (debug) {
+            // draw a big box for the icon for debugging
+            canvas.drawColor(sColors[sColorIndex]);
+            if (++sColorIndex >= sColors.length) sColorIndex = 0;
+            Paint debugPaint = new Paint();
+            debugPaint.setColor(0xffcccc00);
+            canvas.drawRect(left, top, left + width, top + height, debugPaint);
+        }
 
-            sOldBounds.set(icon.getBounds());
-            icon.setBounds(left, top, left + width, top + height);
-            icon.draw(canvas);
-            icon.setBounds(sOldBounds);
-            canvas.setBitmap(null);
+        final Rect oldBounds = renderer.oldBounds;
+        oldBounds.set(icon.getBounds());
+        icon.setBounds(left, top, left + width, top + height);
+        icon.draw(canvas);
+        icon.setBounds(oldBounds);
+        canvas.setBitmap(null);
 
-            return bitmap;
-        }
+        return bitmap;
     }
 
     /**
@@ -331,13 +346,18 @@ public final class Utilities {
                 localY < (v.getHeight() + slop);
     }
 
-    private static void initStatics(Context context) {
-        final Resources resources = context.getResources();
-        sIconWidth = sIconHeight = (int) resources.getDimension(R.dimen.app_icon_size);
+    private static synchronized void initStatics(Context context) {
+        if (sIconWidth == -1) {
+            final Resources resources = context.getResources();
+            final int size = (int) resources.getDimension(R.dimen.app_icon_size);
+            sIconHeight = size;
+            sIconWidth = size;
+        }
     }
 
-    public static void setIconSize(int widthPx) {
-        sIconWidth = sIconHeight = widthPx;
+    public static synchronized void setIconSize(int widthPx) {
+        sIconHeight = widthPx;
+        sIconWidth = widthPx;
     }
 
     public static void scaleRect(Rect r, float scale) {
@@ -36,6 +36,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Display;
@@ -49,11 +50,16 @@ import com.android.photos.BitmapRegionTileSource;
 import com.android.photos.BitmapRegionTileSource.BitmapSource;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 public class WallpaperCropActivity extends Activity {
     private static final String LOGTAG = "Launcher3.CropActivity";
@@ -70,6 +76,11 @@ public class WallpaperCropActivity extends Activity {
      */
     public static final int MAX_BMAP_IN_INTENT = 750000;
     private static final float WALLPAPER_SCREENS_SPAN = 2f;
+    // Number of output pixels drawn from each decoded strip of the image when cropping
+    private static final int CROP_BAND_PIXELS = 512 * 1024;
+    // Region decoders can decode into a bitmap larger than the region starting with KitKat
+    private static final boolean CAN_REUSE_STRIPS =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
 
     protected static Point sDefaultWallpaperSize;
 
@@ -603,6 +614,7 @@ public class WallpaperCropActivity extends Activity {
             } else {
                 // Find crop bounds (scaled to original image size)
                 Rect roundedTrueCrop = new Rect();
+                Rect cropArea = new Rect();
                 Matrix rotateMatrix = new Matrix();
                 Matrix inverseRotateMatrix = new Matrix();
 
@@ -639,9 +651,50 @@ public class WallpaperCropActivity extends Activity {
                     return false;
                 }
 
+                // Keep the decoded area inside the image, the region decoder rejects the rest
+                cropArea.set(roundedTrueCrop);
+                if (bounds != null && !cropArea.intersect(0, 0, bounds.x, bounds.y)) {
+                    Log.w(LOGTAG, "crop is outside of the image");
+                    failure = true;
+                    return false;
+                }
+
                 // See how much we're reducing the size of the image
-                int scaleDownSampleSize = Math.max(1, Math.min(roundedTrueCrop.width() / mOutWidth,
-                        roundedTrueCrop.height() / mOutHeight));
+                int scaleDownSampleSize = 1;
+                if (mOutWidth > 0 && mOutHeight > 0) {
+                    scaleDownSampleSize = Math.max(1, Math.min(roundedTrueCrop.width() / mOutWidth,
+                            roundedTrueCrop.height() / mOutHeight));
+                }
+
+                float[] dimsAfter = new float[] {
+                        roundedTrueCrop.width(), roundedTrueCrop.height() };
+                rotateMatrix.mapPoints(dimsAfter);
+                dimsAfter[0] = Math.abs(dimsAfter[0]);
+                dimsAfter[1] = Math.abs(dimsAfter[1]);
+                if (!(mOutWidth > 0 && mOutHeight > 0)) {
+                    mOutWidth = Math.round(dimsAfter[0]);
+                    mOutHeight = Math.round(dimsAfter[1]);
+                }
+
+                // Maps the coordinates of the original image to the output bitmap: rotates the
+                // crop about its center, then scales it to the output size
+                Matrix cropToOut = new Matrix();
+                cropToOut.setTranslate(-roundedTrueCrop.exactCenterX(),
+                        -roundedTrueCrop.exactCenterY());
+                cropToOut.postRotate(mRotation);
+                cropToOut.postTranslate(dimsAfter[0] / 2f, dimsAfter[1] / 2f);
+                Matrix fit = new Matrix();
+                fit.setRectToRect(new RectF(0, 0, dimsAfter[0], dimsAfter[1]),
+                        new RectF(0, 0, mOutWidth, mOutHeight), Matrix.ScaleToFit.FILL);
+                cropToOut.postConcat(fit);
+
+                // The output bitmap is the only one of its size, the image is drawn into it one
+                // band at a time so that a large photo is never decoded or rotated as a whole
+                Bitmap crop = Bitmap.createBitmap(mOutWidth, mOutHeight, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(crop);
+                Paint paint = new Paint();
+                paint.setFilterBitmap(true);
+
                 // Attempt to open a region decoder
                 BitmapRegionDecoder decoder = null;
                 InputStream is = null;
@@ -661,150 +714,233 @@ public class WallpaperCropActivity extends Activity {
                    is = null;
                 }
 
-                Bitmap crop = null;
+                boolean drawn = false;
                 if (decoder != null) {
-                    // Do region decoding to get crop bitmap
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    if (scaleDownSampleSize > 1) {
-                        options.inSampleSize = scaleDownSampleSize;
-                    }
-                    crop = decoder.decodeRegion(roundedTrueCrop, options);
+                    drawn = drawCropBands(decoder, cropArea, scaleDownSampleSize, cropToOut,
+                            canvas, paint);
                     decoder.recycle();
                 }
-
-                if (crop == null) {
+                if (!drawn) {
                     // BitmapRegionDecoder has failed, try to crop in-memory
-                    is = regenerateInputStream();
-                    Bitmap fullSize = null;
-                    if (is != null) {
-                        BitmapFactory.Options options = new BitmapFactory.Options();
-                        if (scaleDownSampleSize > 1) {
-                            options.inSampleSize = scaleDownSampleSize;
-                        }
-                        fullSize = BitmapFactory.decodeStream(is, null, options);
-                        Utils.closeSilently(is);
-                    }
-                    if (fullSize != null) {
-                        // Find out the true sample size that was used by the decoder
-                        scaleDownSampleSize = bounds.x / fullSize.getWidth();
-                        mCropBounds.left /= scaleDownSampleSize;
-                        mCropBounds.top /= scaleDownSampleSize;
-                        mCropBounds.bottom /= scaleDownSampleSize;
-                        mCropBounds.right /= scaleDownSampleSize;
-                        mCropBounds.roundOut(roundedTrueCrop);
-
-                        // Adjust values to account for issues related to rounding
-                        if (roundedTrueCrop.width() > fullSize.getWidth()) {
-                            // Adjust the width
-                            roundedTrueCrop.right = roundedTrueCrop.left + fullSize.getWidth();
-                        }
-                        if (roundedTrueCrop.right > fullSize.getWidth()) {
-                            // Adjust the left value
-                            int adjustment = roundedTrueCrop.left -
-                                    Math.max(0, roundedTrueCrop.right - roundedTrueCrop.width());
-                            roundedTrueCrop.left -= adjustment;
-                            roundedTrueCrop.right -= adjustment;
-                        }
-                        if (roundedTrueCrop.height() > fullSize.getHeight()) {
-                            // Adjust the height
-                            roundedTrueCrop.bottom = roundedTrueCrop.top + fullSize.getHeight();
-                        }
-                        if (roundedTrueCrop.bottom > fullSize.getHeight()) {
-                            // Adjust the top value
-                            int adjustment = roundedTrueCrop.top -
-                                    Math.max(0, roundedTrueCrop.bottom - roundedTrueCrop.height());
-                            roundedTrueCrop.top -= adjustment;
-                            roundedTrueCrop.bottom -= adjustment;
-                        }
-
-                        crop = Bitmap.createBitmap(fullSize, roundedTrueCrop.left,
-                                roundedTrueCrop.top, roundedTrueCrop.width(),
-                                roundedTrueCrop.height());
-                    }
+                    drawn = drawFullImage(bounds, scaleDownSampleSize, cropToOut, canvas, paint);
                 }
 
-                if (crop == null) {
+                if (!drawn) {
                     Log.w(LOGTAG, "cannot decode file: " + mInUri.toString());
+                    crop.recycle();
                     failure = true;
                     return false;
                 }
-                if (mOutWidth > 0 && mOutHeight > 0 || mRotation > 0) {
-                    float[] dimsAfter = new float[] { crop.getWidth(), crop.getHeight() };
-                    rotateMatrix.mapPoints(dimsAfter);
-                    dimsAfter[0] = Math.abs(dimsAfter[0]);
-                    dimsAfter[1] = Math.abs(dimsAfter[1]);
-
-                    if (!(mOutWidth > 0 && mOutHeight > 0)) {
-                        mOutWidth = Math.round(dimsAfter[0]);
-                        mOutHeight = Math.round(dimsAfter[1]);
-                    }
-
-                    RectF cropRect = new RectF(0, 0, dimsAfter[0], dimsAfter[1]);
-                    RectF returnRect = new RectF(0, 0, mOutWidth, mOutHeight);
-
-                    Matrix m = new Matrix();
-                    if (mRotation == 0) {
-                        m.setRectToRect(cropRect, returnRect, Matrix.ScaleToFit.FILL);
-                    } else {
-                        Matrix m1 = new Matrix();
-                        m1.setTranslate(-crop.getWidth() / 2f, -crop.getHeight() / 2f);
-                        Matrix m2 = new Matrix();
-                        m2.setRotate(mRotation);
-                        Matrix m3 = new Matrix();
-                        m3.setTranslate(dimsAfter[0] / 2f, dimsAfter[1] / 2f);
-                        Matrix m4 = new Matrix();
-                        m4.setRectToRect(cropRect, returnRect, Matrix.ScaleToFit.FILL);
-
-                        Matrix c1 = new Matrix();
-                        c1.setConcat(m2, m1);
-                        Matrix c2 = new Matrix();
-                        c2.setConcat(m4, m3);
-                        m.setConcat(c2, c1);
-                    }
-
-                    Bitmap tmp = Bitmap.createBitmap((int) returnRect.width(),
-                            (int) returnRect.height(), Bitmap.Config.ARGB_8888);
-                    if (tmp != null) {
-                        Canvas c = new Canvas(tmp);
-                        Paint p = new Paint();
-                        p.setFilterBitmap(true);
-                        c.drawBitmap(crop, m, p);
-                        crop = tmp;
-                    }
-                }
 
                 if (mSaveCroppedBitmap) {
                     mCroppedBitmap = crop;
                 }
 
-                // Get output compression format
-                CompressFormat cf =
-                        convertExtensionToCompressFormat(getFileExtension(mOutputFormat));
-
-                // Compress to byte array
-                ByteArrayOutputStream tmpOut = new ByteArrayOutputStream(2048);
-                if (crop.compress(cf, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-                    // If we need to set to the wallpaper, set it
-                    if (mSetWallpaper && wallpaperManager != null) {
-                        try {
-                            byte[] outByteArray = tmpOut.toByteArray();
-                            wallpaperManager.setStream(new ByteArrayInputStream(outByteArray));
-                            if (mOnBitmapCroppedHandler != null) {
+                // If we need to set to the wallpaper, set it
+                if (mSetWallpaper && wallpaperManager != null) {
+                    // Get output compression format
+                    CompressFormat cf =
+                            convertExtensionToCompressFormat(getFileExtension(mOutputFormat));
+                    if (mOnBitmapCroppedHandler != null) {
+                        // The handler keeps the bytes, compress to a byte array
+                        ByteArrayOutputStream tmpOut = new ByteArrayOutputStream(2048);
+                        if (crop.compress(cf, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
+                            try {
+                                byte[] outByteArray = tmpOut.toByteArray();
+                                wallpaperManager.setStream(new ByteArrayInputStream(outByteArray));
                                 mOnBitmapCroppedHandler.onBitmapCropped(outByteArray);
+                            } catch (IOException e) {
+                                Log.w(LOGTAG, "cannot write stream to wallpaper", e);
+                                failure = true;
                             }
-                        } catch (IOException e) {
-                            Log.w(LOGTAG, "cannot write stream to wallpaper", e);
+                        } else {
+                            Log.w(LOGTAG, "cannot compress bitmap");
                             failure = true;
                         }
+                    } else {
+                        failure = !setWallpaperThroughFile(wallpaperManager, crop, cf);
                     }
-                } else {
-                    Log.w(LOGTAG, "cannot compress bitmap");
-                    failure = true;
+                }
+
+                if (!mSaveCroppedBitmap) {
+                    crop.recycle();
                 }
             }
             return !failure; // True if any of the operations failed
         }
 
+        /**
+         * Draws the crop into the canvas one band of output rows at a time, decoding for each band
+         * only the strip of the image that it covers. Returns false if a strip cannot be decoded.
+         */
+        private boolean drawCropBands(BitmapRegionDecoder decoder, Rect cropArea, int sampleSize,
+                Matrix cropToOut, Canvas canvas, Paint paint) {
+            Matrix outToCrop = new Matrix();
+            if (!cropToOut.invert(outToCrop)) {
+                return false;
+            }
+            int outWidth = canvas.getWidth();
+            int outHeight = canvas.getHeight();
+            int bandHeight = Math.max(1, CROP_BAND_PIXELS / outWidth);
+            // Decode a few more pixels around each strip, for the filtering at its edges
+            int padding = 2 * sampleSize;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            Rect region = new Rect();
+            Bitmap strip = null;
+            if (CAN_REUSE_STRIPS) {
+                // The strips are decoded into the top left of one bitmap, large enough for all
+                int maxWidth = 0;
+                int maxHeight = 0;
+                for (int top = 0; top < outHeight; top += bandHeight) {
+                    if (getBandRegion(outToCrop, outWidth, top,
+                            Math.min(outHeight, top + bandHeight), padding, cropArea, region)) {
+                        maxWidth = Math.max(maxWidth, region.width());
+                        maxHeight = Math.max(maxHeight, region.height());
+                    }
+                }
+                if (maxWidth > 0 && maxHeight > 0) {
+                    strip = Bitmap.createBitmap(getDecodedSize(maxWidth, sampleSize),
+                            getDecodedSize(maxHeight, sampleSize), Bitmap.Config.ARGB_8888);
+                }
+            }
+
+            Rect decodedRect = new Rect();
+            RectF stripRect = new RectF();
+            RectF regionF = new RectF();
+            Matrix stripToOut = new Matrix();
+            try {
+                for (int top = 0; top < outHeight; top += bandHeight) {
+                    int bottom = Math.min(outHeight, top + bandHeight);
+                    if (!getBandRegion(outToCrop, outWidth, top, bottom, padding, cropArea,
+                            region)) {
+                        continue;
+                    }
+
+                    options.inBitmap = strip;
+                    options.outWidth = 0;
+                    options.outHeight = 0;
+                    Bitmap decoded = decoder.decodeRegion(region, options);
+                    if (decoded == null) {
+                        return false;
+                    }
+
+                    // Only the top left of a reused strip holds the region, draw that part onto
+                    // it. The decoder reports the size it decoded, or it is rounded up here
+                    int decodedWidth = options.outWidth > 0 ? options.outWidth
+                            : getDecodedSize(region.width(), sampleSize);
+                    int decodedHeight = options.outHeight > 0 ? options.outHeight
+                            : getDecodedSize(region.height(), sampleSize);
+                    decodedRect.set(0, 0, Math.min(decodedWidth, decoded.getWidth()),
+                            Math.min(decodedHeight, decoded.getHeight()));
+                    stripRect.set(decodedRect);
+                    regionF.set(region);
+                    stripToOut.setRectToRect(stripRect, regionF, Matrix.ScaleToFit.FILL);
+                    stripToOut.postConcat(cropToOut);
+
+                    canvas.save();
+                    canvas.clipRect(0, top, outWidth, bottom);
+                    canvas.concat(stripToOut);
+                    canvas.drawBitmap(decoded, decodedRect, stripRect, paint);
+                    canvas.restore();
+                    if (decoded != strip) {
+                        decoded.recycle();
+                    }
+                }
+                return true;
+            } finally {
+                options.inBitmap = null;
+                if (strip != null) {
+                    strip.recycle();
+                }
+            }
+        }
+
+        /**
+         * Sets the region of the image covered by the given band of output rows, with padding and
+         * inside the crop area. Returns false if the band covers none of the image.
+         */
+        private static boolean getBandRegion(Matrix outToCrop, int outWidth, int top, int bottom,
+                int padding, Rect cropArea, Rect region) {
+            RectF band = new RectF(0, top, outWidth, bottom);
+            outToCrop.mapRect(band);
+            band.roundOut(region);
+            region.inset(-padding, -padding);
+            return region.intersect(cropArea);
+        }
+
+        private static int getDecodedSize(int size, int sampleSize) {
+            return (size + sampleSize - 1) / sampleSize;
+        }
+
+        /**
+         * Draws the crop into the canvas from the whole image, decoded at the sample size. Used
+         * when the image cannot be decoded by regions.
+         */
+        private boolean drawFullImage(Point bounds, int sampleSize, Matrix cropToOut,
+                Canvas canvas, Paint paint) {
+            InputStream is = regenerateInputStream();
+            if (is == null) {
+                return false;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (sampleSize > 1) {
+                options.inSampleSize = sampleSize;
+            }
+            Bitmap fullSize = BitmapFactory.decodeStream(is, null, options);
+            Utils.closeSilently(is);
+            if (fullSize == null) {
+                return false;
+            }
+
+            // Find out the true sample size that was used by the decoder
+            Matrix m = new Matrix();
+            if (bounds != null) {
+                m.setScale((float) bounds.x / fullSize.getWidth(),
+                        (float) bounds.y / fullSize.getHeight());
+            } else {
+                m.setScale(sampleSize, sampleSize);
+            }
+            m.postConcat(cropToOut);
+            canvas.drawBitmap(fullSize, m, paint);
+            fullSize.recycle();
+            return true;
+        }
+
+        /**
+         * Compresses the bitmap into a file in the cache and sets the wallpaper from it, so that
+         * the encoded image is streamed instead of being held in memory.
+         */
+        private boolean setWallpaperThroughFile(WallpaperManager wallpaperManager, Bitmap bitmap,
+                CompressFormat cf) {
+            File file = null;
+            OutputStream out = null;
+            InputStream in = null;
+            try {
+                file = File.createTempFile("wallpaper", null, mContext.getCacheDir());
+                out = new BufferedOutputStream(new FileOutputStream(file));
+                if (!bitmap.compress(cf, DEFAULT_COMPRESS_QUALITY, out)) {
+                    Log.w(LOGTAG, "cannot compress bitmap");
+                    return false;
+                }
+                out.close();
+                out = null;
+                in = new BufferedInputStream(new FileInputStream(file));
+                wallpaperManager.setStream(in);
+                return true;
+            } catch (IOException e) {
+                Log.w(LOGTAG, "cannot write stream to wallpaper", e);
+                return false;
+            } finally {
+                Utils.closeSilently(out);
+                Utils.closeSilently(in);
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+
         @Override
         protected Boolean doInBackground(Void... params) {
             return cropBitmap();
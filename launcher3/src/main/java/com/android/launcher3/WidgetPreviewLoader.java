@@ -1,21 +1,14 @@
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteCantOpenDatabaseException;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteDiskIOException;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.database.sqlite.SQLiteReadOnlyDatabaseException;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.ColorMatrix;
@@ -27,20 +20,20 @@ import android.graphics.Shader;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
-import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
+import com.android.launcher3.util.BitmapPool;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -104,19 +97,15 @@ public class WidgetPreviewLoader {
         }
     }
 
-    private static class BitmapFactoryOptionsCache extends
-            SoftReferenceThreadLocal<BitmapFactory.Options> {
-        @Override
-        protected BitmapFactory.Options initialValue() {
-            return new BitmapFactory.Options();
-        }
-    }
-
     private static final String TAG = "WidgetPreviewLoader";
+    private static final boolean DEBUG = false;
     private static final String ANDROID_INCREMENTAL_VERSION_NAME_KEY = "android.incremental.version";
 
     private static final float WIDGET_PREVIEW_ICON_PADDING_PERCENTAGE = 0.25f;
     private static final HashSet<String> sInvalidPackages = new HashSet<String>();
+    // The live loaders, whose cached previews are dropped when a package changes
+    private static final WeakHashMap<WidgetPreviewLoader, Object> sLoaders =
+            new WeakHashMap<WidgetPreviewLoader, Object>();
 
     // Used for drawing shortcut previews
     private final BitmapCache mCachedShortcutPreviewBitmap = new BitmapCache();
@@ -129,14 +118,22 @@ public class WidgetPreviewLoader {
     private final RectCache mCachedAppWidgetPreviewDestRect = new RectCache();
     private final PaintCache mCachedAppWidgetPreviewPaint = new PaintCache();
     private final PaintCache mDefaultAppWidgetPreviewPaint = new PaintCache();
-    private final BitmapFactoryOptionsCache mCachedBitmapFactoryOptions = new BitmapFactoryOptionsCache();
 
+    // Previews kept in memory, most recently used last, up to mMaxCacheBytes. The views give
+    // these back with recycleBitmap(), but they are kept until they are evicted.
+    private final LinkedHashMap<String, Bitmap> mCachedPreviews =
+            new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private final long mMaxCacheBytes;
+    private long mCacheBytes;
+
+    // Previews evicted from mCachedPreviews which may still be shown, guarded by
+    // mCachedPreviews. These are reused by recycleBitmap().
     private final HashMap<String, WeakReference<Bitmap>> mLoadedPreviews = new HashMap<String, WeakReference<Bitmap>>();
-    private final ArrayList<SoftReference<Bitmap>> mUnusedBitmaps = new ArrayList<SoftReference<Bitmap>>();
 
     private final Context mContext;
     private final int mAppIconSize;
     private final IconCache mIconCache;
+    private final BitmapPool mBitmapPool;
     private final AppWidgetManagerCompat mManager;
 
     private int mPreviewBitmapWidth;
@@ -144,63 +141,80 @@ public class WidgetPreviewLoader {
     private String mSize;
     private PagedViewCellLayout mWidgetSpacingLayout;
 
-    private String mCachedSelectQuery;
-
-
-    private CacheDb mDb;
+    // Counters for tuning the cache size, guarded by mCachedPreviews
+    private int mCacheHits;
+    private int mWeakHits;
+    private int mMisses;
+    private int mReadCount;
+    private long mReadTimeMs;
+    private int mGenerateCount;
+    private long mGenerateTimeMs;
+    // Previews dropped because their package changed, until they are loaded again
+    private final HashSet<String> mReplacedPreviews = new HashSet<String>();
+    // The dropped previews which the views may still show and give back to recycleBitmap()
+    private final WeakHashMap<Bitmap, Object> mReplacedBitmaps = new WeakHashMap<Bitmap, Object>();
+    private int mReplacedCount;
+    private int mReloadedCount;
+
+    private final WidgetPreviewPack mPack;
 
     private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
     public WidgetPreviewLoader(Context context) {
         LauncherAppState app = LauncherAppState.getInstance();
         DeviceProfile grid = app.getDynamicGrid().getDeviceProfile();
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
 
         mContext = context;
         mAppIconSize = grid.iconSizePx;
+        mMaxCacheBytes = activityManager.getMemoryClass() * 1024L * 1024L
+                * context.getResources().getInteger(
+                        R.integer.config_widgetPreviewCacheMemoryPercentage) / 100;
         mIconCache = app.getIconCache();
+        mBitmapPool = app.getBitmapPool();
         mManager = AppWidgetManagerCompat.getInstance(context);
 
-        mDb = app.getWidgetPreviewCacheDb();
+        mPack = app.getWidgetPreviewPack();
 
         SharedPreferences sp = context.getSharedPreferences(
                 LauncherAppState.getSharedPreferencesKey(), Context.MODE_PRIVATE);
         final String lastVersionName = sp.getString(ANDROID_INCREMENTAL_VERSION_NAME_KEY, null);
         final String versionName = android.os.Build.VERSION.INCREMENTAL;
-        final boolean isLollipopOrGreater = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
         if (!versionName.equals(lastVersionName)) {
-            try {
-                // clear all the previews whenever the system version changes, to ensure that
-                // previews are up-to-date for any apps that might have been updated with the system
-                clearDb();
-            } catch (SQLiteReadOnlyDatabaseException e) {
-                if (isLollipopOrGreater) {
-                    // Workaround for Bug. 18554839, if we fail to clear the db due to the read-only
-                    // issue, then ignore this error and leave the old previews
-                } else {
-                    throw e;
-                }
-            } finally {
-                SharedPreferences.Editor editor = sp.edit();
-                editor.putString(ANDROID_INCREMENTAL_VERSION_NAME_KEY, versionName);
-                editor.commit();
-            }
+            // clear all the previews whenever the system version changes, to ensure that
+            // previews are up-to-date for any apps that might have been updated with the system
+            mPack.clear();
+            SharedPreferences.Editor editor = sp.edit();
+            editor.putString(ANDROID_INCREMENTAL_VERSION_NAME_KEY, versionName);
+            editor.commit();
         }
-    }
 
-    public void recreateDb() {
-        LauncherAppState app = LauncherAppState.getInstance();
-        app.recreateWidgetPreviewDb();
-        mDb = app.getWidgetPreviewCacheDb();
+        synchronized (sLoaders) {
+            sLoaders.put(this, null);
+        }
     }
 
     public void setPreviewSize(int previewWidth, int previewHeight,
             PagedViewCellLayout widgetSpacingLayout) {
+        String size = previewWidth + "x" + previewHeight;
+        if (mSize != null && !mSize.equals(size)) {
+            // The cached previews are keyed by name only
+            synchronized (mCachedPreviews) {
+                mCachedPreviews.clear();
+                mCacheBytes = 0;
+            }
+        }
         mPreviewBitmapWidth = previewWidth;
         mPreviewBitmapHeight = previewHeight;
-        mSize = previewWidth + "x" + previewHeight;
+        mSize = size;
         mWidgetSpacingLayout = widgetSpacingLayout;
     }
 
+    boolean hasPreviewSize() {
+        return mSize != null;
+    }
+
     public Bitmap getPreview(final Object o) {
         final String name = getObjectName(o);
         final String packageName = getObjectPackage(o);
@@ -211,64 +225,75 @@ public class WidgetPreviewLoader {
                 return null;
             }
         }
-        synchronized(mLoadedPreviews) {
+        synchronized(mCachedPreviews) {
             // check if it exists in our existing cache
+            Bitmap bitmap = mCachedPreviews.get(name);
+            if (bitmap != null) {
+                mCacheHits++;
+                return bitmap;
+            }
+            // or is still shown somewhere after being evicted
             if (mLoadedPreviews.containsKey(name)) {
-                WeakReference<Bitmap> bitmapReference = mLoadedPreviews.get(name);
-                Bitmap bitmap = bitmapReference.get();
+                WeakReference<Bitmap> bitmapReference = mLoadedPreviews.remove(name);
+                bitmap = bitmapReference.get();
                 if (bitmap != null) {
+                    mWeakHits++;
+                    putLocked(name, bitmap);
                     return bitmap;
                 }
             }
+            mMisses++;
         }
 
-        Bitmap unusedBitmap = null;
-        synchronized(mUnusedBitmaps) {
-            // not in cache; we need to load it from the db
-            while (unusedBitmap == null && mUnusedBitmaps.size() > 0) {
-                Bitmap candidate = mUnusedBitmaps.remove(0).get();
-                if (candidate != null && candidate.isMutable() &&
-                        candidate.getWidth() == mPreviewBitmapWidth &&
-                        candidate.getHeight() == mPreviewBitmapHeight) {
-                    unusedBitmap = candidate;
-                }
-            }
-            if (unusedBitmap != null) {
-                final Canvas c = mCachedAppWidgetPreviewCanvas.get();
-                c.setBitmap(unusedBitmap);
-                c.drawColor(0, PorterDuff.Mode.CLEAR);
-                c.setBitmap(null);
-            }
-        }
-
-        if (unusedBitmap == null) {
-            unusedBitmap = Bitmap.createBitmap(mPreviewBitmapWidth, mPreviewBitmapHeight,
-                    Bitmap.Config.ARGB_8888);
-        }
-        Bitmap preview = readFromDb(name, unusedBitmap);
+        // not in cache; we need to load it from the pack
+        Bitmap unusedBitmap = mBitmapPool.get(mPreviewBitmapWidth, mPreviewBitmapHeight);
+        long t = SystemClock.uptimeMillis();
+        Bitmap preview = mPack.read(name, mSize, unusedBitmap) ? unusedBitmap : null;
 
         if (preview != null) {
-            synchronized(mLoadedPreviews) {
-                mLoadedPreviews.put(name, new WeakReference<Bitmap>(preview));
+            Bitmap cached;
+            synchronized(mCachedPreviews) {
+                mReadCount++;
+                mReadTimeMs += SystemClock.uptimeMillis() - t;
+                if (mReplacedPreviews.remove(name)) {
+                    mReloadedCount++;
+                }
+                cached = putIfAbsentLocked(name, preview);
             }
-            return preview;
+            if (cached != preview) {
+                mBitmapPool.put(preview);
+            }
+            return cached;
         } else {
-            // it's not in the db... we need to generate it
+            // it's not in the pack... we need to generate it
+            t = SystemClock.uptimeMillis();
             final Bitmap generatedPreview = generatePreview(o, unusedBitmap);
             preview = generatedPreview;
             if (preview != unusedBitmap) {
                 throw new RuntimeException("generatePreview is not recycling the bitmap " + o);
             }
 
-            synchronized(mLoadedPreviews) {
-                mLoadedPreviews.put(name, new WeakReference<Bitmap>(preview));
+            Bitmap cached;
+            synchronized(mCachedPreviews) {
+                mGenerateCount++;
+                mGenerateTimeMs += SystemClock.uptimeMillis() - t;
+                if (mReplacedPreviews.remove(name)) {
+                    mReloadedCount++;
+                }
+                cached = putIfAbsentLocked(name, preview);
+            }
+            if (cached != preview) {
+                // The other load wrote or is writing its preview to the pack
+                mBitmapPool.put(preview);
+                return cached;
             }
 
-            // write to db on a thread pool... this can be done lazily and improves the performance
-            // of the first time widget previews are loaded
+            // write to the pack on a thread pool... this can be done lazily and improves the
+            // performance of the first time widget previews are loaded
+            final String size = mSize;
             new AsyncTask<Void, Void, Void>() {
                 public Void doInBackground(Void ... args) {
-                    writeToDb(o, generatedPreview);
+                    mPack.write(name, size, generatedPreview);
                     return null;
                 }
             }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
@@ -279,53 +304,88 @@ public class WidgetPreviewLoader {
 
     public void recycleBitmap(Object o, Bitmap bitmapToRecycle) {
         String name = getObjectName(o);
-        synchronized (mLoadedPreviews) {
+        synchronized (mCachedPreviews) {
+            if (mCachedPreviews.get(name) == bitmapToRecycle) {
+                // Still cached, it will be recycled once evicted and given back again
+                return;
+            }
             if (mLoadedPreviews.containsKey(name)) {
                 Bitmap b = mLoadedPreviews.get(name).get();
                 if (b == bitmapToRecycle) {
                     mLoadedPreviews.remove(name);
-                    if (bitmapToRecycle.isMutable()) {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(new SoftReference<Bitmap>(b));
-                        }
-                    }
-                } else {
+                    mBitmapPool.put(b);
+                } else if (!mReplacedBitmaps.containsKey(bitmapToRecycle)) {
+                    // Unless the view showed a preview which was dropped when its package
+                    // changed, which is left to the garbage collector
                     throw new RuntimeException("Bitmap passed in doesn't match up");
                 }
             }
         }
     }
 
-    static class CacheDb extends SQLiteOpenHelper {
-        final static int DB_VERSION = 2;
-        final static String TABLE_NAME = "shortcut_and_widget_previews";
-        final static String COLUMN_NAME = "name";
-        final static String COLUMN_SIZE = "size";
-        final static String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
-        Context mContext;
+    /**
+     * Adds the preview to the cache, unless another load of the same preview, such as a prefetch,
+     * finished first. Returns the preview which is cached, the views may already show it and will
+     * give it back to recycleBitmap(). Must be called with mCachedPreviews held.
+     */
+    private Bitmap putIfAbsentLocked(String name, Bitmap preview) {
+        Bitmap cached = mCachedPreviews.get(name);
+        if (cached == null) {
+            WeakReference<Bitmap> bitmapReference = mLoadedPreviews.remove(name);
+            cached = (bitmapReference != null) ? bitmapReference.get() : null;
+        }
+        putLocked(name, cached != null ? cached : preview);
+        return cached != null ? cached : preview;
+    }
 
-        public CacheDb(Context context) {
-            super(context, new File(context.getCacheDir(),
-                    LauncherFiles.WIDGET_PREVIEWS_DB).getPath(), null, DB_VERSION);
-            // Store the context for later use
-            mContext = context;
+    /**
+     * Adds the preview to the cache, moving the least recently used previews to mLoadedPreviews
+     * if the cache goes over its budget. Must be called with mCachedPreviews held.
+     */
+    private void putLocked(String name, Bitmap preview) {
+        Bitmap previous = mCachedPreviews.put(name, preview);
+        if (previous != null) {
+            mCacheBytes -= getByteCount(previous);
+        }
+        mCacheBytes += getByteCount(preview);
+
+        Iterator<Map.Entry<String, Bitmap>> it = mCachedPreviews.entrySet().iterator();
+        while (mCacheBytes > mMaxCacheBytes && it.hasNext()) {
+            Map.Entry<String, Bitmap> e = it.next();
+            if (e.getValue() == preview) {
+                // Always keep the preview being returned
+                continue;
+            }
+            it.remove();
+            mCacheBytes -= getByteCount(e.getValue());
+            mLoadedPreviews.put(e.getKey(), new WeakReference<Bitmap>(e.getValue()));
         }
+        if (DEBUG) Log.d(TAG, "cache size " + mCacheBytes + "/" + mMaxCacheBytes + " bytes, "
+                + mCachedPreviews.size() + " previews");
+    }
 
-        @Override
-        public void onCreate(SQLiteDatabase database) {
-            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
-                    COLUMN_NAME + " TEXT NOT NULL, " +
-                    COLUMN_SIZE + " TEXT NOT NULL, " +
-                    COLUMN_PREVIEW_BITMAP + " BLOB NOT NULL, " +
-                    "PRIMARY KEY (" + COLUMN_NAME + ", " + COLUMN_SIZE + ") " +
-                    ");");
-        }
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
 
-        @Override
-        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            if (oldVersion != newVersion) {
-                // Delete all the records; they'll be repopulated as this is a cache
-                db.execSQL("DELETE FROM " + TABLE_NAME);
+    /**
+     * Prints the cache counters, to tune config_widgetPreviewCacheMemoryPercentage.
+     */
+    public void dumpState() {
+        synchronized (mCachedPreviews) {
+            Log.d(TAG, "cache size " + mCacheBytes + "/" + mMaxCacheBytes + " bytes, "
+                    + mCachedPreviews.size() + " previews, " + mLoadedPreviews.size()
+                    + " evicted");
+            Log.d(TAG, "hits=" + mCacheHits + " weakHits=" + mWeakHits + " misses=" + mMisses);
+            Log.d(TAG, "read=" + mReadCount + " in " + mReadTimeMs + "ms, generated="
+                    + mGenerateCount + " in " + mGenerateTimeMs + "ms");
+            Log.d(TAG, "replaced=" + mReplacedCount + " reloaded=" + mReloadedCount
+                    + " notReloaded=" + mReplacedPreviews.size());
+            for (Map.Entry<String, Bitmap> e : mCachedPreviews.entrySet()) {
+                if (mReplacedBitmaps.containsKey(e.getValue())) {
+                    Log.e(TAG, "the preview of " + e.getKey() + " was not regenerated after its"
+                            + " package changed");
+                }
             }
         }
     }
@@ -363,59 +423,23 @@ public class WidgetPreviewLoader {
         }
     }
 
-    private void writeToDb(Object o, Bitmap preview) {
-        String name = getObjectName(o);
-        SQLiteDatabase db = mDb.getWritableDatabase();
-        ContentValues values = new ContentValues();
-
-        values.put(CacheDb.COLUMN_NAME, name);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        preview.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, stream.toByteArray());
-        values.put(CacheDb.COLUMN_SIZE, mSize);
-        try {
-            db.insert(CacheDb.TABLE_NAME, null, values);
-        } catch (SQLiteDiskIOException e) {
-            recreateDb();
-        } catch (SQLiteCantOpenDatabaseException e) {
-            dumpOpenFiles();
-            throw e;
-        }
-    }
-
-    private void clearDb() {
-        SQLiteDatabase db = mDb.getWritableDatabase();
-        // Delete everything
-        try {
-            db.delete(CacheDb.TABLE_NAME, null, null);
-        } catch (SQLiteDiskIOException e) {
-        } catch (SQLiteCantOpenDatabaseException e) {
-            dumpOpenFiles();
-            throw e;
-        }
-    }
-
-    public static void removePackageFromDb(final CacheDb cacheDb, final String packageName) {
+    public static void removePackageFromCache(final WidgetPreviewPack pack,
+            final String packageName) {
         synchronized(sInvalidPackages) {
             sInvalidPackages.add(packageName);
         }
+        ArrayList<WidgetPreviewLoader> loaders;
+        synchronized (sLoaders) {
+            loaders = new ArrayList<WidgetPreviewLoader>(sLoaders.keySet());
+        }
+        for (WidgetPreviewLoader loader : loaders) {
+            loader.removePackage(packageName);
+        }
         new AsyncTask<Void, Void, Void>() {
             public Void doInBackground(Void ... args) {
-                SQLiteDatabase db = cacheDb.getWritableDatabase();
-                try {
-                    db.delete(CacheDb.TABLE_NAME,
-                            CacheDb.COLUMN_NAME + " LIKE ? OR " +
-                            CacheDb.COLUMN_NAME + " LIKE ?", // SELECT query
-                            new String[] {
-                                    WIDGET_PREFIX + packageName + "/%",
-                                    SHORTCUT_PREFIX + packageName + "/%"
-                            } // args to SELECT query
-                    );
-                } catch (SQLiteDiskIOException e) {
-                } catch (SQLiteCantOpenDatabaseException e) {
-                    dumpOpenFiles();
-                    throw e;
-                }
+                pack.removeNamesStartingWith(
+                        WIDGET_PREFIX + packageName + "/",
+                        SHORTCUT_PREFIX + packageName + "/");
                 synchronized(sInvalidPackages) {
                     sInvalidPackages.remove(packageName);
                 }
@@ -424,63 +448,42 @@ public class WidgetPreviewLoader {
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
     }
 
-    private static void removeItemFromDb(final CacheDb cacheDb, final String objectName) {
-        new AsyncTask<Void, Void, Void>() {
-            public Void doInBackground(Void ... args) {
-                SQLiteDatabase db = cacheDb.getWritableDatabase();
-                try {
-                    db.delete(CacheDb.TABLE_NAME,
-                            CacheDb.COLUMN_NAME + " = ? ", // SELECT query
-                            new String[] { objectName }); // args to SELECT query
-                } catch (SQLiteDiskIOException e) {
-                } catch (SQLiteCantOpenDatabaseException e) {
-                    dumpOpenFiles();
-                    throw e;
+    /**
+     * Drops the previews of the package from both the cache and the evicted previews, so that
+     * they are loaded again. The views may still show them, so they are not recycled.
+     */
+    private void removePackage(String packageName) {
+        final String widgetPrefix = WIDGET_PREFIX + packageName + "/";
+        final String shortcutPrefix = SHORTCUT_PREFIX + packageName + "/";
+        synchronized (mCachedPreviews) {
+            Iterator<Map.Entry<String, Bitmap>> it = mCachedPreviews.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Bitmap> e = it.next();
+                String name = e.getKey();
+                if (name.startsWith(widgetPrefix) || name.startsWith(shortcutPrefix)) {
+                    it.remove();
+                    mCacheBytes -= getByteCount(e.getValue());
+                    mReplacedBitmaps.put(e.getValue(), null);
+                    mReplacedPreviews.add(name);
+                    mReplacedCount++;
                 }
-                return null;
             }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
-    }
-
-    private Bitmap readFromDb(String name, Bitmap b) {
-        if (mCachedSelectQuery == null) {
-            mCachedSelectQuery = CacheDb.COLUMN_NAME + " = ? AND " +
-                    CacheDb.COLUMN_SIZE + " = ?";
-        }
-        SQLiteDatabase db = mDb.getReadableDatabase();
-        Cursor result;
-        try {
-            result = db.query(CacheDb.TABLE_NAME,
-                    new String[] { CacheDb.COLUMN_PREVIEW_BITMAP }, // cols to return
-                    mCachedSelectQuery, // select query
-                    new String[] { name, mSize }, // args to select query
-                    null,
-                    null,
-                    null,
-                    null);
-        } catch (SQLiteDiskIOException e) {
-            recreateDb();
-            return null;
-        } catch (SQLiteCantOpenDatabaseException e) {
-            dumpOpenFiles();
-            throw e;
-        }
-        if (result.getCount() > 0) {
-            result.moveToFirst();
-            byte[] blob = result.getBlob(0);
-            result.close();
-            final BitmapFactory.Options opts = mCachedBitmapFactoryOptions.get();
-            opts.inBitmap = b;
-            opts.inSampleSize = 1;
-            try {
-                return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-            } catch (IllegalArgumentException e) {
-                removeItemFromDb(mDb, name);
-                return null;
+            Iterator<Map.Entry<String, WeakReference<Bitmap>>> loaded =
+                    mLoadedPreviews.entrySet().iterator();
+            while (loaded.hasNext()) {
+                Map.Entry<String, WeakReference<Bitmap>> e = loaded.next();
+                String name = e.getKey();
+                if (name.startsWith(widgetPrefix) || name.startsWith(shortcutPrefix)) {
+                    loaded.remove();
+                    Bitmap bitmap = e.getValue().get();
+                    if (bitmap != null) {
+                        mReplacedBitmaps.put(bitmap, null);
+                    }
+                    if (mReplacedPreviews.add(name)) {
+                        mReplacedCount++;
+                    }
+                }
             }
-        } else {
-            result.close();
-            return null;
         }
     }
 
@@ -716,83 +719,4 @@ public class WidgetPreviewLoader {
             throw new RuntimeException(e);
         }
     }
-
-    private static final int MAX_OPEN_FILES = 1024;
-    private static final int SAMPLE_RATE = 23;
-    /**
-     * Dumps all files that are open in this process without allocating a file descriptor.
-     */
-    private static void dumpOpenFiles() {
-        try {
-            Log.i(TAG, "DUMP OF OPEN FILES (sample rate: 1 every " + SAMPLE_RATE + "):");
-            final String TYPE_APK = "apk";
-            final String TYPE_JAR = "jar";
-            final String TYPE_PIPE = "pipe";
-            final String TYPE_SOCKET = "socket";
-            final String TYPE_DB = "db";
-            final String TYPE_ANON_INODE = "anon_inode";
-            final String TYPE_DEV = "dev";
-            final String TYPE_NON_FS = "non-fs";
-            final String TYPE_OTHER = "other";
-            List<String> types = Arrays.asList(TYPE_APK, TYPE_JAR, TYPE_PIPE, TYPE_SOCKET, TYPE_DB,
-                    TYPE_ANON_INODE, TYPE_DEV, TYPE_NON_FS, TYPE_OTHER);
-            int[] count = new int[types.size()];
-            int[] duplicates = new int[types.size()];
-            HashSet<String> files = new HashSet<String>();
-            int total = 0;
-            for (int i = 0; i < MAX_OPEN_FILES; i++) {
-                // This is a gigantic hack but unfortunately the only way to resolve an fd
-                // to a file name. Note that we have to loop over all possible fds because
-                // reading the directory would require allocating a new fd. The kernel is
-                // currently implemented such that no fd is larger then the current rlimit,
-                // which is why it's safe to loop over them in such a way.
-                String fd = "/proc/self/fd/" + i;
-                try {
-                    // getCanonicalPath() uses readlink behind the scene which doesn't require
-                    // a file descriptor.
-                    String resolved = new File(fd).getCanonicalPath();
-                    int type = types.indexOf(TYPE_OTHER);
-                    if (resolved.startsWith("/dev/")) {
-                        type = types.indexOf(TYPE_DEV);
-                    } else if (resolved.endsWith(".apk")) {
-                        type = types.indexOf(TYPE_APK);
-                    } else if (resolved.endsWith(".jar")) {
-                        type = types.indexOf(TYPE_JAR);
-                    } else if (resolved.contains("/fd/pipe:")) {
-                        type = types.indexOf(TYPE_PIPE);
-                    } else if (resolved.contains("/fd/socket:")) {
-                        type = types.indexOf(TYPE_SOCKET);
-                    } else if (resolved.contains("/fd/anon_inode:")) {
-                        type = types.indexOf(TYPE_ANON_INODE);
-                    } else if (resolved.endsWith(".db") || resolved.contains("/databases/")) {
-                        type = types.indexOf(TYPE_DB);
-                    } else if (resolved.startsWith("/proc/") && resolved.contains("/fd/")) {
-                        // Those are the files that don't point anywhere on the file system.
-                        // getCanonicalPath() wrongly interprets these as relative symlinks and
-                        // resolves them within /proc/<pid>/fd/.
-                        type = types.indexOf(TYPE_NON_FS);
-                    }
-                    count[type]++;
-                    total++;
-                    if (files.contains(resolved)) {
-                        duplicates[type]++;
-                    }
-                    files.add(resolved);
-                    if (total % SAMPLE_RATE == 0) {
-                        Log.i(TAG, " fd " + i + ": " + resolved
-                                + " (" + types.get(type) + ")");
-                    }
-                } catch (IOException e) {
-                    // Ignoring exceptions for non-existing file descriptors.
-                }
-            }
-            for (int i = 0; i < types.size(); i++) {
-                Log.i(TAG, String.format("Open %10s files: %4d total, %4d duplicates",
-                        types.get(i), count[i], duplicates[i]));
-            }
-        } catch (Throwable t) {
-            // Catch everything. This is called from an exception handler that we shouldn't upset.
-            Log.e(TAG, "Unable to log open files.", t);
-        }
-    }
 }
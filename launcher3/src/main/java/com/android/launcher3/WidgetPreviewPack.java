@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of the widget and shortcut previews, keyed by preview name and size.
+ *
+ * <p>The previews are appended to a single file as raw ARGB_8888 pixels, so that loading one is a
+ * copy from the memory-mapped file into a recycled bitmap, without a query or a PNG decode.
+ * Removing a preview appends a tombstone record, and the file is compacted once the removed
+ * records take more than half of it. The index is rebuilt from the record headers when the file
+ * is opened; a truncated last record is dropped.
+ *
+ * <p>All the methods are synchronized, they are called from the preview loading threads.
+ */
+class WidgetPreviewPack {
+    private static final String TAG = "WidgetPreviewPack";
+
+    private static final int RECORD_MAGIC = 0x57505052; // "WPPR"
+    private static final int TYPE_PREVIEW = 1;
+    private static final int TYPE_REMOVED = 2;
+
+    // Removed records are only compacted away once they take at least this much space
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Record {
+        final String name;
+        final long recordOffset;
+        final int recordLength;
+        final int pixelOffset;
+        final int width;
+        final int height;
+
+        Record(String name, long recordOffset, int recordLength, int pixelOffset, int width,
+                int height) {
+            this.name = name;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.pixelOffset = pixelOffset;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final File mFile;
+    private final File mOldDbFile;
+    // Keyed by getKey(name, size)
+    private final HashMap<String, Record> mIndex = new HashMap<String, Record>();
+
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    // Mapping of the file, null if the file grew since it was mapped
+    private MappedByteBuffer mMapped;
+    private long mLength;
+    // Bytes taken by the overwritten and removed records
+    private long mDeadBytes;
+    // Whether the file was opened, which is done on the first access, off the main thread
+    private boolean mOpened;
+
+    WidgetPreviewPack(Context context) {
+        mFile = new File(context.getCacheDir(), LauncherFiles.WIDGET_PREVIEWS_PACK);
+        mOldDbFile = new File(context.getCacheDir(), LauncherFiles.WIDGET_PREVIEWS_DB);
+    }
+
+    /**
+     * Copies the preview into the bitmap, which must be a mutable ARGB_8888 bitmap of the size of
+     * the preview. Returns false if there is no such preview.
+     */
+    synchronized boolean read(String name, String size, Bitmap into) {
+        ensureOpen();
+        Record entry = mIndex.get(getKey(name, size));
+        if (entry == null || mChannel == null) {
+            return false;
+        }
+        if (entry.width != into.getWidth() || entry.height != into.getHeight()
+                || !into.isMutable() || into.getConfig() != Bitmap.Config.ARGB_8888) {
+            return false;
+        }
+        try {
+            if (mMapped == null) {
+                mMapped = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map the preview pack", e);
+            reset();
+            return false;
+        }
+        ByteBuffer pixels = mMapped.duplicate();
+        pixels.limit(entry.pixelOffset + entry.width * entry.height * 4);
+        pixels.position(entry.pixelOffset);
+        into.copyPixelsFromBuffer(pixels);
+        return true;
+    }
+
+    /**
+     * Appends the preview, replacing the previous preview with the same name and size.
+     */
+    synchronized void write(String name, String size, Bitmap preview) {
+        ensureOpen();
+        if (mChannel == null || preview.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        final int width = preview.getWidth();
+        final int height = preview.getHeight();
+        final String key = getKey(name, size);
+        ByteBuffer header = createHeader(TYPE_PREVIEW, key, width, height);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+        preview.copyPixelsToBuffer(pixels);
+        pixels.flip();
+
+        final long offset = mLength;
+        final int recordLength = header.remaining() + pixels.remaining();
+        if (offset + recordLength > Integer.MAX_VALUE) {
+            // Mapped buffers are indexed by int
+            return;
+        }
+        try {
+            append(header, pixels);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the preview of " + name, e);
+            reset();
+            return;
+        }
+        Record previous = mIndex.put(key, new Record(name, offset, recordLength,
+                (int) (offset + header.capacity()), width, height));
+        if (previous != null) {
+            mDeadBytes += previous.recordLength;
+        }
+    }
+
+    /**
+     * Removes the previews whose name starts with one of the prefixes, in all sizes.
+     */
+    synchronized void removeNamesStartingWith(String... prefixes) {
+        ensureOpen();
+        ArrayList<String> removed = new ArrayList<String>();
+        for (Map.Entry<String, Record> e : mIndex.entrySet()) {
+            for (String prefix : prefixes) {
+                if (e.getValue().name.startsWith(prefix)) {
+                    removed.add(e.getKey());
+                    break;
+                }
+            }
+        }
+        removeKeys(removed);
+    }
+
+    synchronized void clear() {
+        ensureOpen();
+        reset();
+    }
+
+    private void ensureOpen() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        // The previews used to be stored in a database
+        SQLiteDatabase.deleteDatabase(mOldDbFile);
+        try {
+            open();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open the preview pack", e);
+            reset();
+        }
+    }
+
+    private void removeKeys(ArrayList<String> keys) {
+        if (keys.isEmpty() || mChannel == null) {
+            return;
+        }
+        try {
+            for (String key : keys) {
+                Record entry = mIndex.remove(key);
+                if (entry == null) {
+                    continue;
+                }
+                ByteBuffer tombstone = createHeader(TYPE_REMOVED, key, 0, 0);
+                mDeadBytes += entry.recordLength + tombstone.remaining();
+                append(tombstone, null);
+            }
+            if (mDeadBytes >= MIN_COMPACT_BYTES && mDeadBytes * 2 > mLength) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not remove " + keys.size() + " previews", e);
+            reset();
+        }
+    }
+
+    private void open() throws IOException {
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mLength = mChannel.size();
+        mMapped = null;
+        mDeadBytes = 0;
+        mIndex.clear();
+        if (mLength > Integer.MAX_VALUE) {
+            throw new IOException("Preview pack too large: " + mLength);
+        }
+        if (mLength == 0) {
+            return;
+        }
+
+        // Rebuild the index from the record headers
+        MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+        long valid = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                final int recordOffset = buffer.position();
+                if (buffer.getInt() != RECORD_MAGIC) {
+                    break;
+                }
+                final int type = buffer.getInt();
+                final String key = getString(buffer);
+                final int width = buffer.getInt();
+                final int height = buffer.getInt();
+                final int pixelOffset = buffer.position();
+                final int pixelLength = width * height * 4;
+                if (width < 0 || height < 0 || pixelLength > buffer.remaining()) {
+                    break;
+                }
+                buffer.position(pixelOffset + pixelLength);
+                final int recordLength = buffer.position() - recordOffset;
+
+                Record previous;
+                if (type == TYPE_PREVIEW) {
+                    previous = mIndex.put(key, new Record(getName(key), recordOffset,
+                            recordLength, pixelOffset, width, height));
+                } else if (type == TYPE_REMOVED) {
+                    previous = mIndex.remove(key);
+                    mDeadBytes += recordLength;
+                } else {
+                    break;
+                }
+                if (previous != null) {
+                    mDeadBytes += previous.recordLength;
+                }
+                valid = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // Truncated record, written when the process died
+        }
+        if (valid < mLength) {
+            Log.w(TAG, "Dropping " + (mLength - valid) + " bytes of truncated records");
+            mChannel.truncate(valid);
+            mLength = valid;
+        }
+    }
+
+    /**
+     * Rewrites the file with only the current previews.
+     */
+    private void compact() throws IOException {
+        final long t = SystemClock.uptimeMillis();
+        File tmp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        HashMap<String, Record> index = new HashMap<String, Record>();
+        long length = 0;
+        try {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            for (Map.Entry<String, Record> e : mIndex.entrySet()) {
+                Record entry = e.getValue();
+                long copied = 0;
+                while (copied < entry.recordLength) {
+                    copied += mChannel.transferTo(entry.recordOffset + copied,
+                            entry.recordLength - copied, outChannel);
+                }
+                index.put(e.getKey(), new Record(entry.name, length, entry.recordLength,
+                        (int) (length + entry.pixelOffset - entry.recordOffset), entry.width,
+                        entry.height));
+                length += entry.recordLength;
+            }
+        } finally {
+            out.close();
+        }
+
+        closeFile();
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp);
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mLength = length;
+        mDeadBytes = 0;
+        mIndex.clear();
+        mIndex.putAll(index);
+        Log.d(TAG, "compacted " + mIndex.size() + " previews to " + length + " bytes in "
+                + (SystemClock.uptimeMillis() - t) + "ms");
+    }
+
+    private void append(ByteBuffer header, ByteBuffer pixels) throws IOException {
+        long position = mLength;
+        while (header.hasRemaining()) {
+            position += mChannel.write(header, position);
+        }
+        while (pixels != null && pixels.hasRemaining()) {
+            position += mChannel.write(pixels, position);
+        }
+        mLength = position;
+        mMapped = null;
+    }
+
+    /**
+     * Deletes the file and starts a new empty one, after the file could not be read or written.
+     */
+    private void reset() {
+        closeFile();
+        mIndex.clear();
+        mFile.delete();
+        try {
+            open();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not create the preview pack", e);
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        mMapped = null;
+        mChannel = null;
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mRaf = null;
+        }
+    }
+
+    private static ByteBuffer createHeader(int type, String key, int width, int height) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(4 * 5 + keyBytes.length);
+        header.putInt(RECORD_MAGIC);
+        header.putInt(type);
+        header.putInt(keyBytes.length);
+        header.put(keyBytes);
+        header.putInt(width);
+        header.putInt(height);
+        header.flip();
+        return header;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // The size strings ("<width>x<height>") never contain a '|'
+    private static String getKey(String name, String size) {
+        return size + "|" + name;
+    }
+
+    private static String getName(String key) {
+        return key.substring(key.indexOf('|') + 1);
+    }
+}
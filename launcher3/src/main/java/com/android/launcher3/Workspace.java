@@ -69,6 +69,7 @@ import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.compat.PackageInstallerCompat;
 import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
 import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.util.BitmapPool;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -1343,6 +1344,10 @@ public class Workspace extends SmoothPagedView
             mLauncherOverlay.onScrollSettled();
             mShouldSendPageSettled = false;
         }
+
+        if (!mLauncher.isWorkspaceLoading()) {
+            prefetchDragOutlines();
+        }
     }
 
     protected void onScrollInteractionBegin() {
@@ -2731,15 +2736,14 @@ public class Workspace extends SmoothPagedView
         Bitmap b;
 
         int padding = expectedPadding.get();
+        BitmapPool pool = LauncherAppState.getInstance().getBitmapPool();
         if (v instanceof TextView) {
             Drawable d = ((TextView) v).getCompoundDrawables()[1];
             Rect bounds = getDrawableBounds(d);
-            b = Bitmap.createBitmap(bounds.width() + padding,
-                    bounds.height() + padding, Bitmap.Config.ARGB_8888);
+            b = pool.get(bounds.width() + padding, bounds.height() + padding);
             expectedPadding.set(padding - bounds.left - bounds.top);
         } else {
-            b = Bitmap.createBitmap(
-                    v.getWidth() + padding, v.getHeight() + padding, Bitmap.Config.ARGB_8888);
+            b = pool.get(v.getWidth() + padding, v.getHeight() + padding);
         }
 
         mCanvas.setBitmap(b);
@@ -2759,12 +2763,61 @@ public class Workspace extends SmoothPagedView
                 v.getWidth() + padding, v.getHeight() + padding, Bitmap.Config.ARGB_8888);
 
         mCanvas.setBitmap(b);
-        drawDragView(v, mCanvas, padding);
-        mOutlineHelper.applyExpensiveOutlineWithBlur(b, mCanvas, outlineColor, outlineColor);
+        Bitmap icon = getOutlineIcon(v);
+        if (icon != null) {
+            // The outline of an icon only depends on the icon, and is usually prefetched
+            Rect bounds = getDrawableBounds(((TextView) v).getCompoundDrawables()[1]);
+            mCanvas.drawBitmap(mOutlineHelper.getIconOutline(icon, bounds.width(),
+                    bounds.height(), padding, outlineColor), 0, 0, null);
+        } else {
+            drawDragView(v, mCanvas, padding);
+            mOutlineHelper.applyExpensiveOutlineWithBlur(b, mCanvas, outlineColor, outlineColor);
+        }
         mCanvas.setBitmap(null);
         return b;
     }
 
+    /**
+     * Returns the icon bitmap of a shortcut whose drag outline can be cached, or null.
+     */
+    private static Bitmap getOutlineIcon(View v) {
+        if (v instanceof BubbleTextView) {
+            Drawable d = ((TextView) v).getCompoundDrawables()[1];
+            if (d instanceof FastBitmapDrawable) {
+                return ((FastBitmapDrawable) d).getBitmap();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes in the background the drag outlines of the shortcuts on the current page and in
+     * the hotseat, so that starting to drag them does not have to.
+     */
+    void prefetchDragOutlines() {
+        final int outlineColor = getResources().getColor(R.color.outline_color);
+        CellLayout page = (CellLayout) getChildAt(getCurrentPage());
+        if (page != null) {
+            prefetchDragOutlines(page, outlineColor);
+        }
+        if (mLauncher.getHotseat() != null) {
+            prefetchDragOutlines(mLauncher.getHotseat().getLayout(), outlineColor);
+        }
+    }
+
+    private void prefetchDragOutlines(CellLayout layout, int outlineColor) {
+        ShortcutAndWidgetContainer container = layout.getShortcutsAndWidgets();
+        for (int i = container.getChildCount() - 1; i >= 0; i--) {
+            View v = container.getChildAt(i);
+            Bitmap icon = getOutlineIcon(v);
+            if (icon != null) {
+                Rect bounds = getDrawableBounds(((TextView) v).getCompoundDrawables()[1]);
+                mOutlineHelper.prefetchIconOutline(icon, bounds.width(), bounds.height(),
+                        DRAG_BITMAP_PADDING, outlineColor);
+            }
+        }
+    }
+
     /**
      * Returns a new bitmap to be used as the object outline, e.g. to visualize the drop location.
      * Responsibility for the bitmap is transferred to the caller.
@@ -2886,8 +2939,8 @@ public class Workspace extends SmoothPagedView
             mDragSourceInternal = (ShortcutAndWidgetContainer) child.getParent();
         }
 
-        // 简单的回收一下我们为App Icon所创建的Bitmap
-        b.recycle();
+        // 简单的回收一下我们为App Icon所创建的Bitmap, the DragView drew a copy of it
+        LauncherAppState.getInstance().getBitmapPool().put(b);
     }
 
     public void beginExternalDragShared(View child, DragSource source) {
@@ -2935,7 +2988,7 @@ public class Workspace extends SmoothPagedView
         dv.setIntrinsicIconScaleFactor(source.getIntrinsicIconScaleFactor());
 
         // Recycle temporary bitmaps
-        tmpB.recycle();
+        LauncherAppState.getInstance().getBitmapPool().put(tmpB);
     }
 
     void addApplicationShortcut(ShortcutInfo info, CellLayout target, long container, long screenId,
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable ARGB_8888 bitmaps which are no longer used, so that the bitmaps drawn while
+ * scrolling and dragging reuse their memory instead of allocating new ones.
+ *
+ * <p>The bitmaps are bucketed by allocation size. Since KitKat, a bitmap at most twice as large
+ * as requested is reconfigured to the requested size, as BitmapFactory.Options.inBitmap allows;
+ * before that only a bitmap of the exact size is reused. The pool holds at most its byte budget,
+ * dropping the least recently added bitmaps first, and is trimmed by {@link #trimMemory}.
+ *
+ * <p>A bitmap must only be put back once nothing draws it anymore. This class is thread safe.
+ */
+public class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    private static final boolean DEBUG = false;
+
+    private static final boolean CAN_RECONFIGURE =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    private final long mMaxBytes;
+    private long mBytes;
+
+    // Bitmaps by allocation size, and in the order they were added for eviction
+    private final TreeMap<Integer, ArrayList<Bitmap>> mBuckets =
+            new TreeMap<Integer, ArrayList<Bitmap>>();
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+    private int mHits;
+    private int mMisses;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a mutable, transparent ARGB_8888 bitmap of the size, reused from the pool if
+     * possible. The caller owns the bitmap.
+     */
+    public Bitmap get(int width, int height) {
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = removeLocked(width, height);
+            if (bitmap == null) {
+                mMisses++;
+            } else {
+                mHits++;
+            }
+        }
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            reconfigure(bitmap, width, height);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Gives the bitmap back to the pool. Nothing may draw it, or hold on to it, afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        final int size = getAllocationByteCount(bitmap);
+        if (size > mMaxBytes) {
+            return;
+        }
+        ArrayList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            mBuckets.put(size, bucket);
+        } else if (bucket.contains(bitmap)) {
+            return;
+        }
+        bucket.add(bitmap);
+        mOrder.addLast(bitmap);
+        mBytes += size;
+        trimToSizeLocked(mMaxBytes);
+    }
+
+    /**
+     * Releases pooled bitmaps according to the level passed to
+     * {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSizeLocked(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSizeLocked(mMaxBytes / 2);
+        }
+    }
+
+    public synchronized void dumpState() {
+        Log.d(TAG, "pool size " + mBytes + "/" + mMaxBytes + " bytes, " + mOrder.size()
+                + " bitmaps, hits=" + mHits + " misses=" + mMisses);
+    }
+
+    private Bitmap removeLocked(int width, int height) {
+        final int needed = width * height * 4;
+        if (CAN_RECONFIGURE) {
+            // The smallest bitmap large enough, if it is not too large
+            Map.Entry<Integer, ArrayList<Bitmap>> e = mBuckets.ceilingEntry(needed);
+            if (e == null || e.getKey() > needed * 2) {
+                return null;
+            }
+            return removeLocked(e.getKey(), e.getValue().size() - 1);
+        }
+        ArrayList<Bitmap> bucket = mBuckets.get(needed);
+        if (bucket != null) {
+            for (int i = bucket.size() - 1; i >= 0; i--) {
+                Bitmap b = bucket.get(i);
+                if (b.getWidth() == width && b.getHeight() == height) {
+                    return removeLocked(needed, i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Bitmap removeLocked(int size, int index) {
+        ArrayList<Bitmap> bucket = mBuckets.get(size);
+        Bitmap bitmap = bucket.remove(index);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mOrder.remove(bitmap);
+        mBytes -= size;
+        return bitmap;
+    }
+
+    private void trimToSizeLocked(long maxBytes) {
+        while (mBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.getFirst();
+            int size = getAllocationByteCount(bitmap);
+            removeLocked(size, mBuckets.get(size).indexOf(bitmap));
+        }
+        if (DEBUG) Log.d(TAG, "pool size " + mBytes + "/" + mMaxBytes + " bytes");
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height) {
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        return CAN_RECONFIGURE ? bitmap.getAllocationByteCount()
+                : bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.Arrays;
+
+/**
+ * The occupied cells of a grid, such as the cells of a CellLayout, stored as one bit per cell.
+ *
+ * <p>Whether a span of cells is vacant is answered in O(1) from a summed-area table of the
+ * occupied cells, which is rebuilt on the first query after the grid changed. Searches for a
+ * vacant span therefore cost one table rebuild plus O(1) per candidate position, instead of
+ * scanning every cell of every candidate span.
+ *
+ * <p>This class is not thread safe.
+ */
+public class GridOccupancy {
+
+    private static final int BITS_PER_WORD = 64;
+
+    public final int countX;
+    public final int countY;
+
+    // The rows one after the other, the cell (x, y) being bit x % 64 of word x / 64 of row y
+    private final int mWordsPerRow;
+    private final long[] mBits;
+
+    // The number of occupied cells above and left of each grid line intersection: the entry
+    // (x, y), at index y * (countX + 1) + x, counts the cells of [0, x) x [0, y)
+    private final int[] mSums;
+    private boolean mSumsValid;
+
+    // Incremented by every change, so that results computed from the grid can be reused
+    private int mModCount;
+
+    public GridOccupancy(int countX, int countY) {
+        this.countX = countX;
+        this.countY = countY;
+        mWordsPerRow = Math.max(1, (countX + BITS_PER_WORD - 1) / BITS_PER_WORD);
+        mBits = new long[mWordsPerRow * countY];
+        mSums = new int[(countX + 1) * (countY + 1)];
+        mSumsValid = true;
+    }
+
+    /**
+     * Returns whether the cell is occupied. The cell must be in the grid.
+     */
+    public boolean isOccupied(int x, int y) {
+        return (mBits[y * mWordsPerRow + x / BITS_PER_WORD] & (1L << x)) != 0;
+    }
+
+    /**
+     * Marks the cell as occupied or vacant. The cell must be in the grid.
+     */
+    public void set(int x, int y, boolean value) {
+        final int index = y * mWordsPerRow + x / BITS_PER_WORD;
+        final long old = mBits[index];
+        mBits[index] = value ? old | (1L << x) : old & ~(1L << x);
+        if (mBits[index] != old) {
+            mSumsValid = false;
+            mModCount++;
+        }
+    }
+
+    /**
+     * Marks the cells of the span as occupied or vacant. The part of the span outside of the
+     * grid is ignored, and nothing is marked if the span starts at a negative cell.
+     */
+    public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0) return;
+        final int endX = Math.min(cellX + spanX, countX);
+        final int endY = Math.min(cellY + spanY, countY);
+        if (cellX >= endX || cellY >= endY) return;
+
+        for (int y = cellY; y < endY; y++) {
+            final int row = y * mWordsPerRow;
+            for (int x = cellX; x < endX; ) {
+                final int word = x / BITS_PER_WORD;
+                final int wordEnd = Math.min(endX, (word + 1) * BITS_PER_WORD);
+                final long mask = mask(x % BITS_PER_WORD, wordEnd - x);
+                if (value) {
+                    mBits[row + word] |= mask;
+                } else {
+                    mBits[row + word] &= ~mask;
+                }
+                x = wordEnd;
+            }
+        }
+        mSumsValid = false;
+        mModCount++;
+    }
+
+    public void clear() {
+        Arrays.fill(mBits, 0);
+        Arrays.fill(mSums, 0);
+        mSumsValid = true;
+        mModCount++;
+    }
+
+    /**
+     * Copies the cells of another grid of the same size into this one.
+     */
+    public void copyFrom(GridOccupancy other) {
+        if (other.countX != countX || other.countY != countY) {
+            throw new IllegalArgumentException("Can not copy a " + other.countX + "x"
+                    + other.countY + " grid into a " + countX + "x" + countY + " grid");
+        }
+        System.arraycopy(other.mBits, 0, mBits, 0, mBits.length);
+        if (other.mSumsValid) {
+            System.arraycopy(other.mSums, 0, mSums, 0, mSums.length);
+        }
+        mSumsValid = other.mSumsValid;
+        mModCount++;
+    }
+
+    /**
+     * Returns a number which changes whenever the grid is modified.
+     */
+    public int getModCount() {
+        return mModCount;
+    }
+
+    /**
+     * Returns the number of occupied cells in the span, which must be in the grid.
+     */
+    public int countOccupied(int cellX, int cellY, int spanX, int spanY) {
+        if (!mSumsValid) {
+            updateSums();
+        }
+        final int stride = countX + 1;
+        final int top = cellY * stride;
+        final int bottom = (cellY + spanY) * stride;
+        return mSums[bottom + cellX + spanX] - mSums[bottom + cellX]
+                - mSums[top + cellX + spanX] + mSums[top + cellX];
+    }
+
+    /**
+     * Returns whether the span lies in the grid and none of its cells are occupied.
+     */
+    public boolean isRegionVacant(int cellX, int cellY, int spanX, int spanY) {
+        if (cellX < 0 || cellY < 0 || spanX <= 0 || spanY <= 0
+                || cellX + spanX > countX || cellY + spanY > countY) {
+            return false;
+        }
+        return countOccupied(cellX, cellY, spanX, spanY) == 0;
+    }
+
+    /**
+     * Returns whether the block, whose top left cell is placed on (cellX, cellY), lies in the
+     * grid and none of its occupied cells lands on an occupied cell of this grid.
+     */
+    public boolean isRegionVacant(int cellX, int cellY, GridOccupancy block) {
+        if (cellX < 0 || cellY < 0
+                || cellX + block.countX > countX || cellY + block.countY > countY) {
+            return false;
+        }
+        if (countOccupied(cellX, cellY, block.countX, block.countY) == 0) {
+            return true;
+        }
+        for (int y = 0; y < block.countY; y++) {
+            for (int x = 0; x < block.countX; x += BITS_PER_WORD) {
+                final int length = Math.min(BITS_PER_WORD, block.countX - x);
+                if ((getBits(cellX + x, cellY + y, length) & block.getBits(x, y, length)) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first vacant span in reading order.
+     *
+     * @param vacant Holds the x and y coordinate of the vacant span
+     * @return True if a vacant span was found
+     */
+    public boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= countY; y++) {
+            for (int x = 0; x + spanX <= countX; x++) {
+                if (isRegionVacant(x, y, spanX, spanY)) {
+                    vacant[0] = x;
+                    vacant[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the bits of the cells [x, x + length) of the row, with the cell x as the lowest bit.
+     */
+    private long getBits(int x, int y, int length) {
+        final int row = y * mWordsPerRow;
+        final int word = x / BITS_PER_WORD;
+        final int shift = x % BITS_PER_WORD;
+        long bits = mBits[row + word] >>> shift;
+        if (shift != 0 && shift + length > BITS_PER_WORD) {
+            bits |= mBits[row + word + 1] << (BITS_PER_WORD - shift);
+        }
+        return bits & mask(0, length);
+    }
+
+    private static long mask(int start, int length) {
+        final long bits = length >= BITS_PER_WORD ? -1L : (1L << length) - 1;
+        return bits << start;
+    }
+
+    private void updateSums() {
+        final int stride = countX + 1;
+        for (int y = 0; y < countY; y++) {
+            final int row = y * mWordsPerRow;
+            final int above = y * stride;
+            final int current = above + stride;
+            int rowSum = 0;
+            for (int x = 0; x < countX; x++) {
+                if ((mBits[row + x / BITS_PER_WORD] & (1L << x)) != 0) {
+                    rowSum++;
+                }
+                mSums[current + x + 1] = mSums[above + x + 1] + rowSum;
+            }
+        }
+        mSumsValid = true;
+    }
+}
@@ -0,0 +1,1194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The placement and reorder algorithms of a CellLayout, on a {@link GridOccupancy} and items of
+ * any type instead of views, so that they run, and can be measured, on a plain JVM.
+ *
+ * <p>The pixel based searches use the cell metrics last passed to {@link #setCellMetrics}. The
+ * reorder search moves the items of an {@link ItemConfiguration} out of the way of the dragged
+ * item, using the temporary grid as scratch space. It gives up once it took longer than its
+ * time budget, and its last solution is reused while it is asked for the same one again.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @param <T> the type of the items placed in the grid
+ */
+public class GridPlacementEngine<T> {
+
+    // The default time the reorder search may take for one drag event
+    public static final long DEFAULT_TIME_BUDGET_NS = 8 * 1000000L;
+
+    // How long the reorder searches took, in buckets of less than 1, 2, 4, 8, 16 and more than
+    // 16 ms, and how often a search was reused or gave up, for all the engines
+    private static final int[] sReorderTimeHistogram = new int[6];
+    private static int sReorderMemoHits;
+    private static int sReorderTimeouts;
+
+    private final GridOccupancy mOccupied;
+    private final GridOccupancy mTmpOccupied;
+    private final int mCountX;
+    private final int mCountY;
+
+    private int mPaddingLeft;
+    private int mPaddingTop;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mWidthGap;
+    private int mHeightGap;
+
+    private long mTimeBudgetNs = DEFAULT_TIME_BUDGET_NS;
+    private long mReorderDeadline;
+    private boolean mReorderTimedOut;
+
+    // The last reorder solution, and the key it was computed for
+    private final ItemConfiguration<T> mReorderSolution = new ItemConfiguration<T>();
+    private final int[] mReorderKey = new int[11];
+    private final int[] mReorderLastKey = new int[11];
+    private T mReorderLastDragItem;
+    private boolean mReorderSolutionValid;
+
+    private final ArrayList<T> mIntersectingItems = new ArrayList<T>();
+    private final CellRect mOccupiedRect = new CellRect();
+    private final CellRect mTempRect = new CellRect();
+    // The candidate areas of a nearest area search, reused across searches
+    private final ArrayList<CellRect> mCandidateRects = new ArrayList<CellRect>();
+    private final int[] mTmpXY = new int[2];
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+    private final int[] mNearest = new int[2];
+
+    /**
+     * @param occupied    the cells occupied by the committed positions of the items
+     * @param tmpOccupied the scratch grid the reorder search works in, of the same size
+     */
+    public GridPlacementEngine(GridOccupancy occupied, GridOccupancy tmpOccupied) {
+        mOccupied = occupied;
+        mTmpOccupied = tmpOccupied;
+        mCountX = occupied.countX;
+        mCountY = occupied.countY;
+    }
+
+    /**
+     * Sets the size of the cells and of the gaps between them, and the offset of the first cell,
+     * which map the pixel positions passed to the searches to cells.
+     */
+    public void setCellMetrics(int paddingLeft, int paddingTop, int cellWidth, int cellHeight,
+            int widthGap, int heightGap) {
+        mPaddingLeft = paddingLeft;
+        mPaddingTop = paddingTop;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mWidthGap = widthGap;
+        mHeightGap = heightGap;
+    }
+
+    /**
+     * Sets the time the reorder search may take, {@link Long#MAX_VALUE} for no limit.
+     */
+    public void setTimeBudget(long timeBudgetNs) {
+        mTimeBudgetNs = timeBudgetNs;
+    }
+
+    /**
+     * Given a cell coordinate and span return the point that represents the center of the region
+     */
+    public void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY, int[] result) {
+        result[0] = mPaddingLeft + cellX * (mCellWidth + mWidthGap) +
+                (spanX * mCellWidth + (spanX - 1) * mWidthGap) / 2;
+        result[1] = mPaddingTop + cellY * (mCellHeight + mHeightGap) +
+                (spanY * mCellHeight + (spanY - 1) * mHeightGap) / 2;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location. Uses Euclidean distance to score multiple vacant areas.
+     *
+     * @param pixelX         The X location at which you want to search for a vacant area.
+     * @param pixelY         The Y location at which you want to search for a vacant area.
+     * @param minSpanX       The minimum horizontal span required
+     * @param minSpanY       The minimum vertical span required
+     * @param spanX          Horizontal span of the object.
+     * @param spanY          Vertical span of the object.
+     * @param ignoreOccupied If true, the result can be an occupied cell
+     * @param result         Array in which to place the result, or null (in which case a new array will
+     *                       be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     * nearest the requested location.
+     */
+    public int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
+            int spanY, boolean ignoreOccupied, int[] result, int[] resultSpan,
+            GridOccupancy occupied) {
+        // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
+        // to the center of the item, but we are searching based on the top-left cell, so
+        // we translate the point over to correspond to the top-left.
+        pixelX -= (mCellWidth + mWidthGap) * (spanX - 1) / 2f;
+        pixelY -= (mCellHeight + mHeightGap) * (spanY - 1) / 2f;
+
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        double bestDistance = Double.MAX_VALUE;
+        final CellRect bestRect = mTempRect;
+        bestRect.set(-1, -1, -1, -1);
+        int candidateCount = 0;
+
+        final int countX = mCountX;
+        final int countY = mCountY;
+
+        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
+                spanX < minSpanX || spanY < minSpanY) {
+            return bestXY;
+        }
+
+        for (int y = 0; y < countY - (minSpanY - 1); y++) {
+            for (int x = 0; x < countX - (minSpanX - 1); x++) {
+                int ySize = -1;
+                int xSize = -1;
+                if (ignoreOccupied) {
+                    // First, let's see if this thing fits anywhere
+                    if (!occupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue;
+                    }
+                    xSize = minSpanX;
+                    ySize = minSpanY;
+
+                    // We know that the item will fit at _some_ acceptable size, now let's see
+                    // how big we can make it. We'll alternate between incrementing x and y spans
+                    // until we hit a limit.
+                    boolean incX = true;
+                    boolean hitMaxX = xSize >= spanX;
+                    boolean hitMaxY = ySize >= spanY;
+                    while (!(hitMaxX && hitMaxY)) {
+                        if (incX && !hitMaxX) {
+                            if (!occupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
+                            }
+                            if (!hitMaxX) {
+                                xSize++;
+                            }
+                        } else if (!hitMaxY) {
+                            if (!occupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
+                            }
+                            if (!hitMaxY) {
+                                ySize++;
+                            }
+                        }
+                        hitMaxX |= xSize >= spanX;
+                        hitMaxY |= ySize >= spanY;
+                        incX = !incX;
+                    }
+                }
+                final int[] cellXY = mTmpXY;
+                regionToCenterPoint(x, y, 1, 1, cellXY);
+
+                // We verify that the current rect is not a sub-rect of any of our previous
+                // candidates. In this case, the current rect is disqualified in favour of the
+                // containing rect.
+                if (candidateCount == mCandidateRects.size()) {
+                    mCandidateRects.add(new CellRect());
+                }
+                CellRect currentRect = mCandidateRects.get(candidateCount);
+                currentRect.set(x, y, x + xSize, y + ySize);
+                boolean contained = false;
+                for (int i = 0; i < candidateCount; i++) {
+                    if (mCandidateRects.get(i).contains(currentRect)) {
+                        contained = true;
+                        break;
+                    }
+                }
+                candidateCount++;
+                double distance = Math.sqrt(Math.pow(cellXY[0] - pixelX, 2)
+                        + Math.pow(cellXY[1] - pixelY, 2));
+
+                if ((distance <= bestDistance && !contained) ||
+                        currentRect.contains(bestRect)) {
+                    bestDistance = distance;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                    if (resultSpan != null) {
+                        resultSpan[0] = xSize;
+                        resultSpan[1] = ySize;
+                    }
+                    bestRect.set(currentRect);
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Double.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX         The X cell nearest to which you want to search for a vacant area.
+     * @param cellY         The Y cell nearest which you want to search for a vacant area.
+     * @param spanX         Horizontal span of the object.
+     * @param spanY         Vertical span of the object.
+     * @param direction     The favored direction in which the views should move from x, y
+     * @param occupied      The grid which represents which cells in the CellLayout are occupied
+     * @param blockOccupied The grid which represents which cells in the specified block (cellX,
+     *                      cellY, spanX, spanY) are occupied. This is used when try to move a
+     *                      group of views.
+     * @param result        Array in which to place the result, or null (in which case a new
+     *                      array will be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     * nearest the requested location.
+     */
+    public int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        final int countX = mCountX;
+        final int countY = mCountY;
+
+        for (int y = 0; y < countY - (spanY - 1); y++) {
+            // Every remaining row is further than the best area found so far
+            if (y - cellY > bestDistance) {
+                break;
+            }
+            for (int x = 0; x < countX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.isRegionVacant(x, y, blockOccupied)) {
+                    continue;
+                }
+
+                float distance = (float)
+                        Math.sqrt((x - cellX) * (x - cellX) + (y - cellY) * (y - cellY));
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                boolean exactDirectionOnly = false;
+                boolean directionMatches = direction[0] == curDirection[0] &&
+                        direction[0] == curDirection[0];
+                if ((directionMatches || !exactDirectionOnly) &&
+                        Float.compare(distance, bestDistance) < 0 || (Float.compare(distance,
+                        bestDistance) == 0 && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    public static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(((float) deltaY) / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    /**
+     * Returns a solution in which the items in the way of the dragged item are pushed aside, if
+     * one can be found within the time budget. The returned configuration is reused by the next
+     * call.
+     *
+     * @param currentState the committed positions of all the items, including the dragged one
+     */
+    public ItemConfiguration<T> findReorderSolution(ItemConfiguration<T> currentState, int pixelX,
+            int pixelY, int minSpanX, int minSpanY, int spanX, int spanY, int[] direction,
+            T dragItem) {
+        // The solution only depends on the committed positions of the items, and on the area
+        // the dragged item is placed in, for each span the search tries
+        int[] nearest = findNearestArea(pixelX, pixelY, spanX, spanY, mNearest);
+        final int[] key = mReorderKey;
+        key[0] = nearest[0];
+        key[1] = nearest[1];
+        key[2] = minSpanX;
+        key[3] = minSpanY;
+        key[4] = spanX;
+        key[5] = spanY;
+        key[6] = direction[0];
+        key[7] = direction[1];
+        key[8] = mOccupied.getModCount();
+        key[9] = currentState.map.size();
+        key[10] = mCountX * 31 + mCountY;
+        boolean sameKey = mReorderSolutionValid && dragItem == mReorderLastDragItem
+                && Arrays.equals(key, mReorderLastKey);
+        if (sameKey && mReorderSolution.isSolution && (mReorderSolution.dragViewSpanX != spanX
+                || mReorderSolution.dragViewSpanY != spanY)) {
+            // The search shrank the item, whose nearest area then depends on the exact position
+            int[] shrunk = findNearestArea(pixelX, pixelY, mReorderSolution.dragViewSpanX,
+                    mReorderSolution.dragViewSpanY, mNearest);
+            sameKey = shrunk[0] == mReorderSolution.dragViewX
+                    && shrunk[1] == mReorderSolution.dragViewY;
+        }
+        if (sameKey) {
+            sReorderMemoHits++;
+            return mReorderSolution;
+        }
+
+        final long start = System.nanoTime();
+        mReorderDeadline = mTimeBudgetNs == Long.MAX_VALUE ? Long.MAX_VALUE
+                : start + mTimeBudgetNs;
+        mReorderTimedOut = false;
+        findReorderSolution(currentState, pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                direction, dragItem, true, mReorderSolution);
+        final long time = System.nanoTime() - start;
+
+        int bucket = 0;
+        for (long limit = 1000000L; bucket < sReorderTimeHistogram.length - 1 && time >= limit;
+                limit *= 2) {
+            bucket++;
+        }
+        sReorderTimeHistogram[bucket]++;
+        if (mReorderTimedOut) {
+            sReorderTimeouts++;
+        }
+
+        // A search which gave up is tried again by the next drag event
+        mReorderSolutionValid = !mReorderTimedOut;
+        System.arraycopy(key, 0, mReorderLastKey, 0, key.length);
+        mReorderLastDragItem = dragItem;
+        return mReorderSolution;
+    }
+
+    /**
+     * Returns whether the last reorder search gave up because it ran out of time.
+     */
+    public boolean isReorderTimedOut() {
+        if (!mReorderTimedOut && System.nanoTime() > mReorderDeadline) {
+            mReorderTimedOut = true;
+        }
+        return mReorderTimedOut;
+    }
+
+    /**
+     * Returns the statistics of the reorder searches of all the engines.
+     */
+    public static String getReorderStats() {
+        return "reorder searches by duration (<1, <2, <4, <8, <16, >=16 ms): "
+                + Arrays.toString(sReorderTimeHistogram) + ", reused=" + sReorderMemoHits
+                + " gave up=" + sReorderTimeouts;
+    }
+
+    private int[] findNearestArea(int pixelX, int pixelY, int spanX, int spanY, int[] result) {
+        return findNearestArea(pixelX, pixelY, spanX, spanY, spanX, spanY, false, result, null,
+                mOccupied);
+    }
+
+    private ItemConfiguration<T> findReorderSolution(ItemConfiguration<T> currentState,
+            int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
+            int[] direction, T dragItem, boolean decX, ItemConfiguration<T> solution) {
+        // Copy the current state into the solution. This solution will be manipulated as necessary.
+        solution.copyFrom(currentState);
+        // Copy the current occupied array into the temporary occupied array. This array will be
+        // manipulated as necessary to find a solution.
+        mTmpOccupied.copyFrom(mOccupied);
+
+        // We find the nearest cell into which we would place the dragged item, assuming there's
+        // nothing in its way.
+        int result[] = findNearestArea(pixelX, pixelY, spanX, spanY, mTempLocation);
+        final int resultX = result[0];
+        final int resultY = result[1];
+
+        // First we try the exact nearest position of the item being dragged,
+        // we will then want to try to move this around to other neighbouring positions
+        boolean success = rearrangementExists(resultX, resultY, spanX, spanY, direction, dragItem,
+                solution);
+
+        if (!success && !isReorderTimedOut()) {
+            // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
+            // x, then 1 in y etc.
+            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+                return findReorderSolution(currentState, pixelX, pixelY, minSpanX, minSpanY,
+                        spanX - 1, spanY, direction, dragItem, false, solution);
+            } else if (spanY > minSpanY) {
+                return findReorderSolution(currentState, pixelX, pixelY, minSpanX, minSpanY,
+                        spanX, spanY - 1, direction, dragItem, true, solution);
+            }
+            solution.isSolution = false;
+        } else if (!success) {
+            solution.isSolution = false;
+        } else {
+            solution.isSolution = true;
+            solution.dragViewX = resultX;
+            solution.dragViewY = resultY;
+            solution.dragViewSpanX = spanX;
+            solution.dragViewSpanY = spanY;
+        }
+        return solution;
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, T ignoreItem, ItemConfiguration<T> solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+        if (isReorderTimedOut()) return false;
+
+        mIntersectingItems.clear();
+        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+        // Mark the desired location of the item currently being dragged.
+        if (ignoreItem != null) {
+            CellAndSpan c = solution.map.get(ignoreItem);
+            if (c != null) {
+                c.x = cellX;
+                c.y = cellY;
+            }
+        }
+        for (T item : solution.map.keySet()) {
+            if (item == ignoreItem) continue;
+            CellAndSpan c = solution.map.get(item);
+            if (mOccupiedRect.intersects(c.x, c.y, c.x + c.spanX, c.y + c.spanY)) {
+                if (!c.canReorder) {
+                    return false;
+                }
+                mIntersectingItems.add(item);
+            }
+        }
+
+        if (solution.intersectingViews == null) {
+            solution.intersectingViews = new ArrayList<T>(mIntersectingItems);
+        } else {
+            solution.intersectingViews.clear();
+            solution.intersectingViews.addAll(mIntersectingItems);
+        }
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersectingItems, mOccupiedRect, direction, ignoreItem,
+                solution)) {
+            return true;
+        }
+
+        // Next we try moving the items as a block, but without requiring the push mechanic.
+        if (addItemsToTempLocation(mIntersectingItems, mOccupiedRect, direction, solution)) {
+            return true;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (T item : mIntersectingItems) {
+            if (!addItemToTempLocation(item, mOccupiedRect, direction, solution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean attemptPushInDirection(ArrayList<T> intersectingItems, CellRect occupied,
+            int[] direction, T ignoreItem, ItemConfiguration<T> solution) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+        }
+        return false;
+    }
+
+    private boolean pushItemsToTempLocation(ArrayList<T> items,
+            CellRect rectOccupiedByPotentialDrop, int[] direction, T dragItem,
+            ItemConfiguration<T> currentState) {
+
+        ItemCluster cluster = new ItemCluster(items, currentState);
+        CellRect clusterRect = cluster.getBoundingRect();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = ItemCluster.LEFT;
+            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
+        } else if (direction[0] > 0) {
+            whichEdge = ItemCluster.RIGHT;
+            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
+        } else if (direction[1] < 0) {
+            whichEdge = ItemCluster.TOP;
+            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
+        } else {
+            whichEdge = ItemCluster.BOTTOM;
+            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (T item : items) {
+            CellAndSpan c = currentState.map.get(item);
+            mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        currentState.save();
+
+        // The pushing algorithm is simplified by considering the items in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the items by their right edge, from right to left.
+        cluster.sortConfigurationForEdgePush(whichEdge);
+
+        while (pushDistance > 0 && !fail) {
+            for (T item : currentState.sortedViews) {
+                // For each item that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that item. If so, we add that item to the
+                // cluster.
+                if (!cluster.items.contains(item) && item != dragItem) {
+                    if (cluster.isItemTouchingEdge(item, whichEdge)) {
+                        CellAndSpan c = currentState.map.get(item);
+                        if (!c.canReorder) {
+                            // The push solution includes the all apps button, this is not viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addItem(item);
+
+                        // Adding item to cluster, mark it as not occupied.
+                        mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, false);
+                    }
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+
+        boolean foundSolution = false;
+        clusterRect = cluster.getBoundingRect();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the cell layout.
+        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX && clusterRect.top >= 0 &&
+                clusterRect.bottom <= mCountY) {
+            foundSolution = true;
+        } else {
+            currentState.restore();
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (T item : cluster.items) {
+            CellAndSpan c = currentState.map.get(item);
+            mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, true);
+        }
+
+        return foundSolution;
+    }
+
+    private boolean addItemsToTempLocation(ArrayList<T> items,
+            CellRect rectOccupiedByPotentialDrop, int[] direction,
+            ItemConfiguration<T> currentState) {
+        if (items.size() == 0) return true;
+
+        boolean success = false;
+        CellRect boundingRect = null;
+        // We construct a rect which represents the entire group of items passed in
+        for (T item : items) {
+            CellAndSpan c = currentState.map.get(item);
+            if (boundingRect == null) {
+                boundingRect = new CellRect();
+                boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+            } else {
+                boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+            }
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (T item : items) {
+            CellAndSpan c = currentState.map.get(item);
+            mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, false);
+        }
+
+        GridOccupancy blockOccupied =
+                new GridOccupancy(boundingRect.width(), boundingRect.height());
+        int top = boundingRect.top;
+        int left = boundingRect.left;
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        for (T item : items) {
+            CellAndSpan c = currentState.map.get(item);
+            blockOccupied.markCells(c.x - left, c.y - top, c.spanX, c.spanY, true);
+        }
+
+        markCells(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
+                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
+
+        // If we successfuly found a location by pushing the block of items, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - boundingRect.left;
+            int deltaY = mTempLocation[1] - boundingRect.top;
+            for (T item : items) {
+                CellAndSpan c = currentState.map.get(item);
+                c.x += deltaX;
+                c.y += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (T item : items) {
+            CellAndSpan c = currentState.map.get(item);
+            mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, true);
+        }
+        return success;
+    }
+
+    private boolean addItemToTempLocation(T item, CellRect rectOccupiedByPotentialDrop,
+            int[] direction, ItemConfiguration<T> currentState) {
+        CellAndSpan c = currentState.map.get(item);
+        boolean success = false;
+        mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, false);
+        markCells(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(c.x, c.y, c.spanX, c.spanY, direction, mTmpOccupied, null, mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            c.x = mTempLocation[0];
+            c.y = mTempLocation[1];
+            success = true;
+        }
+        mTmpOccupied.markCells(c.x, c.y, c.spanX, c.spanY, true);
+        return success;
+    }
+
+    private static void markCells(CellRect r, GridOccupancy occupied, boolean value) {
+        occupied.markCells(r.left, r.top, r.width(), r.height(), value);
+    }
+
+    /**
+     * This helper class defines a cluster of items. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other items. The edges
+     * essentially define a fine-grained boundary around the cluster of items -- like a more
+     * precise version of a bounding box.
+     */
+    private class ItemCluster {
+        final static int LEFT = 0;
+        final static int TOP = 1;
+        final static int RIGHT = 2;
+        final static int BOTTOM = 3;
+
+        ArrayList<T> items;
+        ItemConfiguration<T> config;
+        CellRect boundingRect = new CellRect();
+
+        int[] leftEdge = new int[mCountY];
+        int[] rightEdge = new int[mCountY];
+        int[] topEdge = new int[mCountX];
+        int[] bottomEdge = new int[mCountX];
+        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty, boundingRectDirty;
+
+        public ItemCluster(ArrayList<T> items, ItemConfiguration<T> config) {
+            this.items = new ArrayList<T>(items);
+            this.config = config;
+            resetEdges();
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < mCountX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < mCountY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            leftEdgeDirty = true;
+            rightEdgeDirty = true;
+            bottomEdgeDirty = true;
+            topEdgeDirty = true;
+            boundingRectDirty = true;
+        }
+
+        void computeEdge(int which, int[] edge) {
+            int count = items.size();
+            for (int i = 0; i < count; i++) {
+                CellAndSpan cs = config.map.get(items.get(i));
+                switch (which) {
+                    case LEFT:
+                        int left = cs.x;
+                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
+                            if (left < edge[j] || edge[j] < 0) {
+                                edge[j] = left;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        int right = cs.x + cs.spanX;
+                        for (int j = cs.y; j < cs.y + cs.spanY; j++) {
+                            if (right > edge[j]) {
+                                edge[j] = right;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        int top = cs.y;
+                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
+                            if (top < edge[j] || edge[j] < 0) {
+                                edge[j] = top;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        int bottom = cs.y + cs.spanY;
+                        for (int j = cs.x; j < cs.x + cs.spanX; j++) {
+                            if (bottom > edge[j]) {
+                                edge[j] = bottom;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isItemTouchingEdge(T item, int whichEdge) {
+            CellAndSpan cs = config.map.get(item);
+
+            int[] edge = getEdge(whichEdge);
+
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
+                        if (edge[i] == cs.x + cs.spanX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = cs.y; i < cs.y + cs.spanY; i++) {
+                        if (edge[i] == cs.x) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
+                        if (edge[i] == cs.y + cs.spanY) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = cs.x; i < cs.x + cs.spanX; i++) {
+                        if (edge[i] == cs.y) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (T item : items) {
+                CellAndSpan c = config.map.get(item);
+                switch (whichEdge) {
+                    case LEFT:
+                        c.x -= delta;
+                        break;
+                    case RIGHT:
+                        c.x += delta;
+                        break;
+                    case TOP:
+                        c.y -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        c.y += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        public void addItem(T item) {
+            items.add(item);
+            resetEdges();
+        }
+
+        public CellRect getBoundingRect() {
+            if (boundingRectDirty) {
+                boolean first = true;
+                for (T item : items) {
+                    CellAndSpan c = config.map.get(item);
+                    if (first) {
+                        boundingRect.set(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+                        first = false;
+                    } else {
+                        boundingRect.union(c.x, c.y, c.x + c.spanX, c.y + c.spanY);
+                    }
+                }
+            }
+            return boundingRect;
+        }
+
+        public int[] getEdge(int which) {
+            switch (which) {
+                case LEFT:
+                    return getLeftEdge();
+                case RIGHT:
+                    return getRightEdge();
+                case TOP:
+                    return getTopEdge();
+                case BOTTOM:
+                default:
+                    return getBottomEdge();
+            }
+        }
+
+        public int[] getLeftEdge() {
+            if (leftEdgeDirty) {
+                computeEdge(LEFT, leftEdge);
+            }
+            return leftEdge;
+        }
+
+        public int[] getRightEdge() {
+            if (rightEdgeDirty) {
+                computeEdge(RIGHT, rightEdge);
+            }
+            return rightEdge;
+        }
+
+        public int[] getTopEdge() {
+            if (topEdgeDirty) {
+                computeEdge(TOP, topEdge);
+            }
+            return topEdge;
+        }
+
+        public int[] getBottomEdge() {
+            if (bottomEdgeDirty) {
+                computeEdge(BOTTOM, bottomEdge);
+            }
+            return bottomEdge;
+        }
+
+        PositionComparator comparator = new PositionComparator();
+
+        class PositionComparator implements Comparator<T> {
+            int whichEdge = 0;
+
+            public int compare(T left, T right) {
+                CellAndSpan l = config.map.get(left);
+                CellAndSpan r = config.map.get(right);
+                switch (whichEdge) {
+                    case LEFT:
+                        return (r.x + r.spanX) - (l.x + l.spanX);
+                    case RIGHT:
+                        return l.x - r.x;
+                    case TOP:
+                        return (r.y + r.spanY) - (l.y + l.spanY);
+                    case BOTTOM:
+                    default:
+                        return l.y - r.y;
+                }
+            }
+        }
+
+        public void sortConfigurationForEdgePush(int edge) {
+            comparator.whichEdge = edge;
+            Collections.sort(config.sortedViews, comparator);
+        }
+    }
+
+    /**
+     * The positions of the items of a grid, and where the dragged item goes, as computed by a
+     * search.
+     */
+    public static class ItemConfiguration<T> {
+        public final HashMap<T, CellAndSpan> map = new HashMap<T, CellAndSpan>();
+        private final HashMap<T, CellAndSpan> savedMap = new HashMap<T, CellAndSpan>();
+        final ArrayList<T> sortedViews = new ArrayList<T>();
+        public ArrayList<T> intersectingViews;
+        public boolean isSolution = false;
+        public int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+
+        void save() {
+            // Copy current state into savedMap
+            for (T item : map.keySet()) {
+                map.get(item).copy(savedMap.get(item));
+            }
+        }
+
+        void restore() {
+            // Restore current state from savedMap
+            for (T item : savedMap.keySet()) {
+                savedMap.get(item).copy(map.get(item));
+            }
+        }
+
+        public void add(T item, CellAndSpan cs) {
+            map.put(item, cs);
+            savedMap.put(item, new CellAndSpan());
+            sortedViews.add(item);
+        }
+
+        /**
+         * Returns the cell and span of the item, added to the configuration if it is not yet.
+         * The cells of a reused configuration are overwritten this way, without allocating.
+         */
+        public CellAndSpan obtain(T item) {
+            CellAndSpan c = map.get(item);
+            if (c == null) {
+                c = new CellAndSpan();
+                add(item, c);
+            }
+            return c;
+        }
+
+        /**
+         * Copies the positions of the items of another configuration, dropping the items which
+         * are not in it.
+         */
+        void copyFrom(ItemConfiguration<T> other) {
+            for (T item : other.map.keySet()) {
+                other.map.get(item).copy(obtain(item));
+            }
+            if (map.size() != other.map.size()) {
+                clear();
+                copyFrom(other);
+            }
+        }
+
+        public void clear() {
+            map.clear();
+            savedMap.clear();
+            sortedViews.clear();
+            isSolution = false;
+        }
+
+        public int area() {
+            return dragViewSpanX * dragViewSpanY;
+        }
+    }
+
+    public static class CellAndSpan {
+        public int x, y; // 图标的位置
+        public int spanX, spanY; // 图标在X方向和Y方向的拉伸程度
+        // Whether the item may be moved out of the way of the dragged item
+        public boolean canReorder = true;
+
+        public CellAndSpan() {
+        }
+
+        public CellAndSpan(int x, int y, int spanX, int spanY) {
+            this.x = x;
+            this.y = y;
+            this.spanX = spanX;
+            this.spanY = spanY;
+        }
+
+        public void set(int x, int y, int spanX, int spanY) {
+            this.x = x;
+            this.y = y;
+            this.spanX = spanX;
+            this.spanY = spanY;
+        }
+
+        public void copy(CellAndSpan copy) {
+            copy.x = x;
+            copy.y = y;
+            copy.spanX = spanX;
+            copy.spanY = spanY;
+            copy.canReorder = canReorder;
+        }
+
+        public String toString() {
+            return "(" + x + ", " + y + ": " + spanX + ", " + spanY + ")";
+        }
+    }
+
+    /**
+     * A rectangle of cells, the right and bottom edges being exclusive, with the semantics of
+     * android.graphics.Rect without depending on the framework.
+     */
+    static class CellRect {
+        int left, top, right, bottom;
+
+        void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void set(CellRect r) {
+            set(r.left, r.top, r.right, r.bottom);
+        }
+
+        int width() {
+            return right - left;
+        }
+
+        int height() {
+            return bottom - top;
+        }
+
+        boolean isEmpty() {
+            return left >= right || top >= bottom;
+        }
+
+        boolean contains(CellRect r) {
+            return !isEmpty() && left <= r.left && top <= r.top
+                    && right >= r.right && bottom >= r.bottom;
+        }
+
+        boolean intersects(int left, int top, int right, int bottom) {
+            return this.left < right && left < this.right && this.top < bottom && top < this.bottom;
+        }
+
+        void union(int left, int top, int right, int bottom) {
+            if (left >= right || top >= bottom) {
+                return;
+            }
+            if (isEmpty()) {
+                set(left, top, right, bottom);
+            } else {
+                this.left = Math.min(this.left, left);
+                this.top = Math.min(this.top, top);
+                this.right = Math.max(this.right, right);
+                this.bottom = Math.max(this.bottom, bottom);
+            }
+        }
+    }
+}
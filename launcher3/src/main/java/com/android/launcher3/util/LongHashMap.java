@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Map from primitive longs to objects, used for the item ids of the launcher model so that
+ * lookups do not box the key.
+ *
+ * <p>Like {@link android.util.LongSparseArray}, the entries are kept in dense arrays and can be
+ * walked with {@link #keyAt} and {@link #valueAt}, but lookups go through an open addressing
+ * (linear probing) table instead of a binary search, so they are O(1). Removing an entry moves
+ * the last entry into its place, so indices are only stable while the map is not modified.
+ *
+ * <p>This class is not thread safe.
+ */
+public class LongHashMap<E> implements Iterable<E> {
+
+    private static final int FREE = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    // Open addressing table holding indices into mKeys/mValues, or FREE.
+    // Its length is a power of two, and is kept at least twice the number of entries.
+    private int[] mSlots;
+
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashMap(int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        mKeys = new long[initialCapacity];
+        mValues = new Object[initialCapacity];
+        mSlots = newSlots(tableSizeFor(initialCapacity));
+    }
+
+    /**
+     * Creates a copy of the supplied map. This only copies arrays, no key is boxed.
+     */
+    public LongHashMap(LongHashMap<? extends E> other) {
+        mKeys = other.mKeys.clone();
+        mValues = other.mValues.clone();
+        mSlots = other.mSlots.clone();
+        mSize = other.mSize;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOfKey(key) >= 0;
+    }
+
+    /**
+     * Returns the value mapped to the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long key) {
+        int index = indexOfKey(key);
+        return index < 0 ? null : (E) mValues[index];
+    }
+
+    /**
+     * Maps the key to the value, and returns the value previously mapped to the key, if any.
+     */
+    @SuppressWarnings("unchecked")
+    public E put(long key, E value) {
+        int slot = findSlot(key);
+        int index = mSlots[slot];
+        if (index != FREE) {
+            E previous = (E) mValues[index];
+            mValues[index] = value;
+            return previous;
+        }
+
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        if ((mSize + 1) * 2 > mSlots.length) {
+            mSize++;
+            rehash(mSlots.length * 2);
+        } else {
+            mSlots[slot] = mSize;
+            mSize++;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of the key, and returns the value it was mapped to, if any.
+     */
+    @SuppressWarnings("unchecked")
+    public E remove(long key) {
+        int slot = findSlot(key);
+        int index = mSlots[slot];
+        if (index == FREE) {
+            return null;
+        }
+        E previous = (E) mValues[index];
+        deleteSlot(slot);
+
+        // Keep the entries dense, by moving the last one into the hole
+        int last = mSize - 1;
+        if (index != last) {
+            mKeys[index] = mKeys[last];
+            mValues[index] = mValues[last];
+            mSlots[findSlot(mKeys[index])] = index;
+        }
+        mValues[last] = null;
+        mSize = last;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        Arrays.fill(mSlots, FREE);
+        mSize = 0;
+    }
+
+    /**
+     * Returns the index of the key, in [0, size()), or -1 if it is not mapped.
+     */
+    public int indexOfKey(long key) {
+        return mSlots[findSlot(key)];
+    }
+
+    public long keyAt(int index) {
+        checkIndex(index);
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        checkIndex(index);
+        return (E) mValues[index];
+    }
+
+    /**
+     * Iterates over the values. The map must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private final int mExpectedSize = mSize;
+            private int mNext = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < mSize;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (mSize != mExpectedSize) {
+                    throw new IllegalStateException("LongHashMap modified during iteration");
+                }
+                if (mNext >= mSize) {
+                    throw new NoSuchElementException();
+                }
+                return (E) mValues[mNext++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(mKeys[i]).append('=').append(mValues[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Returns the slot holding the key, or the free slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        final int mask = mSlots.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int index = mSlots[slot];
+            if (index == FREE || mKeys[index] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Frees the slot, shifting back the following entries of the probe sequence so that no
+     * tombstone is needed.
+     */
+    private void deleteSlot(int slot) {
+        final int mask = mSlots.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (mSlots[next] != FREE) {
+            int home = hash(mKeys[mSlots[next]]) & mask;
+            // Move the entry into the gap unless its home slot lies between the gap and itself
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                mSlots[gap] = mSlots[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mSlots[gap] = FREE;
+    }
+
+    private void rehash(int tableSize) {
+        mSlots = newSlots(tableSize);
+        final int mask = tableSize - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = hash(mKeys[i]) & mask;
+            while (mSlots[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = i;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    private static int[] newSlots(int tableSize) {
+        int[] slots = new int[tableSize];
+        Arrays.fill(slots, FREE);
+        return slots;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = 2;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // Package private for LongHashMapTest, which places keys on chosen slots
+    static int hash(long key) {
+        // Item ids are sequential, spread them over the whole table
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -17,18 +17,23 @@
 package com.android.photos;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
+import android.support.v4.util.Pools.Pool;
+import android.support.v4.util.Pools.SynchronizedPool;
 import android.util.Log;
 
 import com.android.gallery3d.common.BitmapUtils;
@@ -39,9 +44,14 @@ import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.photos.views.TiledImageRenderer;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 interface SimpleBitmapRegionDecoder {
     int getWidth();
@@ -92,11 +102,42 @@ class SimpleBitmapRegionDecoderWrapper implements SimpleBitmapRegionDecoder {
 }
 
 class DumbBitmapRegionDecoder implements SimpleBitmapRegionDecoder {
+    private static final String TAG = "DumbBitmapRegionDecoder";
+
+    // The downsampled levels are built down to the size of the smallest tiles
+    private static final int MIN_LEVEL_SIZE = 256;
+
+    // Builds the downsampled levels of the decoders, one image at a time
+    private static final Executor sPyramidExecutor;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        sPyramidExecutor = executor;
+    }
+
     Bitmap mBuffer;
+    // The image downsampled by 2^i at index i, null until it is built. Guarded by this.
+    private final Bitmap[] mLevels;
     Canvas mTempCanvas;
     Paint mTempPaint;
     private DumbBitmapRegionDecoder(Bitmap b) {
         mBuffer = b;
+        int count = 1;
+        for (int size = Math.max(b.getWidth(), b.getHeight()) / 2; size >= MIN_LEVEL_SIZE;
+                size /= 2) {
+            count++;
+        }
+        mLevels = new Bitmap[count];
+        mLevels[0] = b;
+        if (count > 1) {
+            sPyramidExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    buildLevels();
+                }
+            });
+        }
     }
     public static DumbBitmapRegionDecoder newInstance(String pathName) {
         Bitmap b = BitmapFactory.decodeFile(pathName);
@@ -118,21 +159,59 @@ class DumbBitmapRegionDecoder implements SimpleBitmapRegionDecoder {
     public int getHeight() {
         return mBuffer.getHeight();
     }
-    public Bitmap decodeRegion(Rect wantRegion, BitmapFactory.Options options) {
+
+    // Each level is filtered down from the previous one, so the full image is only read once.
+    // Until a level is built, its tiles are scaled down from the previous levels.
+    private void buildLevels() {
+        Bitmap previous = mBuffer;
+        for (int i = 1; i < mLevels.length; i++) {
+            Bitmap level;
+            try {
+                level = Bitmap.createScaledBitmap(previous, Math.max(1, previous.getWidth() / 2),
+                        Math.max(1, previous.getHeight() / 2), true);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "Not enough memory to downsample level " + i, e);
+                return;
+            }
+            synchronized (this) {
+                mLevels[i] = level;
+            }
+            previous = level;
+        }
+    }
+
+    // The canvas and paint are shared by the decoder threads
+    public synchronized Bitmap decodeRegion(Rect wantRegion, BitmapFactory.Options options) {
         if (mTempCanvas == null) {
             mTempCanvas = new Canvas();
             mTempPaint = new Paint();
             mTempPaint.setFilterBitmap(true);
         }
         int sampleSize = Math.max(options.inSampleSize, 1);
-        Bitmap newBitmap = Bitmap.createBitmap(
-                wantRegion.width() / sampleSize,
-                wantRegion.height() / sampleSize,
-                Bitmap.Config.ARGB_8888);
+        int width = wantRegion.width() / sampleSize;
+        int height = wantRegion.height() / sampleSize;
+
+        // Draw from the smallest level built which is at least as large as asked for
+        int level = Math.min(Utils.floorLog2(sampleSize), mLevels.length - 1);
+        while (mLevels[level] == null) {
+            level--;
+        }
+        float levelScale = 1f / (1 << level);
+        float scale = (float) (1 << level) / sampleSize;
+
+        Bitmap newBitmap = options.inBitmap;
+        if (newBitmap != null && newBitmap.isMutable() && newBitmap.getWidth() == width
+                && newBitmap.getHeight() == height
+                && newBitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            newBitmap.eraseColor(Color.TRANSPARENT);
+        } else {
+            newBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
         mTempCanvas.setBitmap(newBitmap);
         mTempCanvas.save();
-        mTempCanvas.scale(1f / sampleSize, 1f / sampleSize);
-        mTempCanvas.drawBitmap(mBuffer, -wantRegion.left, -wantRegion.top, mTempPaint);
+        mTempCanvas.scale(scale, scale);
+        mTempCanvas.drawBitmap(mLevels[level], -wantRegion.left * levelScale,
+                -wantRegion.top * levelScale, mTempPaint);
         mTempCanvas.restore();
         mTempCanvas.setBitmap(null);
         return newBitmap;
@@ -154,6 +233,8 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     // This must be no larger than half the size of the GL_SIZE_LIMIT
     // due to decodePreview being allowed to be up to 2x the size of the target
     public static final int MAX_PREVIEW_SIZE = GL_SIZE_LIMIT / 2;
+    // More than the decoder threads of a TiledImageRenderer
+    private static final int MAX_DECODE_CONTEXTS = 4;
 
     public static abstract class BitmapSource {
         private SimpleBitmapRegionDecoder mDecoder;
@@ -216,6 +297,14 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             return mRotation;
         }
 
+        /**
+         * Returns a key identifying the image and its version, under which its decoded tiles
+         * are kept on disk, or null if they should not be kept.
+         */
+        public String getCacheKey(Context context) {
+            return null;
+        }
+
         public abstract boolean readExif(ExifInterface ei);
         public abstract SimpleBitmapRegionDecoder loadBitmapRegionDecoder();
         public abstract Bitmap loadPreviewBitmap(BitmapFactory.Options options);
@@ -228,6 +317,10 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             mPath = path;
         }
         @Override
+        public String getCacheKey(Context context) {
+            return getFileCacheKey(new File(mPath));
+        }
+        @Override
         public SimpleBitmapRegionDecoder loadBitmapRegionDecoder() {
             SimpleBitmapRegionDecoder d;
             d = SimpleBitmapRegionDecoderWrapper.newInstance(mPath, true);
@@ -268,6 +361,14 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             return new BufferedInputStream(is);
         }
         @Override
+        public String getCacheKey(Context context) {
+            // The content behind other uris can change without notice
+            if (ContentResolver.SCHEME_FILE.equals(mUri.getScheme()) && mUri.getPath() != null) {
+                return getFileCacheKey(new File(mUri.getPath()));
+            }
+            return null;
+        }
+        @Override
         public SimpleBitmapRegionDecoder loadBitmapRegionDecoder() {
             try {
                 InputStream is = regenerateInputStream();
@@ -333,6 +434,21 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
             return new BufferedInputStream(is);
         }
         @Override
+        public String getCacheKey(Context context) {
+            // The resources may belong to a wallpaper package, which is updated separately from
+            // the launcher, so its update time is part of the key
+            try {
+                String packageName = mRes.getResourcePackageName(mResId);
+                long lastUpdateTime = context.getPackageManager()
+                        .getPackageInfo(packageName, 0).lastUpdateTime;
+                return "res:" + mRes.getResourceName(mResId) + ":" + lastUpdateTime;
+            } catch (Resources.NotFoundException e) {
+                return null;
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+        @Override
         public SimpleBitmapRegionDecoder loadBitmapRegionDecoder() {
             InputStream is = regenerateInputStream();
             SimpleBitmapRegionDecoder regionDecoder =
@@ -363,30 +479,40 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         }
     }
 
+    // The files whose tiles are cached are identified by their size and modification time
+    private static String getFileCacheKey(File file) {
+        return file.isFile()
+                ? "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified()
+                : null;
+    }
+
     SimpleBitmapRegionDecoder mDecoder;
     int mWidth;
     int mHeight;
     int mTileSize;
     private BasicTexture mPreview;
     private final int mRotation;
+    private final BitmapSource mSource;
 
-    // For use only by getTile
-    private Rect mWantRegion = new Rect();
-    private Rect mOverlapRegion = new Rect();
-    private BitmapFactory.Options mOptions;
-    private Canvas mCanvas;
+    // For use only by getTile, one context per decoder thread decoding at the same time
+    private final Pool<DecodeContext> mDecodeContexts =
+            new SynchronizedPool<DecodeContext>(MAX_DECODE_CONTEXTS);
+    private boolean mDecoderInUse;
+
+    // The decoded tiles kept on disk, null if the image has no cache key
+    private final TileDiskCache mTileCache;
+    private final String mCacheKey;
 
     public BitmapRegionTileSource(Context context, BitmapSource source) {
         mTileSize = TiledImageRenderer.suggestedTileSize(context);
         mRotation = source.getRotation();
+        mSource = source;
+        mCacheKey = source.getCacheKey(context);
+        mTileCache = mCacheKey != null ? TileDiskCache.getInstance(context) : null;
         mDecoder = source.getBitmapRegionDecoder();
         if (mDecoder != null) {
             mWidth = mDecoder.getWidth();
             mHeight = mDecoder.getHeight();
-            mOptions = new BitmapFactory.Options();
-            mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            mOptions.inPreferQualityOverSpeed = true;
-            mOptions.inTempStorage = new byte[16 * 1024];
             int previewSize = source.getPreviewSize();
             if (previewSize != 0) {
                 previewSize = Math.min(previewSize, MAX_PREVIEW_SIZE);
@@ -434,26 +560,73 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
 
     @Override
     public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+        String tileKey = null;
+        if (mTileCache != null) {
+            tileKey = mCacheKey + "/" + getTileSize() + "/" + level + "/" + x + "/" + y;
+            Bitmap cached = mTileCache.get(tileKey, bitmap);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        DecodeContext context = mDecodeContexts.acquire();
+        if (context == null) {
+            context = new DecodeContext(obtainDecoder());
+        }
+        try {
+            bitmap = getTile(context, level, x, y, bitmap);
+        } finally {
+            mDecodeContexts.release(context);
+        }
+        if (bitmap != null && tileKey != null) {
+            mTileCache.put(tileKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the decoder of a new decode context. BitmapRegionDecoder decodes one region at a
+     * time, so the decoder threads after the first one open their own decoder of the image.
+     */
+    private SimpleBitmapRegionDecoder obtainDecoder() {
+        synchronized (this) {
+            if (!mDecoderInUse) {
+                mDecoderInUse = true;
+                return mDecoder;
+            }
+        }
+        if (mDecoder instanceof SimpleBitmapRegionDecoderWrapper) {
+            SimpleBitmapRegionDecoder decoder = mSource.loadBitmapRegionDecoder();
+            if (decoder instanceof SimpleBitmapRegionDecoderWrapper) {
+                return decoder;
+            }
+        }
+        // The decoders holding the whole image in memory are not duplicated, but shared
+        return mDecoder;
+    }
+
+    private Bitmap getTile(DecodeContext context, int level, int x, int y, Bitmap bitmap) {
         int tileSize = getTileSize();
         if (!REUSE_BITMAP) {
-            return getTileWithoutReusingBitmap(level, x, y, tileSize);
+            return getTileWithoutReusingBitmap(context, level, x, y, tileSize);
         }
 
         int t = tileSize << level;
-        mWantRegion.set(x, y, x + t, y + t);
+        context.wantRegion.set(x, y, x + t, y + t);
 
         if (bitmap == null) {
             bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
         }
 
-        mOptions.inSampleSize = (1 << level);
-        mOptions.inBitmap = bitmap;
+        BitmapFactory.Options options = context.options;
+        options.inSampleSize = (1 << level);
+        options.inBitmap = bitmap;
 
         try {
-            bitmap = mDecoder.decodeRegion(mWantRegion, mOptions);
+            bitmap = context.decoder.decodeRegion(context.wantRegion, options);
         } finally {
-            if (mOptions.inBitmap != bitmap && mOptions.inBitmap != null) {
-                mOptions.inBitmap = null;
+            if (options.inBitmap != bitmap && options.inBitmap != null) {
+                options.inBitmap = null;
             }
         }
 
@@ -463,34 +636,36 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         return bitmap;
     }
 
-    private Bitmap getTileWithoutReusingBitmap(
+    private Bitmap getTileWithoutReusingBitmap(DecodeContext context,
             int level, int x, int y, int tileSize) {
 
         int t = tileSize << level;
-        mWantRegion.set(x, y, x + t, y + t);
+        Rect wantRegion = context.wantRegion;
+        Rect overlapRegion = context.overlapRegion;
+        wantRegion.set(x, y, x + t, y + t);
 
-        mOverlapRegion.set(0, 0, mWidth, mHeight);
+        overlapRegion.set(0, 0, mWidth, mHeight);
 
-        mOptions.inSampleSize = (1 << level);
-        Bitmap bitmap = mDecoder.decodeRegion(mOverlapRegion, mOptions);
+        context.options.inSampleSize = (1 << level);
+        Bitmap bitmap = context.decoder.decodeRegion(overlapRegion, context.options);
 
         if (bitmap == null) {
             Log.w(TAG, "fail in decoding region");
         }
 
-        if (mWantRegion.equals(mOverlapRegion)) {
+        if (wantRegion.equals(overlapRegion)) {
             return bitmap;
         }
 
         Bitmap result = Bitmap.createBitmap(tileSize, tileSize, Config.ARGB_8888);
-        if (mCanvas == null) {
-            mCanvas = new Canvas();
-        }
-        mCanvas.setBitmap(result);
-        mCanvas.drawBitmap(bitmap,
-                (mOverlapRegion.left - mWantRegion.left) >> level,
-                (mOverlapRegion.top - mWantRegion.top) >> level, null);
-        mCanvas.setBitmap(null);
+        if (context.canvas == null) {
+            context.canvas = new Canvas();
+        }
+        context.canvas.setBitmap(result);
+        context.canvas.drawBitmap(bitmap,
+                (overlapRegion.left - wantRegion.left) >> level,
+                (overlapRegion.top - wantRegion.top) >> level, null);
+        context.canvas.setBitmap(null);
         return result;
     }
 
@@ -522,4 +697,20 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         bitmap.recycle();
         return newBitmap;
     }
+
+    // The decoder and the temporary objects used by one decoder thread
+    private static class DecodeContext {
+        final SimpleBitmapRegionDecoder decoder;
+        final Rect wantRegion = new Rect();
+        final Rect overlapRegion = new Rect();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        Canvas canvas;
+
+        DecodeContext(SimpleBitmapRegionDecoder decoder) {
+            this.decoder = decoder;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inPreferQualityOverSpeed = true;
+            options.inTempStorage = new byte[16 * 1024];
+        }
+    }
 }
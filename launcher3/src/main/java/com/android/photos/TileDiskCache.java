@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.photos;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.android.gallery3d.common.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of decoded tiles, so that showing an image again reads its tiles instead of
+ * decoding them.
+ *
+ * <p>Each tile is a file of raw ARGB_8888 pixels after a small header, named after a hash of its
+ * key, and is copied into a bitmap from a memory mapping of the file. The least recently used
+ * tiles are deleted once the files take more than the disk budget. The access order is kept as the
+ * modification time of the files, so that it survives restarts. The cache is dropped when the
+ * application is updated, since the images of its resources may have changed.
+ *
+ * <p>The tiles are written on a background thread. This class is thread safe.
+ */
+class TileDiskCache {
+    private static final String TAG = "TileDiskCache";
+
+    private static final String DIR_NAME = "wallpaper_tiles";
+    private static final String VERSION_FILE = "version";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x54494c45; // "TILE"
+    private static final int HEADER_SIZE = 12;
+    private static final long MAX_BYTES = 48 * 1024 * 1024;
+    // The decoders are faster than the disk, the tiles beyond this many waiting writes are dropped
+    private static final int MAX_PENDING_WRITES = 8;
+
+    // Writes the tiles, one at a time
+    private static final Executor sWriteExecutor;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        sWriteExecutor = executor;
+    }
+
+    private static TileDiskCache sInstance;
+
+    private final File mDir;
+    private final long mAppVersion;
+
+    // File name to file size, least recently used first
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<String, Long>(16, 0.75f,
+            true);
+    private long mBytes;
+    private int mPendingWrites;
+    // Whether the directory was read, which is done on the first access, off the main thread
+    private boolean mOpened;
+
+    static synchronized TileDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileDiskCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TileDiskCache(Context context) {
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        long version = 0;
+        try {
+            version = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Could not find our own package", e);
+        }
+        mAppVersion = version;
+    }
+
+    /**
+     * Returns the cached tile, copied into the reused bitmap if it has the size of the tile, or
+     * null if the tile is not cached.
+     */
+    Bitmap get(String key, Bitmap reuse) {
+        final String name = getFileName(key);
+        synchronized (this) {
+            ensureOpenLocked();
+            if (mFiles.get(name) == null) {
+                return null;
+            }
+        }
+
+        File file = new File(mDir, name);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            int width = mapped.remaining() >= HEADER_SIZE && mapped.getInt() == MAGIC
+                    ? mapped.getInt() : -1;
+            int height = width > 0 ? mapped.getInt() : -1;
+            if (height <= 0 || mapped.remaining() != width * height * 4) {
+                throw new IOException("Invalid tile file " + name);
+            }
+            Bitmap bitmap = reuse;
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height
+                    || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            bitmap.copyPixelsFromBuffer(mapped);
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read tile " + key, e);
+            remove(name);
+            return null;
+        } finally {
+            Utils.closeSilently(raf);
+        }
+    }
+
+    /**
+     * Stores the tile, unless too many tiles are already waiting to be written. The pixels are
+     * copied, the bitmap can be reused as soon as this returns.
+     */
+    void put(String key, Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        synchronized (this) {
+            if (mPendingWrites >= MAX_PENDING_WRITES) {
+                return;
+            }
+            mPendingWrites++;
+        }
+
+        final String name = getFileName(key);
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(HEADER_SIZE + bitmap.getWidth() * bitmap.getHeight() * 4);
+        buffer.putInt(MAGIC).putInt(bitmap.getWidth()).putInt(bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(name, buffer);
+                } finally {
+                    synchronized (TileDiskCache.this) {
+                        mPendingWrites--;
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(String name, ByteBuffer buffer) {
+        synchronized (this) {
+            ensureOpenLocked();
+        }
+        File temp = new File(mDir, name + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(mDir, name))) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write tile " + name, e);
+            temp.delete();
+            return;
+        } finally {
+            Utils.closeSilently(out);
+        }
+
+        synchronized (this) {
+            Long previous = mFiles.put(name, (long) buffer.limit());
+            mBytes += buffer.limit() - (previous != null ? previous : 0);
+            trimLocked();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long size = mFiles.remove(name);
+        if (size != null) {
+            mBytes -= size;
+        }
+        new File(mDir, name).delete();
+    }
+
+    private void trimLocked() {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            new File(mDir, e.getKey()).delete();
+            mBytes -= e.getValue();
+            it.remove();
+        }
+    }
+
+    private void ensureOpenLocked() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + mDir);
+            return;
+        }
+
+        File versionFile = new File(mDir, VERSION_FILE);
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (readVersion(versionFile) != mAppVersion) {
+            for (File f : files) {
+                f.delete();
+            }
+            writeVersion(versionFile);
+            return;
+        }
+
+        // Least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Utils.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            if (name.equals(VERSION_FILE)) {
+                continue;
+            }
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left over by a write which did not complete
+                f.delete();
+                continue;
+            }
+            mFiles.put(name, f.length());
+            mBytes += f.length();
+        }
+        trimLocked();
+    }
+
+    private static long readVersion(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            return raf.readLong();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            Utils.closeSilently(raf);
+        }
+    }
+
+    private void writeVersion(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            raf.writeLong(mAppVersion);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+        } finally {
+            Utils.closeSilently(raf);
+        }
+    }
+
+    private static String getFileName(String key) {
+        return Long.toHexString(Utils.crc64Long(key));
+    }
+}
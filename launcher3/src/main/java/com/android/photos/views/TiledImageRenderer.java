@@ -20,6 +20,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.support.v4.util.LongSparseArray;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -40,7 +41,12 @@ public class TiledImageRenderer {
     public static final int SIZE_UNKNOWN = -1;
 
     private static final String TAG = "TiledImageRenderer";
-    private static final int UPLOAD_LIMIT = 1;
+    // The time the tile uploads may take per frame, the rest of the frame is left to drawing.
+    // At least one tile is uploaded per frame.
+    private static final long UPLOAD_BUDGET_NS = 6 * 1000000L;
+
+    // The most decoder threads used by default. One core is left to the GL thread.
+    private static final int MAX_DEFAULT_DECODERS = 3;
 
     /*
      *  This is the tile state in the CPU side.
@@ -87,9 +93,18 @@ public class TiledImageRenderer {
     private int mOffsetX;
     private int mOffsetY;
 
-    private int mUploadQuota;
+    private int mFrameUploadCount;
     private boolean mRenderComplete;
 
+    // The tiles uploaded by the last frame and the time they took, and the totals of the frames
+    // which uploaded tiles
+    private int mLastFrameUploadCount;
+    private long mLastFrameUploadTimeNs;
+    private int mUploadFrames;
+    private int mUploadedTiles;
+    private long mUploadTotalTimeNs;
+    private long mUploadMaxTimeNs;
+
     private final RectF mSourceRect = new RectF();
     private final RectF mTargetRect = new RectF();
 
@@ -116,9 +131,16 @@ public class TiledImageRenderer {
     private final Rect mTileRange = new Rect();
     private final Rect mActiveRange[] = {new Rect(), new Rect()};
 
-    private TileDecoder mTileDecoder;
+    private final TileDecoder[] mTileDecoders;
     private boolean mBackgroundTileUploaded;
 
+    // When the position last changed, until all the tiles of the display level are drawn,
+    // and how long that took so far
+    private long mPositionChangedTime = -1;
+    private int mSharpCount;
+    private long mSharpTotalTime;
+    private long mSharpMaxTime;
+
     private int mViewWidth, mViewHeight;
     private View mParent;
 
@@ -153,7 +175,8 @@ public class TiledImageRenderer {
          * the original image (down-scaled by a factor of 2^level), but (x, y)
          * still refers to the coordinate on the original image.
          *
-         * The method would be called by the decoder thread.
+         * The method would be called by the decoder threads, possibly
+         * several at the same time.
          */
         public Bitmap getTile(int level, int x, int y, Bitmap reuse);
     }
@@ -170,10 +193,25 @@ public class TiledImageRenderer {
         return metrics.heightPixels > 2048 ||  metrics.widthPixels > 2048;
     }
 
+    public static int suggestedDecoderCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Utils.clamp(processors - 1, 1, MAX_DEFAULT_DECODERS);
+    }
+
     public TiledImageRenderer(View parent) {
+        this(parent, suggestedDecoderCount());
+    }
+
+    /**
+     * @param decoderCount the number of threads decoding the tiles
+     */
+    public TiledImageRenderer(View parent, int decoderCount) {
         mParent = parent;
-        mTileDecoder = new TileDecoder();
-        mTileDecoder.start();
+        mTileDecoders = new TileDecoder[Math.max(1, decoderCount)];
+        for (int i = 0; i < mTileDecoders.length; i++) {
+            mTileDecoders[i] = new TileDecoder();
+            mTileDecoders[i].start();
+        }
     }
 
     public int getViewWidth() {
@@ -246,6 +284,7 @@ public class TiledImageRenderer {
         mCenterY = centerY;
         mScale = scale;
         mLayoutTiles = true;
+        mPositionChangedTime = SystemClock.uptimeMillis();
     }
 
     // Prepare the tiles we want to use for display.
@@ -388,7 +427,23 @@ public class TiledImageRenderer {
     public void freeTextures() {
         mLayoutTiles = true;
 
-        mTileDecoder.finishAndWait();
+        for (TileDecoder decoder : mTileDecoders) {
+            decoder.interrupt();
+        }
+        for (TileDecoder decoder : mTileDecoders) {
+            decoder.finishAndWait();
+        }
+        if (mSharpCount > 0) {
+            Log.d(TAG, "time to fully sharp after a move: average "
+                    + mSharpTotalTime / mSharpCount + "ms, max " + mSharpMaxTime + "ms, "
+                    + mSharpCount + " moves, " + mTileDecoders.length + " decoders");
+        }
+        if (mUploadFrames > 0) {
+            Log.d(TAG, "tile uploads per frame: average "
+                    + (float) mUploadedTiles / mUploadFrames + " tiles in "
+                    + mUploadTotalTimeNs / mUploadFrames / 1000 + "us, max "
+                    + mUploadMaxTimeNs / 1000 + "us, " + mUploadFrames + " frames");
+        }
         synchronized (mQueueLock) {
             mUploadQueue.clean();
             mDecodeQueue.clean();
@@ -410,11 +465,27 @@ public class TiledImageRenderer {
         while (sTilePool.acquire() != null) {}
     }
 
+    /**
+     * Returns the number of tiles uploaded by the last frame.
+     */
+    public int getLastFrameUploadCount() {
+        return mLastFrameUploadCount;
+    }
+
+    /**
+     * Returns the time the texture uploads of the last frame took.
+     */
+    public long getLastFrameUploadTimeNs() {
+        return mLastFrameUploadTimeNs;
+    }
+
     public boolean draw(GLCanvas canvas) {
+        UploadedTexture.resetUploadLimit(UPLOAD_BUDGET_NS);
+        mFrameUploadCount = 0;
+
         layoutTiles();
         uploadTiles(canvas);
 
-        mUploadQuota = UPLOAD_LIMIT;
         mRenderComplete = true;
 
         int level = mLevel;
@@ -457,7 +528,23 @@ public class TiledImageRenderer {
             }
         }
 
+        mLastFrameUploadCount = mFrameUploadCount;
+        mLastFrameUploadTimeNs = UploadedTexture.getUploadTimeNs();
+        if (mFrameUploadCount > 0) {
+            mUploadFrames++;
+            mUploadedTiles += mFrameUploadCount;
+            mUploadTotalTimeNs += mLastFrameUploadTimeNs;
+            mUploadMaxTimeNs = Math.max(mUploadMaxTimeNs, mLastFrameUploadTimeNs);
+        }
+
         if (mRenderComplete) {
+            if (mPositionChangedTime >= 0) {
+                long time = SystemClock.uptimeMillis() - mPositionChangedTime;
+                mPositionChangedTime = -1;
+                mSharpCount++;
+                mSharpTotalTime += time;
+                mSharpMaxTime = Math.max(mSharpMaxTime, time);
+            }
             if (!mBackgroundTileUploaded) {
                 uploadBackgroundTiles(canvas);
             }
@@ -478,15 +565,26 @@ public class TiledImageRenderer {
         }
     }
 
-   private void queueForDecode(Tile tile) {
-       synchronized (mQueueLock) {
-           if (tile.mTileState == STATE_ACTIVATED) {
-               tile.mTileState = STATE_IN_QUEUE;
-               if (mDecodeQueue.push(tile)) {
-                   mQueueLock.notifyAll();
-               }
-           }
-       }
+    private void queueForDecode(Tile tile) {
+        synchronized (mQueueLock) {
+            if (tile.mTileState == STATE_ACTIVATED) {
+                tile.mTileState = STATE_IN_QUEUE;
+                tile.mDecodePriority = getDecodePriority(tile);
+                mDecodeQueue.push(tile);
+                // Wake up one idle decoder per queued tile
+                mQueueLock.notify();
+            }
+        }
+    }
+
+    // The tiles of the level on display are decoded first, then the ones of the other kept
+    // level, each nearest the center of the view first. Smaller is decoded sooner.
+    private long getDecodePriority(Tile tile) {
+        int half = (mTileSize << tile.mTileLevel) / 2;
+        long dx = (tile.mX + half - mCenterX) >> tile.mTileLevel;
+        long dy = (tile.mY + half - mCenterY) >> tile.mTileLevel;
+        long levelDistance = Math.abs(tile.mTileLevel - mLevel);
+        return (levelDistance << 40) + dx * dx + dy * dy;
     }
 
     private void decodeTile(Tile tile) {
@@ -567,10 +665,19 @@ public class TiledImageRenderer {
         return result;
     }
 
+    // Whether another tile can be uploaded in this frame, from the time the uploads took so far
+    private boolean canUploadTile() {
+        return mFrameUploadCount == 0 || UploadedTexture.uploadFits(mTileSize * mTileSize);
+    }
+
+    private void uploadTile(Tile tile, GLCanvas canvas) {
+        tile.updateContent(canvas);
+        mFrameUploadCount++;
+    }
+
     private void uploadTiles(GLCanvas canvas) {
-        int quota = UPLOAD_LIMIT;
         Tile tile = null;
-        while (quota > 0) {
+        while (canUploadTile()) {
             synchronized (mQueueLock) {
                 tile = mUploadQueue.pop();
             }
@@ -579,8 +686,7 @@ public class TiledImageRenderer {
             }
             if (!tile.isContentValid()) {
                 if (tile.mTileState == STATE_DECODED) {
-                    tile.updateContent(canvas);
-                    --quota;
+                    uploadTile(tile, canvas);
                 } else {
                     Log.w(TAG, "Tile in upload queue has invalid state: " + tile.mTileState);
                 }
@@ -604,9 +710,8 @@ public class TiledImageRenderer {
         if (tile != null) {
             if (!tile.isContentValid()) {
                 if (tile.mTileState == STATE_DECODED) {
-                    if (mUploadQuota > 0) {
-                        --mUploadQuota;
-                        tile.updateContent(canvas);
+                    if (canUploadTile()) {
+                        uploadTile(tile, canvas);
                     } else {
                         mRenderComplete = false;
                     }
@@ -667,6 +772,7 @@ public class TiledImageRenderer {
         public Tile mNext;
         public Bitmap mDecodedTile;
         public volatile int mTileState = STATE_ACTIVATED;
+        public long mDecodePriority;
 
         public Tile(int x, int y, int level) {
             mX = x;
@@ -759,6 +865,27 @@ public class TiledImageRenderer {
             return tile;
         }
 
+        // Removes the tile with the smallest decode priority
+        public Tile popFirstToDecode() {
+            Tile best = mHead;
+            Tile bestPrevious = null;
+            for (Tile previous = mHead, tile = previous == null ? null : previous.mNext;
+                    tile != null; previous = tile, tile = tile.mNext) {
+                if (tile.mDecodePriority < best.mDecodePriority) {
+                    best = tile;
+                    bestPrevious = previous;
+                }
+            }
+            if (best != null) {
+                if (bestPrevious == null) {
+                    mHead = best.mNext;
+                } else {
+                    bestPrevious.mNext = best.mNext;
+                }
+            }
+            return best;
+        }
+
         public boolean push(Tile tile) {
             if (contains(tile)) {
                 Log.w(TAG, "Attempting to add a tile already in the queue!");
@@ -800,7 +927,7 @@ public class TiledImageRenderer {
         private Tile waitForTile() throws InterruptedException {
             synchronized (mQueueLock) {
                 while (true) {
-                    Tile tile = mDecodeQueue.pop();
+                    Tile tile = mDecodeQueue.popFirstToDecode();
                     if (tile != null) {
                         return tile;
                     }